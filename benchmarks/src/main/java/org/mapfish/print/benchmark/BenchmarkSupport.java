@@ -0,0 +1,128 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.pdf.PdfWriter;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mapfish.print.Constants;
+import org.mapfish.print.MapPrinter;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.config.layout.Layout;
+import org.mapfish.print.utils.PJsonObject;
+import org.pvalsecc.misc.FileUtilities;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.util.Iterator;
+
+/**
+ * Helpers shared by the benchmarks.
+ */
+public final class BenchmarkSupport {
+    private BenchmarkSupport() {
+    }
+
+    /**
+     * @return The samples directory, given by the "samplesDir" system property.
+     */
+    public static File getSamplesDir() {
+        return new File(System.getProperty("samplesDir", "samples"));
+    }
+
+    public static MapPrinter createPrinter(String configName) throws IOException {
+        return new MapPrinter(new File(getSamplesDir(), configName));
+    }
+
+    /**
+     * Loads a spec from the samples and points all its map servers to the
+     * given stub.
+     */
+    public static PJsonObject loadSpec(String specName, TileServerStub stub) throws IOException {
+        final String spec = FileUtilities.readWholeTextFile(new File(getSamplesDir(), specName));
+        final PJsonObject result = MapPrinter.parseSpec(spec);
+        try {
+            redirect(result.getInternalObj(), stub.getUrl());
+        } catch (JSONException e) {
+            throw new RuntimeException(e);
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
+        return result;
+    }
+
+    /**
+     * Creates a rendering context writing into nothing, for the benchmarks
+     * of the parts of the pipeline.
+     */
+    public static RenderingContext createContext(MapPrinter printer, PJsonObject spec) throws DocumentException {
+        final Layout layout = printer.getConfig().getLayout(spec.getString(Constants.JSON_LAYOUT_KEY));
+        final Document doc = new Document(layout.getFirstPageSize(null, spec));
+        final PdfWriter writer = PdfWriter.getInstance(doc, new NullOutputStream());
+        doc.open();
+        return new RenderingContext(doc, writer, printer.getConfig(), spec, getSamplesDir().getAbsolutePath(), layout, null);
+    }
+
+    private static void redirect(Object json, String stubUrl) throws JSONException, URISyntaxException {
+        if (json instanceof JSONObject) {
+            final JSONObject obj = (JSONObject) json;
+            for (Iterator<?> it = obj.keys(); it.hasNext();) {
+                final String key = (String) it.next();
+                final Object value = obj.get(key);
+                if ("baseURL".equals(key) && value instanceof String && ((String) value).startsWith("http")) {
+                    final URI uri = new URI((String) value);
+                    obj.put(key, stubUrl + uri.getRawPath() + (uri.getRawQuery() != null ? "?" + uri.getRawQuery() : ""));
+                } else {
+                    redirect(value, stubUrl);
+                }
+            }
+        } else if (json instanceof JSONArray) {
+            final JSONArray array = (JSONArray) json;
+            for (int i = 0; i < array.length(); ++i) {
+                redirect(array.get(i), stubUrl);
+            }
+        }
+    }
+
+    /**
+     * Forgets everything written to it.
+     */
+    public static class NullOutputStream extends OutputStream {
+        private long size = 0;
+
+        public void write(int b) {
+            size++;
+        }
+
+        public void write(byte[] b, int off, int len) {
+            size += len;
+        }
+
+        public long getSize() {
+            return size;
+        }
+    }
+}
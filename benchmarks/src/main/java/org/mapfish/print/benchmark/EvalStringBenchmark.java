@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import org.mapfish.print.MapPrinter;
+import org.mapfish.print.PDFUtils;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evaluation of the ${...} expressions used in the layouts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class EvalStringBenchmark {
+    @Param({"842", "${mapTitle}", "Map: ${mapTitle} - ${comment}", "1:${scale}", "Page ${pageNum}/${pageTot}"})
+    public String expression;
+
+    private MapPrinter printer;
+    private RenderingContext context;
+    private PJsonObject params;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        printer = BenchmarkSupport.createPrinter("config.yaml");
+        final TileServerStub stub = new TileServerStub(256, 0);
+        try {
+            final PJsonObject spec = BenchmarkSupport.loadSpec("spec.json", stub);
+            context = BenchmarkSupport.createContext(printer, spec);
+            params = spec.getJSONArray("pages").getJSONObject(0);
+        } finally {
+            stub.stop();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        printer.stop();
+    }
+
+    @Benchmark
+    public String evalString() {
+        return PDFUtils.evalString(context, params, expression);
+    }
+}
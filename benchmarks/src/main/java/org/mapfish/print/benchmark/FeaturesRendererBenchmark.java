@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import com.lowagie.text.pdf.PdfTemplate;
+import org.json.JSONObject;
+import org.mapfish.geo.MfGeo;
+import org.mapfish.geo.MfGeoJSONReader;
+import org.mapfish.print.MapPrinter;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.map.renderers.vector.FeaturesRenderer;
+import org.mapfish.print.map.renderers.vector.StyledMfGeoFactory;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parsing and rendering of a big generated GeoJSON layer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class FeaturesRendererBenchmark {
+    @Param({"1000", "10000"})
+    public int nbFeatures;
+
+    @Param({"50"})
+    public int nbVertices;
+
+    private MapPrinter printer;
+    private RenderingContext context;
+    private PJsonObject styles;
+    private String geoJson;
+    private MfGeo geo;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        printer = BenchmarkSupport.createPrinter("configVector.yaml");
+        final TileServerStub stub = new TileServerStub(256, 0);
+        try {
+            context = BenchmarkSupport.createContext(printer, BenchmarkSupport.loadSpec("specVector.json", stub));
+        } finally {
+            stub.stop();
+        }
+        styles = new PJsonObject(new JSONObject("{\"line\": {\"strokeColor\": \"#FF0000\", \"strokeWidth\": 2}," +
+                "\"poly\": {\"fillColor\": \"#00FF00\", \"fillOpacity\": 0.5, \"strokeColor\": \"#0000FF\"}}"), "styles");
+        geoJson = generate(nbFeatures, nbVertices);
+        geo = parse();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        printer.stop();
+    }
+
+    @Benchmark
+    public MfGeo parse() throws Exception {
+        final MfGeoJSONReader reader = new MfGeoJSONReader(new StyledMfGeoFactory(styles, "_style"));
+        //noinspection deprecation
+        return reader.decode(new JSONObject(geoJson));
+    }
+
+    @Benchmark
+    public PdfTemplate render() {
+        final PdfTemplate template = context.getDirectContent().createTemplate(1000, 1000);
+        FeaturesRenderer.render(context, template, geo);
+        return template;
+    }
+
+    /**
+     * Random (but reproducible) polygons and lines around (100000, 100000).
+     */
+    private static String generate(int nbFeatures, int nbVertices) {
+        final Random random = new Random(42);
+        final StringBuilder result = new StringBuilder("{\"type\":\"FeatureCollection\",\"features\":[");
+        for (int i = 0; i < nbFeatures; ++i) {
+            final boolean polygon = i % 2 == 0;
+            if (i > 0) {
+                result.append(',');
+            }
+            result.append("{\"type\":\"Feature\",\"properties\":{\"_style\":\"").append(polygon ? "poly" : "line");
+            result.append("\"},\"geometry\":{\"type\":\"").append(polygon ? "Polygon" : "LineString");
+            result.append("\",\"coordinates\":").append(polygon ? "[[" : "[");
+            final double centerX = 100000 + random.nextGaussian() * 20000;
+            final double centerY = 100000 + random.nextGaussian() * 20000;
+            for (int j = 0; j < nbVertices; ++j) {
+                final double angle = 2 * Math.PI * j / nbVertices;
+                final double radius = 200 + random.nextDouble() * 300;
+                result.append(j > 0 ? ",[" : "[").append(centerX + Math.cos(angle) * radius);
+                result.append(',').append(centerY + Math.sin(angle) * radius).append(']');
+            }
+            if (polygon) {
+                result.append(",[").append(centerX + 200).append(',').append(centerY).append("]]]");
+            } else {
+                result.append(']');
+            }
+            result.append("}}");
+        }
+        return result.append("]}").toString();
+    }
+}
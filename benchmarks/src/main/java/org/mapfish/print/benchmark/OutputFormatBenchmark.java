@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import org.mapfish.print.MapPrinter;
+import org.mapfish.print.output.ImageOutputFactory;
+import org.mapfish.print.output.ImageOutputImageMagickFactory;
+import org.mapfish.print.output.ImageOutputScalableFactory;
+import org.mapfish.print.output.OutputFormat;
+import org.mapfish.print.output.PdfOutput;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The output formats, on the same spec, to measure the cost of the
+ * rasterization compared to the PDF.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class OutputFormatBenchmark {
+    @Param({"pdf", "image", "scalable", "pngInProcess"})
+    public String factory;
+
+    @Param({"png", "jpeg"})
+    public String format;
+
+    @Param({"spec.json:config.yaml"})
+    public String sample;
+
+    private TileServerStub stub;
+    private MapPrinter printer;
+    private PJsonObject spec;
+    private OutputFormat output;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final String[] files = sample.split(":");
+        stub = new TileServerStub(256, 0);
+        stub.start();
+        printer = BenchmarkSupport.createPrinter(files[1]);
+        spec = BenchmarkSupport.loadSpec(files[0], stub);
+        spec.getInternalObj().put("outputFormat", format);
+
+        if ("pdf".equals(factory)) {
+            output = new PdfOutput().create("pdf");
+        } else if ("image".equals(factory)) {
+            output = new ImageOutputFactory().create(format);
+        } else if ("scalable".equals(factory)) {
+            output = new ImageOutputScalableFactory().create(format);
+        } else if ("pngInProcess".equals(factory)) {
+            output = new ImageOutputImageMagickFactory().create("png");
+        } else {
+            throw new IllegalArgumentException("Unknown factory: " + factory);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        printer.stop();
+        stub.stop();
+    }
+
+    @Benchmark
+    public long print() throws Exception {
+        final BenchmarkSupport.NullOutputStream out = new BenchmarkSupport.NullOutputStream();
+        output.print(printer, spec, out, null);
+        return out.getSize();
+    }
+}
@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import org.mapfish.print.MapPrinter;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End to end PDF prints of the sample specs, the map servers being replaced
+ * by a {@link TileServerStub}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class PrintBenchmark {
+    /**
+     * spec file:config file, in the samples directory.
+     */
+    @Param({"spec.json:config.yaml", "specVector.json:configVector.yaml", "specWMTS.json:configWMTS.yaml", "specOSM.json:config.yaml"})
+    public String sample;
+
+    /**
+     * Latency of the stub tile server, in milliseconds.
+     */
+    @Param({"0"})
+    public long latency;
+
+    private TileServerStub stub;
+    private MapPrinter printer;
+    private PJsonObject spec;
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        final String[] files = sample.split(":");
+        stub = new TileServerStub(256, latency);
+        stub.start();
+        printer = BenchmarkSupport.createPrinter(files[1]);
+        spec = BenchmarkSupport.loadSpec(files[0], stub);
+        // the outputs other than PDF are measured by OutputFormatBenchmark
+        spec.getInternalObj().put("outputFormat", "pdf");
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws Exception {
+        printer.stop();
+        stub.stop();
+    }
+
+    @Benchmark
+    public long print() throws Exception {
+        final BenchmarkSupport.NullOutputStream out = new BenchmarkSupport.NullOutputStream();
+        printer.print(spec, out, null);
+        return out.getSize();
+    }
+}
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.benchmark;
+
+import org.apache.log4j.Logger;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * In-process HTTP server answering every GET with the same tile, so the
+ * benchmarks don't depend on remote map servers.
+ * <p/>
+ * Unlike the FakeHttpd of the unit tests, it serves binary content, handles
+ * connections in parallel and supports keep-alive.
+ * <ul>
+ * <li>WMS GetCapabilities requests get an empty capabilities document;
+ * <li>requests mentioning jpeg/jpg get a JPEG tile;
+ * <li>everything else gets a PNG tile.
+ * </ul>
+ */
+public class TileServerStub {
+    public static final Logger LOGGER = Logger.getLogger(TileServerStub.class);
+
+    private static final byte[] CAPABILITIES = ("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n" +
+            "<WMT_MS_Capabilities version=\"1.1.1\"><Service><Name>OGC:WMS</Name></Service>" +
+            "<Capability><Layer><Title>stub</Title></Layer></Capability></WMT_MS_Capabilities>").getBytes();
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService connections = Executors.newCachedThreadPool();
+    private final byte[] png;
+    private final byte[] jpeg;
+    private final long latency;
+    private final AtomicLong nbRequests = new AtomicLong();
+    private volatile boolean stopped = false;
+
+    /**
+     * @param tileSize The size of the tiles in pixels
+     * @param latency  Time in milliseconds to wait before answering, to simulate a remote server
+     */
+    public TileServerStub(int tileSize, long latency) throws IOException {
+        this.latency = latency;
+        final BufferedImage tile = createTile(tileSize);
+        png = encode(tile, "png");
+        jpeg = encode(tile, "jpeg");
+        serverSocket = new ServerSocket(0, 50, InetAddress.getByName("127.0.0.1"));
+    }
+
+    public void start() {
+        final Thread acceptor = new Thread("TileServerStub") {
+            public void run() {
+                accept();
+            }
+        };
+        acceptor.setDaemon(true);
+        acceptor.start();
+    }
+
+    public void stop() throws IOException {
+        stopped = true;
+        serverSocket.close();
+        connections.shutdownNow();
+    }
+
+    /**
+     * @return The URL of the server, without the trailing slash.
+     */
+    public String getUrl() {
+        return "http://127.0.0.1:" + serverSocket.getLocalPort();
+    }
+
+    public long getNbRequests() {
+        return nbRequests.get();
+    }
+
+    private void accept() {
+        while (!stopped) {
+            try {
+                final Socket socket = serverSocket.accept();
+                connections.execute(new Runnable() {
+                    public void run() {
+                        handle(socket);
+                    }
+                });
+            } catch (IOException e) {
+                if (!stopped) {
+                    LOGGER.error("Cannot accept a connection", e);
+                }
+            }
+        }
+    }
+
+    private void handle(Socket socket) {
+        try {
+            final BufferedReader input = new BufferedReader(new InputStreamReader(socket.getInputStream(), "ISO-8859-1"));
+            final OutputStream output = socket.getOutputStream();
+            String requestLine;
+            while ((requestLine = input.readLine()) != null) {
+                boolean keepAlive = requestLine.endsWith("HTTP/1.1");
+                String header;
+                while ((header = input.readLine()) != null && header.length() > 0) {
+                    if (header.toLowerCase().startsWith("connection:")) {
+                        keepAlive = header.toLowerCase().indexOf("keep-alive") >= 0;
+                    }
+                }
+                answer(requestLine, output, keepAlive);
+                if (!keepAlive) {
+                    break;
+                }
+            }
+        } catch (SocketException e) {
+            // the client closed the connection
+        } catch (IOException e) {
+            LOGGER.warn("Error while answering", e);
+        } finally {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // ignored
+            }
+        }
+    }
+
+    private void answer(String requestLine, OutputStream output, boolean keepAlive) throws IOException {
+        nbRequests.incrementAndGet();
+        if (latency > 0) {
+            try {
+                Thread.sleep(latency);
+            } catch (InterruptedException e) {
+                throw new IOException("Interrupted");
+            }
+        }
+
+        final String lower = requestLine.toLowerCase();
+        final byte[] body;
+        final String contentType;
+        if (lower.indexOf("getcapabilities") >= 0) {
+            body = CAPABILITIES;
+            contentType = "application/vnd.ogc.wms_xml";
+        } else if (lower.indexOf("jpeg") >= 0 || lower.indexOf(".jpg") >= 0) {
+            body = jpeg;
+            contentType = "image/jpeg";
+        } else {
+            body = png;
+            contentType = "image/png";
+        }
+
+        final String headers = "HTTP/1.1 200 OK\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+                "\r\n";
+        output.write(headers.getBytes("ISO-8859-1"));
+        output.write(body);
+        output.flush();
+    }
+
+    private static BufferedImage createTile(int tileSize) {
+        final BufferedImage tile = new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D graphics = tile.createGraphics();
+        try {
+            graphics.setColor(new Color(230, 240, 220));
+            graphics.fillRect(0, 0, tileSize, tileSize);
+            graphics.setColor(new Color(120, 140, 200));
+            for (int i = 0; i < tileSize; i += 16) {
+                graphics.drawLine(i, 0, tileSize - i, tileSize);
+                graphics.drawLine(0, i, tileSize, tileSize - i);
+            }
+            graphics.setColor(Color.DARK_GRAY);
+            graphics.drawRect(0, 0, tileSize - 1, tileSize - 1);
+        } finally {
+            graphics.dispose();
+        }
+        return tile;
+    }
+
+    private static byte[] encode(BufferedImage image, String format) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}
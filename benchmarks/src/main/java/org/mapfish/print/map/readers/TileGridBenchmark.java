@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.readers;
+
+import org.mapfish.print.MapPrinter;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.Transformer;
+import org.mapfish.print.benchmark.BenchmarkSupport;
+import org.mapfish.print.benchmark.TileServerStub;
+import org.mapfish.print.map.ParallelMapTileLoader;
+import org.mapfish.print.map.renderers.TileRenderer;
+import org.mapfish.print.utils.DistanceUnit;
+import org.mapfish.print.utils.PJsonArray;
+import org.mapfish.print.utils.PJsonObject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computation of the tile grid by {@link TileableMapReader#renderTiles},
+ * without loading the tiles. In this package to access the protected
+ * methods.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class TileGridBenchmark {
+    /**
+     * The scale of the map, the smaller the more tiles.
+     */
+    @Param({"25000", "5000"})
+    public int scale;
+
+    @Param({"300"})
+    public int dpi;
+
+    private MapPrinter printer;
+    private TileableMapReader reader;
+    private Transformer transformer;
+    private URI commonUri;
+    private final CountingRenderer renderer = new CountingRenderer();
+
+    @Setup(Level.Trial)
+    public void setUp() throws Exception {
+        printer = BenchmarkSupport.createPrinter("configWMTS.yaml");
+        final TileServerStub stub = new TileServerStub(256, 0);
+        try {
+            final PJsonObject spec = BenchmarkSupport.loadSpec("specWMTS.json", stub);
+            final RenderingContext context = BenchmarkSupport.createContext(printer, spec);
+            final PJsonArray layers = spec.getJSONArray("layers");
+            PJsonObject layer = null;
+            for (int i = 0; i < layers.size(); ++i) {
+                if ("TileCache".equals(layers.getJSONObject(i).getString("type"))) {
+                    layer = layers.getJSONObject(i);
+                }
+            }
+            final List<MapReader> readers = new ArrayList<MapReader>();
+            TileCacheMapReader.create(readers, context, layer);
+            reader = (TileableMapReader) readers.get(0);
+            commonUri = new URI(layer.getString("baseURL"));
+
+            final PJsonArray center = spec.getJSONArray("pages").getJSONObject(0).getJSONArray("center");
+            transformer = new Transformer(center.getFloat(0), center.getFloat(1), 800, 1100, scale, dpi,
+                    DistanceUnit.fromString(spec.getString("units")), 0, null, false);
+        } finally {
+            stub.stop();
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        printer.stop();
+    }
+
+    @Benchmark
+    public int renderTiles() throws Exception {
+        reader.renderTiles(renderer, transformer, commonUri, null);
+        return renderer.nbTiles;
+    }
+
+    /**
+     * Counts the tiles instead of loading them.
+     */
+    private static class CountingRenderer extends TileRenderer {
+        private int nbTiles;
+
+        public void render(Transformer transformer, List<URI> urls, ParallelMapTileLoader parallelMapTileLoader, RenderingContext context,
+                           float opacity, int nbTilesHorizontal, float offsetX, float offsetY, long bitmapTileW, long bitmapTileH) {
+            nbTiles = urls.size();
+        }
+    }
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import com.lowagie.text.Font;
+import com.lowagie.text.FontFactory;
+import com.lowagie.text.pdf.BaseFont;
+import org.apache.log4j.Logger;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide cache of the fonts and of the width of the texts drawn with
+ * them.
+ * <p/>
+ * Looking up a font in the FontFactory and creating its BaseFont is costly
+ * and was done for every block and every label.
+ */
+public final class FontCache {
+    public static final Logger LOGGER = Logger.getLogger(FontCache.class);
+
+    /**
+     * To avoid filling the memory with the widths of all the labels ever
+     * printed.
+     */
+    private static final int MAX_WIDTHS = 10000;
+
+    private static final Map<String, Font> FONTS = new ConcurrentHashMap<String, Font>();
+
+    private static final Map<String, BaseFont> LABEL_FONTS = new ConcurrentHashMap<String, BaseFont>();
+
+    private static final Map<WidthKey, Integer> WIDTHS = Collections.synchronizedMap(new LinkedHashMap<WidthKey, Integer>(256, 0.75f, true) {
+        private static final long serialVersionUID = 1L;
+
+        protected boolean removeEldestEntry(Map.Entry<WidthKey, Integer> eldest) {
+            return size() > MAX_WIDTHS;
+        }
+    });
+
+    private FontCache() {
+    }
+
+    /**
+     * Same as {@link FontFactory#getFont(String, String, float)}, but the
+     * font is looked up only once.
+     *
+     * @return A new font instance, that can be modified by the caller
+     */
+    public static Font getFont(String name, String encoding, float size) {
+        final String key = name + "|" + encoding;
+        Font prototype = FONTS.get(key);
+        if (prototype == null) {
+            prototype = FontFactory.getFont(name, encoding, size);
+            if (prototype.getBaseFont() == null) {
+                // not found, maybe registered later
+                return prototype;
+            }
+            FONTS.put(key, prototype);
+        }
+        final Font result = new Font(prototype);
+        result.setSize(size);
+        return result;
+    }
+
+    /**
+     * Resolves the font of a vector label. Only the standard iText fonts are
+     * supported (COURIER, HELVETICA and TIMES_ROMAN), the others are replaced
+     * by HELVETICA.
+     *
+     * @param family Like "Courier", "HELVETICA", ...
+     * @param weight Like "normal", "bold" or "italic"
+     */
+    public static BaseFont getLabelFont(String family, String weight) {
+        final String key = family + "|" + weight;
+        BaseFont result = LABEL_FONTS.get(key);
+        if (result == null) {
+            final String upperFamily = family.toUpperCase();
+            final int fontFamily;
+            if (upperFamily.contains("COURIER")) {
+                fontFamily = Font.COURIER;
+            } else if (upperFamily.contains("HELVETICA")) {
+                fontFamily = Font.HELVETICA;
+            } else if (upperFamily.contains("ROMAN")) {
+                fontFamily = Font.TIMES_ROMAN;
+            } else {
+                LOGGER.warn("Font: '" + family + "' not supported, supported fonts are 'HELVETICA', " +
+                        "'COURIER', 'TIMES_ROMAN', defaults to 'HELVETICA'");
+                fontFamily = Font.HELVETICA;
+            }
+            final String upperWeight = weight.toUpperCase();
+            final int fontWeight;
+            if (upperWeight.contains("NORMAL")) {
+                fontWeight = Font.NORMAL;
+            } else if (upperWeight.contains("BOLD")) {
+                fontWeight = Font.BOLD;
+            } else if (upperWeight.contains("ITALIC")) {
+                fontWeight = Font.ITALIC;
+            } else {
+                fontWeight = Font.NORMAL;
+            }
+            result = new Font(fontFamily, 12, fontWeight).getCalculatedBaseFont(false);
+            LABEL_FONTS.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link BaseFont#getWidthPoint(String, float)}, with the width
+     * of the most used texts kept in memory.
+     */
+    public static float getWidthPoint(BaseFont font, String text, float size) {
+        final WidthKey key = new WidthKey(font, text);
+        Integer width = WIDTHS.get(key);
+        if (width == null) {
+            width = font.getWidth(text);
+            WIDTHS.put(key, width);
+        }
+        return width * 0.001f * size;
+    }
+
+    /**
+     * To be called when new fonts are registered in the FontFactory.
+     */
+    public static void clear() {
+        FONTS.clear();
+        WIDTHS.clear();
+    }
+
+    private static class WidthKey {
+        private final BaseFont font;
+        private final String text;
+
+        private WidthKey(BaseFont font, String text) {
+            this.font = font;
+            this.text = text;
+        }
+
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (!(o instanceof WidthKey)) return false;
+            final WidthKey other = (WidthKey) o;
+            return font == other.font && text.equals(other.text);
+        }
+
+        public int hashCode() {
+            return 31 * System.identityHashCode(font) + text.hashCode();
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import org.apache.commons.httpclient.Header;
+import org.apache.commons.httpclient.cookie.CookiePolicy;
+import org.apache.commons.httpclient.methods.GetMethod;
+import org.apache.log4j.Logger;
+import org.mapfish.print.config.Config;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+/**
+ * Does the HTTP GET requests to the map servers (tiles, capabilities, SVG
+ * and PDF maps, ...), for all the print jobs of a configuration.
+ * <p/>
+ * The connections are kept alive and shared through the connection manager
+ * of the configuration. The requests are blocking, each of them holds its
+ * thread until the response is handled. The responses are asked gzipped and
+ * decompressed transparently.
+ */
+public class HttpFetcher {
+    public static final Logger LOGGER = Logger.getLogger(HttpFetcher.class);
+
+    private static final int BUFFER_SIZE = 8192;
+
+    /**
+     * Handles the response of a request, while the connection is still open.
+     */
+    public interface Handler<T> {
+        T handle(Response response) throws IOException;
+    }
+
+    private final Config config;
+
+    private final AtomicInteger nbRunning = new AtomicInteger();
+    private final AtomicLong nbRequests = new AtomicLong();
+    private final AtomicLong nbGzipped = new AtomicLong();
+
+    public HttpFetcher(Config config) {
+        this.config = config;
+    }
+
+    /**
+     * Does a GET request and gives the response to the handler.
+     *
+     * @param referer The referer to send or null
+     * @param headers Additional request headers, can be null
+     */
+    public <T> T get(URI uri, String referer, Map<String, String> headers, Handler<T> handler) throws IOException {
+        final GetMethod method = new GetMethod(uri.toString());
+        method.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
+        method.setRequestHeader("Accept-Encoding", "gzip");
+        if (referer != null) {
+            method.setRequestHeader("Referer", referer);
+        }
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                method.setRequestHeader(header.getKey(), header.getValue());
+            }
+        }
+
+        nbRequests.incrementAndGet();
+        nbRunning.incrementAndGet();
+        try {
+            config.getHttpClient(uri).executeMethod(method);
+            return handler.handle(new Response(method));
+        } finally {
+            nbRunning.decrementAndGet();
+            method.releaseConnection();
+        }
+    }
+
+    /**
+     * @return True if the URI can be fetched by this class.
+     */
+    public static boolean isHttp(URI uri) {
+        return "http".equalsIgnoreCase(uri.getScheme()) || "https".equalsIgnoreCase(uri.getScheme());
+    }
+
+    /**
+     * @return The number of requests currently running.
+     */
+    public int getNbRunning() {
+        return nbRunning.get();
+    }
+
+    public long getNbRequests() {
+        return nbRequests.get();
+    }
+
+    /**
+     * @return The number of responses that were received gzipped.
+     */
+    public long getNbGzipped() {
+        return nbGzipped.get();
+    }
+
+    /**
+     * The response of a request. Valid only in {@link Handler#handle}.
+     */
+    public class Response {
+        private final GetMethod method;
+
+        private Response(GetMethod method) {
+            this.method = method;
+        }
+
+        public int getStatusCode() {
+            return method.getStatusCode();
+        }
+
+        public String getStatusText() {
+            return method.getStatusText();
+        }
+
+        public String getHeader(String name, String defaultValue) {
+            final Header header = method.getResponseHeader(name);
+            return header == null ? defaultValue : header.getValue();
+        }
+
+        public String getContentType() {
+            return getHeader("Content-Type", "");
+        }
+
+        /**
+         * @return The decompressed body, null if there is none. Must be closed.
+         */
+        public InputStream getBodyAsStream() throws IOException {
+            final InputStream stream = method.getResponseBodyAsStream();
+            if (stream != null && isGzipped()) {
+                nbGzipped.incrementAndGet();
+                return new GZIPInputStream(stream, BUFFER_SIZE);
+            }
+            return stream;
+        }
+
+        /**
+         * @return The whole decompressed body, an empty array if there is none.
+         */
+        public byte[] getBody() throws IOException {
+            final InputStream stream = getBodyAsStream();
+            if (stream == null) {
+                return new byte[0];
+            }
+            try {
+                final long length = method.getResponseContentLength();
+                final ByteArrayOutputStream result = new ByteArrayOutputStream(
+                        length > 0 && length < Integer.MAX_VALUE && !isGzipped() ? (int) length : BUFFER_SIZE);
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                int nb;
+                while ((nb = stream.read(buffer)) >= 0) {
+                    result.write(buffer, 0, nb);
+                }
+                return result.toByteArray();
+            } finally {
+                stream.close();
+            }
+        }
+
+        /**
+         * @return The body as text, for the error messages.
+         */
+        public String getBodyAsString() throws IOException {
+            String charset = method.getResponseCharSet();
+            if (charset == null) {
+                charset = "ISO-8859-1";
+            }
+            return new String(getBody(), charset);
+        }
+
+        private boolean isGzipped() {
+            return getHeader("Content-Encoding", "").toLowerCase().indexOf("gzip") >= 0;
+        }
+    }
+}
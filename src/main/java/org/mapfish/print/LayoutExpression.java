@@ -0,0 +1,325 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import com.lowagie.text.BadElementException;
+import com.lowagie.text.Font;
+import com.lowagie.text.Phrase;
+import org.mapfish.print.utils.PJsonObject;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A string of the layout, like "Page ${pageNum}", parsed once into a list of
+ * literals and variables.
+ * <p/>
+ * The strings coming from the configuration are compiled when it is loaded.
+ * The other ones are compiled on first use and kept in a cache.
+ */
+public class LayoutExpression {
+    private static final Pattern VAR_REGEXP = Pattern.compile("\\$\\{([^}]+)\\}");
+    private static final Pattern FORMAT_PATTERN = Pattern.compile("^format\\s+(%[-+# 0,(]*\\d*(\\.\\d*)?(d))\\s+(.*)$");
+
+    /**
+     * To avoid filling the memory if strings are built dynamically.
+     */
+    private static final int MAX_CACHE_SIZE = 10000;
+    private static final ConcurrentHashMap<String, LayoutExpression> CACHE = new ConcurrentHashMap<String, LayoutExpression>();
+
+    private final String source;
+
+    /**
+     * The value when there is no variable, null otherwise.
+     */
+    private final String constant;
+
+    private final Part[] parts;
+
+    private LayoutExpression(String source) {
+        this.source = source;
+        List<Part> parts = new ArrayList<Part>();
+        Matcher matcher = VAR_REGEXP.matcher(source);
+        int pos = 0;
+        while (matcher.find()) {
+            if (matcher.start() > pos) {
+                parts.add(new Literal(source.substring(pos, matcher.start())));
+            }
+            parts.add(createVariable(matcher.group(1)));
+            pos = matcher.end();
+        }
+        if (pos < source.length()) {
+            parts.add(new Literal(source.substring(pos)));
+        }
+        this.parts = parts.toArray(new Part[parts.size()]);
+
+        if (parts.isEmpty()) {
+            constant = "";
+        } else if (parts.size() == 1 && parts.get(0) instanceof Literal) {
+            constant = ((Literal) parts.get(0)).value;
+        } else {
+            constant = null;
+        }
+    }
+
+    /**
+     * @return The compiled version of the given string or null if it is null.
+     */
+    public static LayoutExpression compile(String source) {
+        if (source == null) {
+            return null;
+        }
+        LayoutExpression result = CACHE.get(source);
+        if (result == null) {
+            result = new LayoutExpression(source);
+            if (CACHE.size() < MAX_CACHE_SIZE) {
+                CACHE.put(source, result);
+            }
+        }
+        return result;
+    }
+
+    public String getSource() {
+        return source;
+    }
+
+    public boolean isConstant() {
+        return constant != null;
+    }
+
+    /**
+     * Evaluates the variables and concatenates everything.
+     */
+    public String eval(RenderingContext context, PJsonObject params) {
+        if (constant != null) {
+            return constant;
+        }
+        if (parts.length == 1) {
+            return parts[0].eval(context, params);
+        }
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < parts.length; ++i) {
+            result.append(parts[i].eval(context, params));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Same as {@link #eval} but ${pageTot} is replaced by a block filled in
+     * when the document is closed.
+     */
+    public Phrase render(RenderingContext context, PJsonObject params, Font font) throws BadElementException {
+        Phrase result = new Phrase();
+        for (int i = 0; i < parts.length; ++i) {
+            final Part part = parts[i];
+            if (part instanceof PageTotal) {
+                result.add(context.getCustomBlocks().getOrCreateTotalPagesBlock(font));
+            } else {
+                result.add(part.eval(context, params));
+            }
+        }
+        return result;
+    }
+
+    public String toString() {
+        return source;
+    }
+
+    private static Variable createVariable(String key) {
+        Matcher matcher;
+        if (key.equals("pageNum")) {
+            return new PageNumber(key);
+        } else if (key.equals("pageTot")) {
+            return new PageTotal(key);
+        } else if (key.equals("now")) {
+            return new Now(key);
+        } else if (key.startsWith("now ")) {
+            return new FormattedNow(key);
+        } else if ((matcher = FORMAT_PATTERN.matcher(key)).matches()) {
+            return new Format(key, matcher.group(1), matcher.group(3).charAt(0), createVariable(matcher.group(4)));
+        } else if (key.equals("configDir")) {
+            return new ConfigDir(key);
+        } else if (key.equals("scale")) {
+            return new Scale(key);
+        } else {
+            return new Variable(key);
+        }
+    }
+
+    private static abstract class Part {
+        protected abstract String eval(RenderingContext context, PJsonObject params);
+    }
+
+    private static class Literal extends Part {
+        private final String value;
+
+        private Literal(String value) {
+            this.value = value;
+        }
+
+        protected String eval(RenderingContext context, PJsonObject params) {
+            return value;
+        }
+    }
+
+    /**
+     * A value taken from the global parameters or from the page parameters.
+     * The subclasses are for the special names, they behave like this one
+     * when there is no context.
+     */
+    private static class Variable extends Part {
+        protected final String key;
+
+        private Variable(String key) {
+            this.key = key;
+        }
+
+        protected final String eval(RenderingContext context, PJsonObject params) {
+            String result = null;
+            if (context != null) {
+                result = evalSpecial(context, params);
+                if (result == null) {
+                    result = context.getGlobalParams().optString(key);
+                }
+            }
+            if (result == null) {
+                result = params.getString(key);
+            }
+            return result;
+        }
+
+        /**
+         * @return The value or null to look it up in the parameters.
+         */
+        protected String evalSpecial(RenderingContext context, PJsonObject params) {
+            return null;
+        }
+    }
+
+    private static class PageNumber extends Variable {
+        private PageNumber(String key) {
+            super(key);
+        }
+
+        protected String evalSpecial(RenderingContext context, PJsonObject params) {
+            return Integer.toString(context.getWriter().getPageNumber());
+        }
+    }
+
+    /**
+     * Known only when the document is finished, see {@link LayoutExpression#render}.
+     */
+    private static class PageTotal extends Variable {
+        private PageTotal(String key) {
+            super(key);
+        }
+    }
+
+    private static class Now extends Variable {
+        private Now(String key) {
+            super(key);
+        }
+
+        protected String evalSpecial(RenderingContext context, PJsonObject params) {
+            return new Date().toString();
+        }
+    }
+
+    private static class FormattedNow extends Variable {
+        private FormattedNow(String key) {
+            super(key);
+        }
+
+        protected String evalSpecial(RenderingContext context, PJsonObject params) {
+            return PDFUtils.formatTime(context, key);
+        }
+    }
+
+    private static class ConfigDir extends Variable {
+        private ConfigDir(String key) {
+            super(key);
+        }
+
+        protected String evalSpecial(RenderingContext context, PJsonObject params) {
+            return context.getConfigDir().replace('\\', '/');
+        }
+    }
+
+    private static class Scale extends Variable {
+        private Scale(String key) {
+            super(key);
+        }
+
+        protected String evalSpecial(RenderingContext context, PJsonObject params) {
+            return Integer.toString(context.getMainMapScale(params));
+        }
+    }
+
+    /**
+     * ${format %d varName}
+     */
+    private static class Format extends Variable {
+        private final String format;
+        private final char conversion;
+        private final Variable value;
+
+        private Format(String key, String format, char conversion, Variable value) {
+            super(key);
+            this.format = format;
+            this.conversion = conversion;
+            this.value = value;
+        }
+
+        protected String evalSpecial(RenderingContext context, PJsonObject params) {
+            final String valueTxt = value.eval(context, params);
+            final Object value;
+            switch (conversion) {
+                case 'd':
+                case 'o':
+                case 'x':
+                case 'X':
+                    value = Long.valueOf(valueTxt);
+                    break;
+                case 'e':
+                case 'E':
+                case 'f':
+                case 'g':
+                case 'G':
+                case 'a':
+                case 'A':
+                    value = Double.valueOf(valueTxt);
+                    break;
+                default:
+                    value = valueTxt;
+            }
+            try {
+                return String.format(format, value);
+            } catch (RuntimeException e) {
+                // gracefuly fallback to the standard format
+                context.addError(e);
+                return valueTxt;
+            }
+        }
+    }
+}
@@ -30,6 +30,7 @@ import org.json.JSONObject;
 import org.json.JSONWriter;
 import org.mapfish.print.config.Config;
 import org.mapfish.print.config.layout.Layout;
+import org.mapfish.print.utils.JsonSpecReader;
 import org.mapfish.print.utils.PJsonObject;
 
 import java.io.*;
@@ -105,6 +106,8 @@ public class MapPrinter {
                 }
             }
         }
+        // the fonts resolved before may now resolve to the new ones
+        FontCache.clear();
     }
 
     /**
@@ -130,17 +133,34 @@ public class MapPrinter {
         }
         RenderingContext context = new RenderingContext(doc, writer, config, jsonSpec, configDir, layout, referer);
 
-        layout.render(jsonSpec, context);
+        try {
+            layout.render(jsonSpec, context);
 
-        doc.close();
-        writer.close();
+            doc.close();
+            writer.close();
+        } finally {
+            context.cleanup();
+        }
         return context;
     }
 
     public static PJsonObject parseSpec(String spec) {
+        try {
+            return parseSpec(new StringReader(spec));
+        } catch (IOException e) {
+            // cannot happen with a StringReader
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * Parses the spec while reading it, without loading the whole text in
+     * memory first. The geoJson objects are directly decoded into geometries.
+     */
+    public static PJsonObject parseSpec(Reader spec) throws IOException {
         final JSONObject jsonSpec;
         try {
-            jsonSpec = new JSONObject(spec);
+            jsonSpec = new JsonSpecReader(spec).readObject();
         } catch (JSONException e) {
             throw new RuntimeException("Cannot parse the spec file", e);
         }
@@ -22,9 +22,11 @@ package org.mapfish.print;
 import com.lowagie.text.*;
 import com.lowagie.text.pdf.*;
 import org.apache.log4j.Logger;
+import org.mapfish.print.cache.PdfReaderPool;
 import org.mapfish.print.config.layout.HeaderFooter;
 import org.mapfish.print.utils.PJsonObject;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.*;
 import java.util.List;
@@ -89,7 +91,7 @@ public class PDFCustomBlocks extends PdfPageEventHelper {
             try {
                 PdfImportedPage page = backgroundPdfs.get(backgroundPdf);
                 if (page == null) {
-                    PdfReader reader = new PdfReader(backgroundPdf);
+                    final PdfReader reader = getBackgroundReader(backgroundPdf);
                     page = writer.getImportedPage(reader, 1);
                     backgroundPdfs.put(backgroundPdf, page);
                 }
@@ -106,6 +108,25 @@ public class PDFCustomBlocks extends PdfPageEventHelper {
         }
     }
 
+    /**
+     * The local files are taken from the pool of the configuration, since
+     * the same backgrounds are used by most of the print jobs.
+     */
+    private PdfReader getBackgroundReader(String path) throws IOException {
+        final File file = new File(path);
+        if (!file.isFile()) {
+            return new PdfReader(path);
+        }
+        final PdfReaderPool pool = context.getConfig().getPdfReaderPool();
+        final PdfReader reader = pool.acquire(file);
+        context.addCleanup(new Runnable() {
+            public void run() {
+                pool.release(reader);
+            }
+        });
+        return reader;
+    }
+
     private void addHeader(Document document, PdfContentByte dc) {
         if (header != null) {
             Rectangle rectangle = new Rectangle(document.left(), document.top(),
@@ -21,43 +21,36 @@ package org.mapfish.print;
 
 import java.awt.Graphics2D;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.MalformedURLException;
 import java.net.URI;
-import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
-import org.apache.batik.bridge.BridgeContext;
-import org.apache.batik.bridge.DocumentLoader;
-import org.apache.batik.bridge.GVTBuilder;
-import org.apache.batik.bridge.UserAgent;
-import org.apache.batik.bridge.UserAgentAdapter;
-import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
-import org.apache.batik.dom.svg.SVGDocumentFactory;
-import org.apache.batik.gvt.GraphicsNode;
-import org.apache.batik.util.XMLResourceDescriptor;
-import org.apache.commons.httpclient.Header;
-import org.apache.commons.httpclient.cookie.CookiePolicy;
-import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.log4j.Logger;
+import org.mapfish.print.cache.DiskTileCache;
+import org.mapfish.print.cache.ImageCache;
+import org.mapfish.print.cache.SingleFlight;
+import org.mapfish.print.cache.SvgCache;
 import org.mapfish.print.config.layout.Block;
 import org.mapfish.print.config.layout.HorizontalAlign;
 import org.mapfish.print.config.layout.MapBlock;
 import org.mapfish.print.config.layout.ScalebarBlock;
 import org.mapfish.print.config.layout.TableConfig;
 import org.mapfish.print.utils.PJsonObject;
-import org.w3c.dom.svg.SVGDocument;
 
 import com.lowagie.text.BadElementException;
 import com.lowagie.text.Chunk;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Element;
-import com.lowagie.text.Font;
 import com.lowagie.text.Image;
 import com.lowagie.text.Phrase;
 import com.lowagie.text.pdf.BaseFont;
@@ -72,35 +65,61 @@ import com.lowagie.text.pdf.PdfTemplate;
 public class PDFUtils {
     public static final Logger LOGGER = Logger.getLogger(PDFUtils.class);
 
+    /**
+     * The HTTP requests for images currently running, shared by all the print jobs.
+     */
+    private static final SingleFlight<String, byte[]> HTTP_FETCHES = new SingleFlight<String, byte[]>();
+
     /**
      * Gets an iText image with a cache that uses PdfTemplates to re-use the same
      * bitmap content multiple times in order to reduce the file size.
+     * <p/>
+     * Used for map tiles, the decoded image is not kept in the shared
+     * {@link ImageCache}.
      */
     public static Image getImage(RenderingContext context, URI uri, float w, float h) throws IOException, DocumentException {
-        return getImage(context, uri, w, h, 0f);
+        return getImage(context, uri, w, h, 0f, false);
     }
     
     /**
      * Gets an iText image with a cache that uses PdfTemplates to re-use the same
      * bitmap content multiple times in order to reduce the file size.
+     * <p/>
+     * The decoded image is shared with the other print jobs through the
+     * {@link ImageCache} of the configuration.
      */
     public static Image getImage(RenderingContext context, URI uri, float w, float h, float scale) throws IOException, DocumentException {
+        return getImage(context, uri, w, h, scale, true);
+    }
+
+    private static Image getImage(final RenderingContext context, final URI uri, float w, float h, float scale, boolean shared) throws IOException, DocumentException {
         //Check the image is not already used in the PDF file.
-        //
-        //This part is not protected against multi-threads... worst case, a single image can
-        //be twice in the PDF, if used more than one time. But since only one !map
-        //block is dealed with at a time, this should not happen
         Map<URI, PdfTemplate> cache = context.getTemplateCache();
         PdfTemplate template = cache.get(uri);
         if (template == null) {
-            Image content = getImageDirect(context, uri);
+            checkHost(context, uri);
+            final ImageCache imageCache = shared ? context.getConfig().getImageCache() : null;
+            final Image content;
+            if (imageCache != null) {
+                content = imageCache.get(uri, context.getReferer(), new ImageCache.Loader() {
+                    public Image load() throws IOException, DocumentException {
+                        return getImageDirect(context, uri);
+                    }
+                });
+            } else {
+                content = getImageDirect(context, uri);
+            }
             content.setAbsolutePosition(0, 0);
             final PdfContentByte dc = context.getDirectContent();
             synchronized (context.getPdfLock()) {  //protect against parallel writing on the PDF file
-                template = dc.createTemplate(content.getPlainWidth(), content.getPlainHeight());
-                template.addImage(content);
+                // another thread may have loaded the same image in the mean time
+                template = cache.get(uri);
+                if (template == null) {
+                    template = dc.createTemplate(content.getPlainWidth(), content.getPlainHeight());
+                    template.addImage(content);
+                    cache.put(uri, template);
+                }
             }
-            cache.put(uri, template);
         }
 
         //fix the size/aspect ratio of the image in function of what is specified by the user
@@ -177,59 +196,154 @@ public class PDFUtils {
             path = path.replace("/", File.separator);
             return Image.getInstance(new File(path).toURI().toURL());
         } else {
-            //read the whole image content in memory, then give that to iText
-            GetMethod method = new GetMethod(uri.toString());
-            method.getParams().setCookiePolicy(CookiePolicy.IGNORE_COOKIES);
-            try {
-                if (context.getReferer() != null) {
-                    method.setRequestHeader("Referer", context.getReferer());
-                }
-                if (LOGGER.isDebugEnabled()) LOGGER.debug("loading image: "+uri);
-                context.getConfig().getHttpClient(uri).executeMethod(method);
-                int code = method.getStatusCode();
-                final String contentType;
-
-                Header contentTypeHeader = method.getResponseHeader("Content-Type");
-                if(contentTypeHeader == null) {
-                    contentType = "";
-                } else {
-                    contentType = contentTypeHeader.getValue();
+            return getImageFromHttp(context, uri);
+        }
+    }
+
+    /**
+     * Reads the whole image content in memory, then gives that to iText. Goes
+     * through the disk cache of the configuration, if there is one.
+     * <p/>
+     * Concurrent requests for the same image (from any print job) share the
+     * same HTTP request, see {@link #fetchImage}.
+     */
+    private static Image getImageFromHttp(final RenderingContext context, final URI uri) throws IOException, DocumentException {
+        final DiskTileCache diskCache = context.getConfig().getDiskTileCache();
+        final DiskTileCache.CachedTile cached = diskCache != null ? diskCache.get(uri) : null;
+        if (cached != null && cached.isFresh()) {
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("image from the disk cache: " + uri);
+            return Image.getInstance(cached.getData());
+        }
+
+        final String key = getFetchKey(uri, context.getReferer());
+        final byte[] data;
+        try {
+            data = HTTP_FETCHES.get(key, new Callable<byte[]>() {
+                public byte[] call() throws Exception {
+                    return fetchImage(uri, context, diskCache, cached);
                 }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            final IOException ioe = new IOException("Error while loading " + uri);
+            ioe.initCause(e);
+            throw ioe;
+        }
 
-                if (code == 204) {
-                    // returns a transparent image
-                    if (LOGGER.isDebugEnabled()) LOGGER.debug("creating a transparent image for: " + uri);
-                    try {
-                        byte maskr[] = {(byte)255};
-                        Image mask = Image.getInstance(1,1,1,1,maskr);
-                        mask.makeMask();
-                        byte data[] = new byte[1*1*3];
-                        Image image = Image.getInstance(1, 1, 3, 8, data);
-                        image.setImageMask(mask);
-                        return image;
-                    } catch (DocumentException e) {
-                        LOGGER.warn("Couldn't generate a transparent image");
-                        throw e;
-                    }
-                } else if (code < 200 || code >= 300 || contentType.startsWith("text/") || contentType.equals("application/vnd.ogc.se_xml")) {
-                    if (LOGGER.isDebugEnabled()) LOGGER.debug("Server returned an error for " + uri + ": " + method.getResponseBodyAsString());
-                    if (code < 200 || code >= 300) {
-                        throw new IOException("Error (status=" + code + ") while reading the image from " + uri + ": " + method.getStatusText());
+        if (data == null) {
+            // returns a transparent image
+            if (LOGGER.isDebugEnabled()) LOGGER.debug("creating a transparent image for: " + uri);
+            try {
+                byte maskr[] = {(byte)255};
+                Image mask = Image.getInstance(1,1,1,1,maskr);
+                mask.makeMask();
+                byte transparent[] = new byte[1*1*3];
+                Image image = Image.getInstance(1, 1, 3, 8, transparent);
+                image.setImageMask(mask);
+                return image;
+            } catch (DocumentException e) {
+                LOGGER.warn("Couldn't generate a transparent image");
+                throw e;
+            }
+        }
+        return Image.getInstance(data);
+    }
+
+    /**
+     * Does the HTTP request for an image and updates the disk cache.
+     *
+     * @return The content of the image or null if the server answered with no content
+     */
+    private static byte[] fetchImage(final URI uri, RenderingContext context, final DiskTileCache diskCache, final DiskTileCache.CachedTile cached) throws IOException {
+        Map<String, String> headers = null;
+        if (cached != null) {
+            headers = new HashMap<String, String>();
+            if (cached.getEtag() != null) {
+                headers.put("If-None-Match", cached.getEtag());
+            }
+            if (cached.getLastModified() != null) {
+                headers.put("If-Modified-Since", cached.getLastModified());
+            }
+        }
+        if (LOGGER.isDebugEnabled()) LOGGER.debug("loading image: "+uri);
+        try {
+            return context.getConfig().getHttpFetcher().get(uri, context.getReferer(), headers, new HttpFetcher.Handler<byte[]>() {
+                public byte[] handle(HttpFetcher.Response response) throws IOException {
+                    int code = response.getStatusCode();
+                    final String contentType = response.getContentType();
+
+                    if (code == 304 && cached != null) {
+                        if (LOGGER.isDebugEnabled()) LOGGER.debug("image revalidated in the disk cache: " + uri);
+                        diskCache.refresh(cached, diskCache.getExpiry(response.getHeader("Cache-Control", null),
+                                response.getHeader("Expires", null)));
+                        return cached.getData();
+                    } else if (code == 204) {
+                        return null;
+                    } else if (code < 200 || code >= 300 || contentType.startsWith("text/") || contentType.equals("application/vnd.ogc.se_xml")) {
+                        if (LOGGER.isDebugEnabled()) LOGGER.debug("Server returned an error for " + uri + ": " + response.getBodyAsString());
+                        if (code < 200 || code >= 300) {
+                            throw new IOException("Error (status=" + code + ") while reading the image from " + uri + ": " + response.getStatusText());
+                        } else {
+                            throw new IOException("Didn't receive an image while reading: " + uri);
+                        }
                     } else {
-                        throw new IOException("Didn't receive an image while reading: " + uri);
+                        final byte[] data = response.getBody();
+                        if (LOGGER.isDebugEnabled()) LOGGER.debug("loaded image: "+uri);
+                        if (diskCache != null) {
+                            diskCache.put(uri, contentType, response.getHeader("ETag", null), response.getHeader("Last-Modified", null),
+                                    diskCache.getExpiry(response.getHeader("Cache-Control", null), response.getHeader("Expires", null)),
+                                    data);
+                        }
+                        return data;
                     }
-                } else {
-                    final Image result = Image.getInstance(method.getResponseBody());
-                    if (LOGGER.isDebugEnabled()) LOGGER.debug("loaded image: "+uri);
-                    return result;
                 }
-            } catch (IOException e) {
-                LOGGER.warn("Server returned an error for " + uri + ": " + e.getMessage());
-                throw e;
-            } finally {
-                method.releaseConnection();
-            }
+            });
+        } catch (IOException e) {
+            LOGGER.warn("Server returned an error for " + uri + ": " + e.getMessage());
+            throw e;
+        }
+    }
+
+    /**
+     * @return The key identifying the same HTTP request: the URI with the
+     *         scheme and host in lower case and the path normalized, plus the
+     *         referer since the servers may answer differently depending on it.
+     */
+    private static String getFetchKey(URI uri, String referer) {
+        final URI normalized = uri.normalize();
+        final StringBuilder result = new StringBuilder();
+        result.append(normalized.getScheme().toLowerCase()).append("://");
+        if (normalized.getRawAuthority() != null) {
+            result.append(normalized.getRawAuthority().toLowerCase());
+        }
+        if (normalized.getRawPath() != null) {
+            result.append(normalized.getRawPath());
+        }
+        if (normalized.getRawQuery() != null) {
+            result.append('?').append(normalized.getRawQuery());
+        }
+        if (referer != null) {
+            result.append(' ').append(referer);
         }
+        return result.toString();
+    }
+
+    /**
+     * @return The number of HTTP requests done for images.
+     */
+    public static long getNbHttpFetches() {
+        return HTTP_FETCHES.getNbLoads();
+    }
+
+    /**
+     * @return The number of times an image was asked while the same HTTP
+     *         request was running for another thread or print job.
+     */
+    public static long getNbHttpAttached() {
+        return HTTP_FETCHES.getNbAttached();
     }
 
     /**
@@ -271,27 +385,10 @@ public class PDFUtils {
 
     private static final Pattern VAR_REGEXP = Pattern.compile("\\$\\{([^}]+)\\}");
 
+    private static final boolean WINDOWS = System.getProperty("os.name").toLowerCase().indexOf("win") >= 0;
+
     public static Phrase renderString(RenderingContext context, PJsonObject params, String val, com.lowagie.text.Font font) throws BadElementException {
-        Phrase result = new Phrase();
-        while (true) {
-            Matcher matcher = VAR_REGEXP.matcher(val);
-            if (matcher.find()) {
-                result.add(val.substring(0, matcher.start()));
-                final String value;
-                final String varName = matcher.group(1);
-                if (varName.equals("pageTot")) {
-                    result.add(context.getCustomBlocks().getOrCreateTotalPagesBlock(font));
-                } else {
-                    value = getContextValue(context, params, varName);
-                    result.add(value);
-                }
-                val = val.substring(matcher.end());
-            } else {
-                break;
-            }
-        }
-        result.add(val);
-        return result;
+        return LayoutExpression.compile(val).render(context, params, font);
     }
 
     /**
@@ -301,21 +398,20 @@ public class PDFUtils {
         if (val == null) {
             return null;
         }
-        StringBuilder result = new StringBuilder();
-        while (true) {
-            Matcher matcher = VAR_REGEXP.matcher(val);
-            if (matcher.find()) {
-                result.append(val.substring(0, matcher.start()));
-                result.append(getContextValue(context, params, matcher.group(1)));
-                val = val.substring(matcher.end());
-            } else {
-                break;
-            }
+        return evalString(context, params, LayoutExpression.compile(val));
+    }
+
+    /**
+     * Same as {@link #evalString(RenderingContext, PJsonObject, String)} with
+     * a string compiled in advance.
+     */
+    public static String evalString(RenderingContext context, PJsonObject params, LayoutExpression val) {
+        if (val == null) {
+            return null;
         }
-        result.append(val);
-        String uri = result.toString();
+        String uri = val.eval(context, params);
 
-        if(System.getProperty("os.name").toLowerCase().indexOf("win") >= 0){
+        if(WINDOWS){
             uri = uri.replace("\\", "/");
             if(uri.matches("file://\\w:(/.*)?")) {
                 return "file:/"+uri.substring(7);
@@ -325,8 +421,6 @@ public class PDFUtils {
         return uri;
     }
 
-    private static final Pattern FORMAT_PATTERN = Pattern.compile("^format\\s+(%[-+# 0,(]*\\d*(\\.\\d*)?(d))\\s+(.*)$");
-    
     public static String getValueFromString(String val) {
     	String str = val;
         while (true) {
@@ -353,63 +447,7 @@ public class PDFUtils {
         return val;
     }
 
-    private static String getContextValue(RenderingContext context, PJsonObject params, String key) {
-        String result = null;
-        if (context != null) {
-            Matcher matcher;
-            if (key.equals("pageNum")) {
-                return Integer.toString(context.getWriter().getPageNumber());
-            } else if (key.equals("now")) {
-                return new Date().toString();
-            } else if (key.startsWith("now ")) {
-                return formatTime(context, key);
-            } else if ((matcher = FORMAT_PATTERN.matcher(key)) != null && matcher.matches()) {
-                return format(context, params, matcher);
-            } else if (key.equals("configDir")) {
-                return context.getConfigDir().replace('\\', '/');
-            } else if (key.equals("scale")) {
-                return Integer.toString(context.getLayout().getMainPage().getMap().createTransformer(context, params).getScale());
-            }
-            result = context.getGlobalParams().optString(key);
-        }
-        if (result == null) {
-            result = params.getString(key);
-        }
-        return result;
-    }
-
-    private static String format(RenderingContext context, PJsonObject params, Matcher matcher) {
-        final String valueTxt = getContextValue(context, params, matcher.group(4));
-        final Object value;
-        switch (matcher.group(3).charAt(0)) {
-            case 'd':
-            case 'o':
-            case 'x':
-            case 'X':
-                value = Long.valueOf(valueTxt);
-                break;
-            case 'e':
-            case 'E':
-            case 'f':
-            case 'g':
-            case 'G':
-            case 'a':
-            case 'A':
-                value = Double.valueOf(valueTxt);
-                break;
-            default:
-                value = valueTxt;
-        }
-        try {
-            return String.format(matcher.group(1), value);
-        } catch (RuntimeException e) {
-            // gracefuly fallback to the standard format
-            context.addError(e);
-            return valueTxt;
-        }
-    }
-
-    private static String formatTime(RenderingContext context, String key) {
+    static String formatTime(RenderingContext context, String key) {
         try {
             SimpleDateFormat format = new SimpleDateFormat(key.substring(4));
             return format.format(new Date());
@@ -521,34 +559,12 @@ public class PDFUtils {
         return image;
     }
 
+	/**
+	 * @see FontCache#getLabelFont(String, String)
+	 */
 	public static BaseFont getBaseFont(String fontFamily, String fontSize,
 			String fontWeight) {
-		int myFontValue;
-		float myFontSize;
-		int myFontWeight;
-		if (fontFamily.toUpperCase().contains("COURIER")) {
-			myFontValue = Font.COURIER;
-		} else if (fontFamily.toUpperCase().contains("HELVETICA")) {
-			myFontValue = Font.HELVETICA;
-		} else if (fontFamily.toUpperCase().contains("ROMAN")) {
-			myFontValue = Font.TIMES_ROMAN;
-		} else {
-			myFontValue = Font.HELVETICA;
-		}
-		myFontSize = (float) Double.parseDouble(fontSize.toLowerCase()
-				.replaceAll("px", ""));
-		if (fontWeight.toUpperCase().contains("NORMAL")) {
-			myFontWeight = Font.NORMAL;
-		} else if (fontWeight.toUpperCase().contains("BOLD")) {
-			myFontWeight = Font.BOLD;
-		} else if (fontWeight.toUpperCase().contains("ITALIC")) {
-			myFontWeight = Font.ITALIC;
-		} else {
-			myFontWeight = Font.NORMAL;
-		}
-		Font pdfFont = new Font(myFontValue, myFontSize, myFontWeight);
-		BaseFont bf = pdfFont.getCalculatedBaseFont(false);
-		return bf;
+		return FontCache.getLabelFont(fontFamily, fontWeight);
 	}
 
 	public static int getHorizontalAlignment(String labelAlign) {
@@ -586,42 +602,120 @@ public class PDFUtils {
 	}
 
 	public static Image createImageFromSVG(RenderingContext context, String iconItem, double maxIconWidth, double maxIconHeight) throws IOException {
+        return createImageFromSVG(context, URI.create(iconItem), maxIconWidth, maxIconHeight);
+    }
+
+    /**
+     * @param maxWidth  The maximum width or 0 for no limit
+     * @param maxHeight The maximum height or 0 for no limit
+     */
+    public static Image createImageFromSVG(RenderingContext context, URI uri, double maxWidth, double maxHeight) throws IOException {
         Image image = null;
         try {
-            PdfContentByte dc = context.getDirectContent();
-            URI uri = URI.create(iconItem);
-            URL url = uri.toURL();
-            SVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
-            UserAgent userAgent = new UserAgentAdapter();
-            DocumentLoader loader = new DocumentLoader(userAgent);
-            BridgeContext ctx = new BridgeContext(userAgent, loader);
-            ctx.setDynamicState(BridgeContext.DYNAMIC);
-            SVGDocument svgDoc = factory.createSVGDocument(null, url.openStream());
-            GVTBuilder builder = new GVTBuilder();
-            GraphicsNode graphics = builder.build(ctx, svgDoc);
-            String svgWidthString = svgDoc.getDocumentElement().getAttribute("width");
-            String svgHeightString = svgDoc.getDocumentElement().getAttribute("height");
-            float svgWidth = Float.valueOf(svgWidthString.substring(0, svgWidthString.length() - 2));
-            float svgHeight = Float.valueOf(svgHeightString.substring(0, svgHeightString.length() - 2));
-            /**
-             * svgFactor needs to be calculated depending on the screen DPI by the PDF DPI
-             * This is 96 / 72 = 4 / 3 ~= 1.3333333 on Windows, but might be different on *nix.
-             */
-            final float svgFactor = 25.4f / userAgent.getPixelUnitToMillimeter() / 72f; // 25.4 mm = 1 inch TODO: Might need to get 72 from somewhere else?
-            //float svgFactor = (float) Toolkit.getDefaultToolkit().getScreenResolution() / 72f; // this only works with AWT, i.e. when a window environment is running
-            PdfTemplate map = dc.createTemplate(svgWidth * svgFactor, svgHeight * svgFactor);
-            Graphics2D g2d = map.createGraphics(svgWidth * svgFactor, svgHeight * svgFactor);
-            graphics.paint(g2d);
-            g2d.dispose();
-            image = Image.getInstance(map);
-            image.scaleToFit((float) maxIconWidth, (float) maxIconHeight);
+            image = Image.getInstance(getSvgTemplate(context, uri));
+            final float scale = getScaleToFit(image.getWidth(), image.getHeight(), maxWidth, maxHeight);
+            image.scaleAbsolute(image.getWidth() * scale, image.getHeight() * scale);
         } catch (BadElementException bee) {
-            LOGGER.warn("Bad Element " + iconItem + " with " + bee.getMessage());
+            LOGGER.warn("Bad Element " + uri + " with " + bee.getMessage());
         } catch (MalformedURLException mue) {
-            LOGGER.warn("Malformed URL " + iconItem + " with " + mue.getMessage());
-        } catch (IOException ioe) {
-            throw ioe;
+            LOGGER.warn("Malformed URL " + uri + " with " + mue.getMessage());
         }
         return image;
     }
+
+    /**
+     * Gets the SVG painted in a template. The parsed SVG is shared with the
+     * other print jobs through the {@link SvgCache} of the configuration and
+     * the template is created only once per document, the callers scale it
+     * as they need.
+     */
+    public static PdfTemplate getSvgTemplate(final RenderingContext context, final URI uri) throws IOException {
+        final Map<URI, PdfTemplate> cache = context.getTemplateCache();
+        PdfTemplate template = cache.get(uri);
+        if (template == null) {
+            checkHost(context, uri);
+            final SvgCache svgCache = context.getConfig().getSvgCache();
+            final SvgCache.Graphic graphic;
+            if (svgCache != null) {
+                graphic = svgCache.get(uri, context.getReferer(), new SvgCache.Loader() {
+                    public SvgCache.Graphic load() throws IOException {
+                        return loadSvg(context, uri);
+                    }
+                });
+            } else {
+                graphic = loadSvg(context, uri);
+            }
+            final PdfContentByte dc = context.getDirectContent();
+            synchronized (context.getPdfLock()) {  //protect against parallel writing on the PDF file
+                template = cache.get(uri);
+                if (template == null) {
+                    template = dc.createTemplate(graphic.getWidth(), graphic.getHeight());
+                    final Graphics2D g2d = template.createGraphics(graphic.getWidth(), graphic.getHeight());
+                    try {
+                        graphic.paint(g2d);
+                    } finally {
+                        g2d.dispose();
+                    }
+                    cache.put(uri, template);
+                }
+            }
+        }
+        return template;
+    }
+
+    /**
+     * The bitmaps and the SVG documents are fetched only from the allowed
+     * hosts, whether their URL comes from the spec or from the configuration.
+     */
+    private static void checkHost(RenderingContext context, URI uri) throws IOException {
+        if (HttpFetcher.isHttp(uri) && !context.validateUri(uri)) {
+            throw new IOException("Host not allowed: " + uri);
+        }
+    }
+
+    /**
+     * Parses an SVG document, the HTTP ones are fetched like the other images
+     * of the print.
+     */
+    private static SvgCache.Graphic loadSvg(RenderingContext context, final URI uri) throws IOException {
+        if (!uri.isAbsolute()) {
+            //Assumption is that the file is on the local file system
+            final File file = new File(uri.toString());
+            return SvgCache.load(file.toURI(), new FileInputStream(file));
+        } else if (!HttpFetcher.isHttp(uri)) {
+            return SvgCache.load(uri, uri.toURL().openStream());
+        }
+        if (LOGGER.isDebugEnabled()) LOGGER.debug("loading SVG: " + uri);
+        return context.getConfig().getHttpFetcher().get(uri, context.getReferer(), null, new HttpFetcher.Handler<SvgCache.Graphic>() {
+            public SvgCache.Graphic handle(HttpFetcher.Response response) throws IOException {
+                final int code = response.getStatusCode();
+                if (code < 200 || code >= 300) {
+                    if (LOGGER.isDebugEnabled()) LOGGER.debug("Server returned an error for " + uri + ": " + response.getBodyAsString());
+                    throw new IOException("Error (status=" + code + ") while reading the SVG from " + uri + ": " + response.getStatusText());
+                }
+                final InputStream body = response.getBodyAsStream();
+                if (body == null) {
+                    throw new IOException("Empty SVG from " + uri);
+                }
+                return SvgCache.load(uri, body);
+            }
+        });
+    }
+
+    /**
+     * @param maxWidth  The maximum width or 0 for no limit
+     * @param maxHeight The maximum height or 0 for no limit
+     * @return The factor to apply to the given size to make it as big as
+     *         possible within the limits, keeping the aspect ratio.
+     */
+    public static float getScaleToFit(float width, float height, double maxWidth, double maxHeight) {
+        float scale = Float.MAX_VALUE;
+        if (maxWidth > 0.0 && width > 0f) {
+            scale = (float) maxWidth / width;
+        }
+        if (maxHeight > 0.0 && height > 0f) {
+            scale = Math.min(scale, (float) maxHeight / height);
+        }
+        return scale == Float.MAX_VALUE ? 1f : scale;
+    }
 }
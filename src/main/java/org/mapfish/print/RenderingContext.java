@@ -21,21 +21,32 @@ package org.mapfish.print;
 
 import com.lowagie.text.Document;
 import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfGState;
 import com.lowagie.text.pdf.PdfTemplate;
 import com.lowagie.text.pdf.PdfWriter;
+import org.apache.log4j.Logger;
+import org.json.JSONObject;
 import org.mapfish.print.config.Config;
 import org.mapfish.print.config.layout.Layout;
 import org.mapfish.print.utils.PJsonObject;
 
+import java.net.MalformedURLException;
+import java.net.SocketException;
 import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
  * Holds some "per rendering request" information.
  */
 public class RenderingContext {
+    public static final Logger LOGGER = Logger.getLogger(RenderingContext.class);
+
     private final Document document;
     private final PdfWriter writer;
     private final Config config;
@@ -54,7 +65,12 @@ public class RenderingContext {
     /**
      * Cache of PDF images.
      */
-    private Map<URI, PdfTemplate> templateCache = Collections.synchronizedMap(new HashMap<URI, PdfTemplate>());
+    private final Map<URI, PdfTemplate> templateCache;
+
+    /**
+     * Scale of the main map, per page parameters.
+     */
+    private final Map<JSONObject, Integer> mainMapScales;
 
     /**
      * Simple object on which we can synchronize to protect the PDF against parallel writing.
@@ -62,7 +78,24 @@ public class RenderingContext {
      * Before, we were using the DirectContent for the locking, but it seems to
      * be problematic (had infinite loops in iText).
      */
-    private final Object pdfLock=new Object();
+    private final Object pdfLock;
+
+    /**
+     * Graphic states shared by the vector features, per opacities. Each
+     * PdfGState instance is a resource in the PDF. Protected by the PDF lock.
+     */
+    private final Map<Long, PdfGState> graphicStates;
+
+    /**
+     * Result of the host checks, per scheme, authority and path. A spec
+     * usually has many layers on the same few servers.
+     */
+    private final Map<String, Boolean> validatedUris;
+
+    /**
+     * Things to do once the document is closed.
+     */
+    private final List<Runnable> cleanups;
 
     public RenderingContext(Document document, PdfWriter writer, Config config,
                             PJsonObject globalParams, String configDir, Layout layout, String referer) {
@@ -74,6 +107,42 @@ public class RenderingContext {
         this.layout = layout;
         this.referer = referer;
         customBlocks = new PDFCustomBlocks(writer, this);
+        templateCache = Collections.synchronizedMap(new HashMap<URI, PdfTemplate>());
+        mainMapScales = new IdentityHashMap<JSONObject, Integer>();
+        pdfLock = new Object();
+        graphicStates = new HashMap<Long, PdfGState>();
+        validatedUris = Collections.synchronizedMap(new HashMap<String, Boolean>());
+        cleanups = Collections.synchronizedList(new ArrayList<Runnable>());
+    }
+
+    /**
+     * Shallow copy, sharing everything with the original except the style factor.
+     */
+    private RenderingContext(RenderingContext other, float styleFactor) {
+        document = other.document;
+        writer = other.writer;
+        config = other.config;
+        globalParams = other.globalParams;
+        configDir = other.configDir;
+        customBlocks = other.customBlocks;
+        layout = other.layout;
+        referer = other.referer;
+        templateCache = other.templateCache;
+        mainMapScales = other.mainMapScales;
+        pdfLock = other.pdfLock;
+        graphicStates = other.graphicStates;
+        validatedUris = other.validatedUris;
+        cleanups = other.cleanups;
+        this.styleFactor = styleFactor;
+    }
+
+    /**
+     * @return A context using the given style factor. Unlike
+     *         {@link #setStyleFactor(float)}, doesn't change this one, so it
+     *         can be used from another thread.
+     */
+    public RenderingContext withStyleFactor(float styleFactor) {
+        return new RenderingContext(this, styleFactor);
     }
 
     public PDFCustomBlocks getCustomBlocks() {
@@ -131,4 +200,84 @@ public class RenderingContext {
     public Object getPdfLock() {
         return pdfLock;
     }
+
+    /**
+     * Registers something to do once the document is closed, like giving
+     * back the resources iText reads when it writes the end of the file.
+     */
+    public void addCleanup(Runnable cleanup) {
+        cleanups.add(cleanup);
+    }
+
+    /**
+     * Runs the cleanups, called once the document is closed or the print failed.
+     */
+    public void cleanup() {
+        final Runnable[] toRun;
+        synchronized (cleanups) {
+            toRun = cleanups.toArray(new Runnable[cleanups.size()]);
+            cleanups.clear();
+        }
+        for (int i = 0; i < toRun.length; ++i) {
+            try {
+                toRun[i].run();
+            } catch (RuntimeException e) {
+                LOGGER.warn("Error while cleaning up the print", e);
+            }
+        }
+    }
+
+    /**
+     * Must be called while holding the PDF lock.
+     *
+     * @param fillOpacity   The fill opacity or NaN to leave it unspecified
+     * @param strokeOpacity The stroke opacity or NaN to leave it unspecified
+     * @return A graphic state with the given opacities, always the same for
+     *         the same values.
+     */
+    public PdfGState getGraphicState(float fillOpacity, float strokeOpacity) {
+        final Long key = ((long) Float.floatToIntBits(fillOpacity) << 32) |
+                (Float.floatToIntBits(strokeOpacity) & 0xFFFFFFFFL);
+        PdfGState result = graphicStates.get(key);
+        if (result == null) {
+            result = new PdfGState();
+            if (!Float.isNaN(fillOpacity)) {
+                result.setFillOpacity(fillOpacity);
+            }
+            if (!Float.isNaN(strokeOpacity)) {
+                result.setStrokeOpacity(strokeOpacity);
+            }
+            graphicStates.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * Same as {@link Config#validateUri(URI)}, but done only once per server
+     * and path for the whole print. The errors are not remembered.
+     */
+    public boolean validateUri(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
+        final String key = uri.getScheme() + "://" + uri.getRawAuthority() + uri.getRawPath();
+        Boolean result = validatedUris.get(key);
+        if (result == null) {
+            result = config.validateUri(uri);
+            validatedUris.put(key, result);
+        }
+        return result;
+    }
+
+    /**
+     * @return The scale of the main map for the given page parameters. Computed
+     *         only once per page, since creating the transformer is not cheap.
+     */
+    public int getMainMapScale(PJsonObject params) {
+        synchronized (mainMapScales) {
+            Integer result = mainMapScales.get(params.getInternalObj());
+            if (result == null) {
+                result = layout.getMainPage().getMap().createTransformer(this, params).getScale();
+                mainMapScales.put(params.getInternalObj(), result);
+            }
+            return result;
+        }
+    }
 }
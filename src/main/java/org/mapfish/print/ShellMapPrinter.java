@@ -26,7 +26,6 @@ import org.json.JSONWriter;
 import org.mapfish.print.output.OutputFactory;
 import org.mapfish.print.output.OutputFormat;
 import org.mapfish.print.utils.PJsonObject;
-import org.pvalsecc.misc.FileUtilities;
 import org.pvalsecc.opts.GetOptions;
 import org.pvalsecc.opts.InvalidOption;
 import org.pvalsecc.opts.Option;
@@ -106,8 +105,7 @@ public class ShellMapPrinter {
 
             } else {
                 final InputStream inFile = getInputStream();
-                //final PJsonObject jsonSpec = printer.parseSpec(FileUtilities.readWholeTextStream(inFile, "UTF-8"));
-                final PJsonObject jsonSpec = MapPrinter.parseSpec(FileUtilities.readWholeTextStream(inFile, "UTF-8"));
+                final PJsonObject jsonSpec = MapPrinter.parseSpec(new BufferedReader(new InputStreamReader(inFile, "UTF-8")));
                 final OutputFormat outputFormat = OutputFactory.create(printer.getConfig(), jsonSpec);
                 outFile = getOutputStream(jsonSpec.optString("outputFormat", "pdf"));
                 outputFormat.print(printer, jsonSpec, outFile, referer);
@@ -0,0 +1,525 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import org.apache.commons.httpclient.util.DateParseException;
+import org.apache.commons.httpclient.util.DateUtil;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Size bounded cache of map tiles on the local disk, shared by all the print
+ * jobs of a configuration.
+ * <p/>
+ * Use {@link #getInstance(File, long, long)} to have only one instance per
+ * directory in the process (reloaded configurations and applications using
+ * the same directory), otherwise the instances would evict the files of each
+ * other and exceed the size limit.
+ * <p/>
+ * Entries are addressed by the SHA-1 of the tile URI and stored with the HTTP
+ * validators (ETag, Last-Modified) that allow to revalidate them with a
+ * conditional request once they are stale. The least recently used entries
+ * are evicted when the total size goes over the limit.
+ */
+public class DiskTileCache {
+    public static final Logger LOGGER = Logger.getLogger(DiskTileCache.class);
+
+    /**
+     * Returned by {@link #getExpiry(String, String)} when the server forbids
+     * to store the response.
+     */
+    public static final long NO_STORE = -1;
+
+    private static final int MAGIC = 0x4d465443;
+    private static final String SUFFIX = ".tile";
+
+    /**
+     * The temp files older than that are left by a crash.
+     */
+    private static final long TMP_MAX_AGE = 60 * 60 * 1000L;
+
+    /**
+     * The shared instances, per canonical path.
+     */
+    private static final Map<String, DiskTileCache> INSTANCES = new HashMap<String, DiskTileCache>();
+
+    private final File directory;
+    private long maxBytes;
+    private long ttl;
+
+    /**
+     * False while the index is rebuilt in the background, the tiles not in
+     * the index may still be on the disk.
+     */
+    private boolean indexLoaded = false;
+
+    /**
+     * Key => size of the entry, in access order (the eldest is the first
+     * candidate for eviction).
+     */
+    private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(256, 0.75f, true);
+    private long totalBytes = 0;
+
+    /**
+     * @param directory Where to store the tiles
+     * @param maxBytes  The maximum size of the cache
+     * @param ttl       The maximum time, in milliseconds, a tile is used without
+     *                  revalidation
+     */
+    public DiskTileCache(File directory, long maxBytes, long ttl) {
+        this(directory, maxBytes, ttl, false);
+    }
+
+    private DiskTileCache(File directory, long maxBytes, long ttl, boolean background) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Cannot create the tile cache directory: " + directory);
+        }
+        if (background) {
+            final Thread loader = new Thread(new Runnable() {
+                public void run() {
+                    loadIndex();
+                }
+            }, "tileCacheIndex");
+            loader.setDaemon(true);
+            loader.start();
+        } else {
+            loadIndex();
+        }
+    }
+
+    /**
+     * Gets the cache of a directory, shared by all the configurations using
+     * it. The index of the tiles already on the disk is rebuilt in the
+     * background, the cache can be used in the mean time.
+     * <p/>
+     * The limits are the ones of the last configuration asking for it.
+     */
+    public static DiskTileCache getInstance(File directory, long maxBytes, long ttl) {
+        final String path;
+        try {
+            path = directory.getCanonicalPath();
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Invalid tile cache directory: " + directory);
+        }
+        synchronized (INSTANCES) {
+            DiskTileCache result = INSTANCES.get(path);
+            if (result == null) {
+                result = new DiskTileCache(new File(path), maxBytes, ttl, true);
+                INSTANCES.put(path, result);
+            } else {
+                result.setLimits(maxBytes, ttl);
+            }
+            return result;
+        }
+    }
+
+    private synchronized void setLimits(long maxBytes, long ttl) {
+        if (maxBytes != this.maxBytes || ttl != this.ttl) {
+            LOGGER.info("Tile cache " + directory + " limits changed to " + maxBytes + " bytes and a TTL of " + ttl + "ms");
+        }
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+        evict(null);
+    }
+
+    /**
+     * @return The cached tile or null if the cache doesn't know the URI.
+     *         The tile may be stale, use {@link CachedTile#isFresh()} to
+     *         know if it has to be revalidated.
+     */
+    public CachedTile get(URI uri) {
+        final String key = getKey(uri);
+        synchronized (this) {
+            // get (and not containsKey) to move the entry at the end of the LRU order
+            if (index.get(key) == null && indexLoaded) {
+                return null;
+            }
+        }
+        final File file = getFile(key);
+        try {
+            final CachedTile tile = read(file);
+            if (!tile.getUri().equals(uri.toString())) {
+                // SHA-1 collision... very unlikely, but let's be safe
+                return null;
+            }
+            return tile;
+        } catch (FileNotFoundException e) {
+            // removed by another instance working on the same directory
+            forget(key);
+            return null;
+        } catch (IOException e) {
+            LOGGER.warn("Corrupted tile cache entry " + file + ": " + e.getMessage());
+            remove(key);
+            return null;
+        }
+    }
+
+    /**
+     * Stores a tile.
+     *
+     * @param expiry The value returned by {@link #getExpiry(String, String)}
+     */
+    public void put(URI uri, String contentType, String etag, String lastModified, long expiry, byte[] data) {
+        if (expiry == NO_STORE || data.length > getMaxBytes()) {
+            return;
+        }
+        write(new CachedTile(uri.toString(), contentType, etag, lastModified, expiry, data));
+    }
+
+    /**
+     * To be called when the server answered that a stale tile didn't
+     * change (HTTP 304).
+     */
+    public void refresh(CachedTile tile, long expiry) {
+        if (expiry == NO_STORE) {
+            remove(getKey(tile.getUri()));
+            return;
+        }
+        tile.expiry = expiry;
+        write(tile);
+    }
+
+    /**
+     * Computes when a response expires, according to its Cache-Control and
+     * Expires headers. The result is never later than the configured TTL.
+     *
+     * @return The expiry time or {@link #NO_STORE} if the response must not be
+     *         cached.
+     */
+    public long getExpiry(String cacheControl, String expires) {
+        final long now = System.currentTimeMillis();
+        final long ttl = getTtl();
+        if (cacheControl != null) {
+            final String[] directives = cacheControl.toLowerCase().split(",");
+            for (int i = 0; i < directives.length; ++i) {
+                final String directive = directives[i].trim();
+                if (directive.equals("no-store") || directive.equals("private")) {
+                    return NO_STORE;
+                } else if (directive.equals("no-cache") || directive.equals("must-revalidate")) {
+                    // keep it, but revalidate it each time
+                    return now;
+                } else if (directive.startsWith("max-age=")) {
+                    try {
+                        final long maxAge = Long.parseLong(directive.substring(8).trim()) * 1000L;
+                        return now + Math.min(maxAge, ttl);
+                    } catch (NumberFormatException e) {
+                        LOGGER.debug("Invalid Cache-Control header: " + cacheControl);
+                    }
+                }
+            }
+        }
+        if (expires != null) {
+            try {
+                final long date = DateUtil.parseDate(expires).getTime();
+                return Math.min(Math.max(date, now), now + ttl);
+            } catch (DateParseException e) {
+                // invalid dates mean "already expired"
+                return now;
+            }
+        }
+        return now + ttl;
+    }
+
+    private synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private synchronized long getTtl() {
+        return ttl;
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getNbEntries() {
+        return index.size();
+    }
+
+    private void write(CachedTile tile) {
+        final String key = getKey(tile.getUri());
+        final File target = getFile(key);
+        final File dir = target.getParentFile();
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            LOGGER.warn("Cannot create " + dir);
+            return;
+        }
+
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("tile", ".tmp", dir);
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            try {
+                out.writeInt(MAGIC);
+                out.writeUTF(tile.getUri());
+                out.writeUTF(nullToEmpty(tile.getContentType()));
+                out.writeUTF(nullToEmpty(tile.getEtag()));
+                out.writeUTF(nullToEmpty(tile.getLastModified()));
+                out.writeLong(tile.getExpiry());
+                out.writeInt(tile.getData().length);
+                out.write(tile.getData());
+            } finally {
+                out.close();
+            }
+
+            // rename is atomic, readers never see a partially written tile
+            if (!tmp.renameTo(target)) {
+                target.delete();
+                if (!tmp.renameTo(target)) {
+                    throw new IOException("Cannot rename " + tmp + " to " + target);
+                }
+            }
+            tmp = null;
+            added(key, target.length());
+        } catch (IOException e) {
+            LOGGER.warn("Cannot write the tile cache entry for " + tile.getUri() + ": " + e.getMessage());
+        } finally {
+            if (tmp != null) {
+                tmp.delete();
+            }
+        }
+    }
+
+    private static CachedTile read(File file) throws IOException {
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException("Invalid header");
+            }
+            final String uri = in.readUTF();
+            final String contentType = emptyToNull(in.readUTF());
+            final String etag = emptyToNull(in.readUTF());
+            final String lastModified = emptyToNull(in.readUTF());
+            final long expiry = in.readLong();
+            final byte[] data = new byte[in.readInt()];
+            in.readFully(data);
+            return new CachedTile(uri, contentType, etag, lastModified, expiry, data);
+        } finally {
+            in.close();
+        }
+    }
+
+    private synchronized void added(String key, long size) {
+        final Long previous = index.put(key, size);
+        if (previous != null) {
+            totalBytes -= previous;
+        }
+        totalBytes += size;
+        evict(key);
+    }
+
+    /**
+     * Removes the least recently used entries until the size is below the limit.
+     *
+     * @param keep The entry not to remove, can be null
+     */
+    private synchronized void evict(String keep) {
+        Iterator<Map.Entry<String, Long>> it = index.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (eldest.getKey().equals(keep)) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue();
+            getFile(eldest.getKey()).delete();
+        }
+    }
+
+    /**
+     * Adds the entries found on the disk before the ones used since the
+     * cache was opened.
+     *
+     * @param files The files found, the least recently used first
+     */
+    private synchronized void addFound(List<File> files) {
+        final LinkedHashMap<String, Long> used = new LinkedHashMap<String, Long>(index);
+        index.clear();
+        totalBytes = 0;
+        for (File file : files) {
+            final String name = file.getName();
+            final String key = name.substring(0, name.length() - SUFFIX.length());
+            if (!used.containsKey(key)) {
+                index.put(key, file.length());
+                totalBytes += file.length();
+            }
+        }
+        for (Map.Entry<String, Long> entry : used.entrySet()) {
+            index.put(entry.getKey(), entry.getValue());
+            totalBytes += entry.getValue();
+        }
+        indexLoaded = true;
+        evict(null);
+    }
+
+    private synchronized void forget(String key) {
+        final Long size = index.remove(key);
+        if (size != null) {
+            totalBytes -= size;
+        }
+    }
+
+    private synchronized void remove(String key) {
+        forget(key);
+        getFile(key).delete();
+    }
+
+    /**
+     * Rebuilds the LRU index out of what was left on the disk by a previous
+     * run. The modification time is used to approximate the access order.
+     */
+    private void loadIndex() {
+        final long tmpLimit = System.currentTimeMillis() - TMP_MAX_AGE;
+        List<File> files = new ArrayList<File>();
+        File[] level1 = directory.listFiles();
+        for (int i = 0; level1 != null && i < level1.length; ++i) {
+            File[] level2 = level1[i].listFiles();
+            for (int j = 0; level2 != null && j < level2.length; ++j) {
+                final File file = level2[j];
+                if (file.getName().endsWith(SUFFIX)) {
+                    files.add(file);
+                } else if (file.lastModified() < tmpLimit) {
+                    // temp file left by a crash, the recent ones may still be written
+                    file.delete();
+                }
+            }
+        }
+        Collections.sort(files, new Comparator<File>() {
+            public int compare(File a, File b) {
+                final long diff = a.lastModified() - b.lastModified();
+                return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+            }
+        });
+        addFound(files);
+        LOGGER.info("Tile cache " + directory + " opened with " + getNbEntries() + " entries (" + getTotalBytes() + " bytes)");
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + SUFFIX);
+    }
+
+    private static String getKey(URI uri) {
+        return getKey(uri.toString());
+    }
+
+    private static String getKey(String uri) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-1");
+            final byte[] hash = digest.digest(uri.getBytes("UTF-8"));
+            final StringBuilder result = new StringBuilder(hash.length * 2);
+            for (int i = 0; i < hash.length; ++i) {
+                final int b = hash[i] & 0xff;
+                if (b < 0x10) {
+                    result.append('0');
+                }
+                result.append(Integer.toHexString(b));
+            }
+            return result.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        } catch (UnsupportedEncodingException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static String nullToEmpty(String value) {
+        return value == null ? "" : value;
+    }
+
+    private static String emptyToNull(String value) {
+        return value.length() == 0 ? null : value;
+    }
+
+    /**
+     * A tile read from the cache.
+     */
+    public static class CachedTile {
+        private final String uri;
+        private final String contentType;
+        private final String etag;
+        private final String lastModified;
+        private long expiry;
+        private final byte[] data;
+
+        private CachedTile(String uri, String contentType, String etag, String lastModified, long expiry, byte[] data) {
+            this.uri = uri;
+            this.contentType = contentType;
+            this.etag = etag;
+            this.lastModified = lastModified;
+            this.expiry = expiry;
+            this.data = data;
+        }
+
+        public String getUri() {
+            return uri;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public String getEtag() {
+            return etag;
+        }
+
+        public String getLastModified() {
+            return lastModified;
+        }
+
+        public long getExpiry() {
+            return expiry;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        /**
+         * @return False if the tile must be revalidated with the server.
+         */
+        public boolean isFresh() {
+            return System.currentTimeMillis() < expiry;
+        }
+    }
+}
@@ -0,0 +1,188 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import com.lowagie.text.BadElementException;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Image;
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * In memory cache of decoded images (logos, legend icons, symbols, ...),
+ * shared by all the print jobs of a configuration.
+ * <p/>
+ * The cached instances are never given to the callers, they receive a copy
+ * they are free to modify (position, scaling, ...). The least recently used
+ * images are evicted when the total size goes over the limit and the images
+ * are loaded again when they are older than the TTL.
+ */
+public class ImageCache {
+    public static final Logger LOGGER = Logger.getLogger(ImageCache.class);
+
+    /**
+     * Loads an image that is not in the cache.
+     */
+    public interface Loader {
+        Image load() throws IOException, DocumentException;
+    }
+
+    private final long maxBytes;
+    private final long ttl;
+
+    private final LinkedHashMap<String, Entry> images = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+    private long totalBytes = 0;
+    private long nbHits = 0;
+
+    private final SingleFlight<String, Image> loads = new SingleFlight<String, Image>();
+
+    /**
+     * @param ttl In milliseconds, the time an image is used before being
+     *            loaded again, 0 for forever
+     */
+    public ImageCache(long maxBytes, long ttl) {
+        this.maxBytes = maxBytes;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param uri     The URI of the image
+     * @param referer The referer sent when fetching the image (servers may
+     *                return different images depending on it)
+     * @param loader  Used when the image is not in the cache yet or expired
+     * @return A private copy of the image
+     */
+    public Image get(URI uri, String referer, final Loader loader) throws IOException, DocumentException {
+        final String key = referer == null ? uri.toString() : uri.toString() + " " + referer;
+
+        Image result = null;
+        synchronized (this) {
+            final Entry entry = images.get(key);
+            if (entry != null) {
+                if (System.currentTimeMillis() < entry.expiresAt) {
+                    result = entry.image;
+                    nbHits++;
+                } else {
+                    images.remove(key);
+                    totalBytes -= getSize(entry.image);
+                }
+            }
+        }
+
+        if (result == null) {
+            try {
+                result = loads.get(key, new Callable<Image>() {
+                    public Image call() throws Exception {
+                        final Image image = loader.load();
+                        put(key, image);
+                        return image;
+                    }
+                });
+            } catch (IOException e) {
+                throw e;
+            } catch (DocumentException e) {
+                throw e;
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                final IOException ioe = new IOException("Error while loading " + uri);
+                ioe.initCause(e);
+                throw ioe;
+            }
+        }
+
+        return copy(result);
+    }
+
+    public synchronized long getTotalBytes() {
+        return totalBytes;
+    }
+
+    public synchronized long getNbHits() {
+        return nbHits;
+    }
+
+    /**
+     * @return The number of images actually loaded.
+     */
+    public long getNbLoads() {
+        return loads.getNbLoads();
+    }
+
+    /**
+     * @return The number of times an image was asked while being loaded by another thread.
+     */
+    public long getNbAttached() {
+        return loads.getNbAttached();
+    }
+
+    private synchronized void put(String key, Image image) {
+        final long size = getSize(image);
+        if (size > maxBytes) {
+            return;
+        }
+        final Entry previous = images.put(key, new Entry(image, ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE));
+        if (previous != null) {
+            totalBytes -= getSize(previous.image);
+        }
+        totalBytes += size;
+
+        Iterator<Map.Entry<String, Entry>> it = images.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            it.remove();
+            totalBytes -= getSize(eldest.getValue().image);
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("image cache: " + images.size() + " images, " + totalBytes + " bytes");
+        }
+    }
+
+    private static long getSize(Image image) {
+        final byte[] raw = image.getRawData();
+        if (raw != null) {
+            return raw.length;
+        }
+        return (long) (image.getPlainWidth() * image.getPlainHeight() * 4);
+    }
+
+    private static Image copy(Image image) throws BadElementException {
+        return Image.getInstance(image);
+    }
+
+    private static class Entry {
+        private final Image image;
+        private final long expiresAt;
+
+        private Entry(Image image, long expiresAt) {
+            this.image = image;
+            this.expiresAt = expiresAt;
+        }
+    }
+}
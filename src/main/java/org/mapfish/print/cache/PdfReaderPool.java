@@ -0,0 +1,185 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.RandomAccessFileOrArray;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+/**
+ * Pool of parsed PDF files (backgrounds of the pages), shared by all the
+ * print jobs of a configuration.
+ * <p/>
+ * The files are read in partial mode: only the cross-reference table is
+ * kept in memory, the objects are read from the file when needed. A
+ * PdfReader cannot be used by two documents at the same time, so a print
+ * job takes a reader for the whole life of its document and gives it back
+ * when the document is closed. The readers are dropped when their file is
+ * modified.
+ */
+public class PdfReaderPool {
+    public static final Logger LOGGER = Logger.getLogger(PdfReaderPool.class);
+
+    /**
+     * More than that and the readers are closed when they are given back.
+     */
+    private static final int MAX_IDLE_PER_FILE = 4;
+
+    /**
+     * The readers not used, per path.
+     */
+    private final Map<String, Idle> idle = new HashMap<String, Idle>();
+
+    /**
+     * The readers given to a job, with the version of the file they were read from.
+     */
+    private final Map<PdfReader, Lease> leases = new IdentityHashMap<PdfReader, Lease>();
+
+    private long nbHits = 0;
+    private long nbLoads = 0;
+
+    /**
+     * @return A reader for the given file, to give back with {@link #release(PdfReader)}
+     */
+    public PdfReader acquire(File file) throws IOException {
+        final String path = file.getCanonicalPath();
+        final String version = getVersion(file);
+        synchronized (this) {
+            final Idle readers = idle.get(path);
+            if (readers != null) {
+                if (readers.version.equals(version)) {
+                    if (!readers.readers.isEmpty()) {
+                        final PdfReader result = readers.readers.removeFirst();
+                        leases.put(result, new Lease(path, version));
+                        nbHits++;
+                        return result;
+                    }
+                } else {
+                    // the file has changed
+                    idle.remove(path);
+                    closeAll(readers);
+                }
+            }
+        }
+
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Parsing " + path);
+        }
+        final PdfReader result = new PdfReader(new RandomAccessFileOrArray(path, false, true), null);
+        synchronized (this) {
+            leases.put(result, new Lease(path, version));
+            nbLoads++;
+        }
+        return result;
+    }
+
+    /**
+     * Gives back a reader. Must be called only once the document using it
+     * is closed, since iText reads the imported pages at that time.
+     */
+    public void release(PdfReader reader) {
+        final Lease lease;
+        synchronized (this) {
+            lease = leases.remove(reader);
+        }
+        if (lease == null) {
+            LOGGER.warn("Releasing a PDF reader not coming from the pool");
+            close(reader);
+            return;
+        }
+
+        final String currentVersion = getVersion(new File(lease.path));
+        synchronized (this) {
+            if (lease.version.equals(currentVersion)) {
+                Idle readers = idle.get(lease.path);
+                if (readers == null || !readers.version.equals(lease.version)) {
+                    if (readers != null) {
+                        closeAll(readers);
+                    }
+                    readers = new Idle(lease.version);
+                    idle.put(lease.path, readers);
+                }
+                if (readers.readers.size() < MAX_IDLE_PER_FILE) {
+                    // the file was closed by iText when the document was closed,
+                    // it will be re-opened when needed
+                    readers.readers.addLast(reader);
+                    return;
+                }
+            }
+        }
+        close(reader);
+    }
+
+    public synchronized long getNbHits() {
+        return nbHits;
+    }
+
+    /**
+     * @return The number of times a file was parsed.
+     */
+    public synchronized long getNbLoads() {
+        return nbLoads;
+    }
+
+    private static String getVersion(File file) {
+        return file.lastModified() + "/" + file.length();
+    }
+
+    private static void closeAll(Idle readers) {
+        for (PdfReader reader : readers.readers) {
+            close(reader);
+        }
+        readers.readers.clear();
+    }
+
+    private static void close(PdfReader reader) {
+        try {
+            reader.close();
+        } catch (RuntimeException e) {
+            LOGGER.warn("Cannot close a PDF reader", e);
+        }
+    }
+
+    private static class Idle {
+        private final String version;
+        private final LinkedList<PdfReader> readers = new LinkedList<PdfReader>();
+
+        private Idle(String version) {
+            this.version = version;
+        }
+    }
+
+    private static class Lease {
+        private final String path;
+        private final String version;
+
+        private Lease(String path, String version) {
+            this.path = path;
+            this.version = version;
+        }
+    }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Makes sure that only one thread at a time computes the value for a given
+ * key. The other threads asking for the same key while it is computed wait
+ * for the result of the first one.
+ * <p/>
+ * Nothing is kept once the computation is finished, caching the result is
+ * the responsibility of the caller.
+ */
+public class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, FutureTask<V>> inFlight = new ConcurrentHashMap<K, FutureTask<V>>();
+
+    private final AtomicLong nbLoads = new AtomicLong();
+    private final AtomicLong nbAttached = new AtomicLong();
+
+    /**
+     * Runs the loader or waits for the loader of another thread working on the
+     * same key.
+     *
+     * @throws Exception the exception thrown by the loader
+     */
+    public V get(K key, Callable<V> loader) throws Exception {
+        FutureTask<V> task = new FutureTask<V>(loader);
+        final FutureTask<V> previous = inFlight.putIfAbsent(key, task);
+        if (previous == null) {
+            nbLoads.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                inFlight.remove(key, task);
+            }
+        } else {
+            nbAttached.incrementAndGet();
+            task = previous;
+        }
+
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            } else {
+                throw e;
+            }
+        }
+    }
+
+    /**
+     * @return The number of times a loader was actually run.
+     */
+    public long getNbLoads() {
+        return nbLoads.get();
+    }
+
+    /**
+     * @return The number of times a thread waited for the loader of another one.
+     */
+    public long getNbAttached() {
+        return nbAttached.get();
+    }
+}
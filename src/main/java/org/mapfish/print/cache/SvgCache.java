@@ -0,0 +1,227 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import org.apache.batik.bridge.BridgeContext;
+import org.apache.batik.bridge.BridgeException;
+import org.apache.batik.bridge.DocumentLoader;
+import org.apache.batik.bridge.GVTBuilder;
+import org.apache.batik.bridge.UserAgent;
+import org.apache.batik.bridge.UserAgentAdapter;
+import org.apache.batik.dom.svg.SAXSVGDocumentFactory;
+import org.apache.batik.ext.awt.RenderingHintsKeyExt;
+import org.apache.batik.gvt.GraphicsNode;
+import org.apache.batik.util.XMLResourceDescriptor;
+import org.apache.log4j.Logger;
+import org.w3c.dom.svg.SVGDocument;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Dimension2D;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+/**
+ * In memory cache of parsed SVG documents (legend icons, !image blocks,
+ * externalGraphic symbols), shared by all the print jobs of a configuration.
+ * <p/>
+ * Parsing an SVG and building its Batik graphics tree is much more costly
+ * than painting it, so only the painting is done for each print. The least
+ * recently used documents are evicted when there are more than the limit and
+ * the documents are loaded again when they are older than the TTL.
+ */
+public class SvgCache {
+    public static final Logger LOGGER = Logger.getLogger(SvgCache.class);
+
+    static {
+        //avoid a warning from Batik when painting in a PDF
+        System.setProperty("org.apache.batik.warn_destination", "false");
+    }
+
+    /**
+     * Loads a document that is not in the cache yet.
+     */
+    public interface Loader {
+        Graphic load() throws IOException;
+    }
+
+    private final int maxEntries;
+    private final long ttl;
+
+    private final LinkedHashMap<String, Entry> graphics = new LinkedHashMap<String, Entry>(16, 0.75f, true);
+    private long nbHits = 0;
+
+    private final SingleFlight<String, Graphic> loads = new SingleFlight<String, Graphic>();
+
+    /**
+     * @param ttl In milliseconds, the time a document is used before being
+     *            loaded again, 0 for forever
+     */
+    public SvgCache(int maxEntries, long ttl) {
+        this.maxEntries = maxEntries;
+        this.ttl = ttl;
+    }
+
+    /**
+     * @param uri     The URI of the document
+     * @param referer The referer sent when fetching the document (servers may
+     *                return different documents depending on it)
+     * @param loader  Used when the document is not in the cache yet or expired
+     * @return The parsed SVG
+     */
+    public Graphic get(URI uri, String referer, final Loader loader) throws IOException {
+        final String key = referer == null ? uri.toString() : uri.toString() + " " + referer;
+        synchronized (this) {
+            final Entry entry = graphics.get(key);
+            if (entry != null) {
+                if (System.currentTimeMillis() < entry.expiresAt) {
+                    nbHits++;
+                    return entry.graphic;
+                }
+                graphics.remove(key);
+            }
+        }
+
+        try {
+            return loads.get(key, new Callable<Graphic>() {
+                public Graphic call() throws Exception {
+                    final Graphic graphic = loader.load();
+                    put(key, graphic);
+                    return graphic;
+                }
+            });
+        } catch (IOException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            final IOException ioe = new IOException("Error while loading " + uri);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    public synchronized long getNbHits() {
+        return nbHits;
+    }
+
+    /**
+     * @return The number of SVG documents actually parsed.
+     */
+    public long getNbLoads() {
+        return loads.getNbLoads();
+    }
+
+    private synchronized void put(String key, Graphic graphic) {
+        graphics.put(key, new Entry(graphic, ttl > 0 ? System.currentTimeMillis() + ttl : Long.MAX_VALUE));
+        while (graphics.size() > maxEntries) {
+            final Map.Entry<String, Entry> eldest = graphics.entrySet().iterator().next();
+            graphics.remove(eldest.getKey());
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("SVG cache: " + graphics.size() + " documents");
+        }
+    }
+
+    /**
+     * Parses an SVG document, without cache. Closes the stream.
+     *
+     * @param uri Used to resolve the relative links of the document
+     */
+    public static Graphic load(URI uri, InputStream input) throws IOException {
+        final UserAgent userAgent = new UserAgentAdapter();
+        final BridgeContext ctx = new BridgeContext(userAgent, new DocumentLoader(userAgent));
+        ctx.setDynamicState(BridgeContext.STATIC);
+        final SAXSVGDocumentFactory factory = new SAXSVGDocumentFactory(XMLResourceDescriptor.getXMLParserClassName());
+        try {
+            final SVGDocument svgDoc = factory.createSVGDocument(uri.toString(), input);
+            final GraphicsNode node = new GVTBuilder().build(ctx, svgDoc);
+            final Dimension2D size = ctx.getDocumentSize();
+            /**
+             * svgFactor needs to be calculated depending on the screen DPI by the PDF DPI
+             * This is 96 / 72 = 4 / 3 ~= 1.3333333 on Windows, but might be different on *nix.
+             */
+            final float svgFactor = 25.4f / userAgent.getPixelUnitToMillimeter() / 72f;
+            return new Graphic(node, (float) size.getWidth(), (float) size.getHeight(), svgFactor);
+        } catch (BridgeException e) {
+            final IOException ioe = new IOException("Invalid SVG " + uri + ": " + e.getMessage());
+            ioe.initCause(e);
+            throw ioe;
+        } finally {
+            input.close();
+        }
+    }
+
+    private static class Entry {
+        private final Graphic graphic;
+        private final long expiresAt;
+
+        private Entry(Graphic graphic, long expiresAt) {
+            this.graphic = graphic;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    /**
+     * A parsed SVG document, ready to be painted.
+     */
+    public static class Graphic {
+        private final GraphicsNode node;
+        private final float width;
+        private final float height;
+        private final float factor;
+
+        private Graphic(GraphicsNode node, float width, float height, float factor) {
+            this.node = node;
+            this.width = width;
+            this.height = height;
+            this.factor = factor;
+        }
+
+        /**
+         * @return The width of the painted document, in points
+         */
+        public float getWidth() {
+            return width * factor;
+        }
+
+        /**
+         * @return The height of the painted document, in points
+         */
+        public float getHeight() {
+            return height * factor;
+        }
+
+        /**
+         * Paints the document in a graphics of {@link #getWidth()} x
+         * {@link #getHeight()}. The Batik graphics tree is not meant to be
+         * painted by more than one thread at a time.
+         */
+        public synchronized void paint(Graphics2D g2) {
+            g2.setRenderingHint(RenderingHintsKeyExt.KEY_TRANSCODING, RenderingHintsKeyExt.VALUE_TRANSCODING_PRINTING);
+            g2.setRenderingHint(RenderingHintsKeyExt.KEY_AVOID_TILE_PAINTING, RenderingHintsKeyExt.VALUE_AVOID_TILE_PAINTING_ON);
+            g2.scale(factor, factor);
+            node.paint(g2);
+        }
+    }
+}
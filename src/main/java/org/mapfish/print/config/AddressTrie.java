@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.config;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Binary trie of IP address prefixes (CIDR blocks), to find in one walk all
+ * the blocks an address belongs to. IPv4 and IPv6 addresses are kept apart.
+ */
+class AddressTrie<T> {
+    private final Node<T> ipv4 = new Node<T>();
+    private final Node<T> ipv6 = new Node<T>();
+
+    /**
+     * @param prefix       The address of the block, as returned by InetAddress.getAddress()
+     * @param prefixLength The number of significant bits
+     */
+    public void add(byte[] prefix, int prefixLength, T value) {
+        Node<T> node = getRoot(prefix);
+        for (int bit = 0; bit < prefixLength; ++bit) {
+            final int index = getBit(prefix, bit);
+            Node<T> child = node.children[index];
+            if (child == null) {
+                child = new Node<T>();
+                node.children[index] = child;
+            }
+            node = child;
+        }
+        node.values.add(value);
+    }
+
+    /**
+     * Adds to the result the values of all the blocks containing the given
+     * address, the shortest prefixes first.
+     */
+    public void findAll(byte[] address, Collection<T> result) {
+        Node<T> node = getRoot(address);
+        final int nbBits = address.length * 8;
+        for (int bit = 0; node != null; ++bit) {
+            result.addAll(node.values);
+            if (bit >= nbBits) {
+                break;
+            }
+            node = node.children[getBit(address, bit)];
+        }
+    }
+
+    private Node<T> getRoot(byte[] address) {
+        return address.length == 4 ? ipv4 : ipv6;
+    }
+
+    private static int getBit(byte[] address, int bit) {
+        return (address[bit >> 3] >> (7 - (bit & 7))) & 1;
+    }
+
+    /**
+     * @return The number of leading one bits of the mask, or -1 if the mask
+     *         is not contiguous (like 255.0.255.0).
+     */
+    public static int getPrefixLength(byte[] mask) {
+        int result = 0;
+        while (result < mask.length * 8 && getBit(mask, result) == 1) {
+            result++;
+        }
+        for (int bit = result; bit < mask.length * 8; ++bit) {
+            if (getBit(mask, bit) == 1) {
+                return -1;
+            }
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static class Node<T> {
+        private final Node<T>[] children = new Node[2];
+        private final List<T> values = new ArrayList<T>(1);
+    }
+}
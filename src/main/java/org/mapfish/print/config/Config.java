@@ -30,15 +30,18 @@ import org.ho.yaml.CustomYamlConfig;
 import org.ho.yaml.YamlConfig;
 import org.json.JSONException;
 import org.json.JSONWriter;
+import org.mapfish.print.HttpFetcher;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
+import org.mapfish.print.cache.DiskTileCache;
+import org.mapfish.print.cache.ImageCache;
+import org.mapfish.print.cache.PdfReaderPool;
+import org.mapfish.print.cache.SvgCache;
 import org.mapfish.print.config.layout.Layout;
 import org.mapfish.print.config.layout.Layouts;
-import org.mapfish.print.map.MapTileTask;
-import org.mapfish.print.map.readers.WMSServerInfo;
+import org.mapfish.print.map.TileScheduler;
 import org.mapfish.print.output.OutputFactory;
 //import org.mapfish.print.output.OutputFormat;
-import org.pvalsecc.concurrent.OrderedResultsExecutor;
 
 import java.io.File;
 import java.io.FileNotFoundException;
@@ -52,6 +55,11 @@ import java.net.URI;
 import java.net.UnknownHostException;
 import java.text.NumberFormat;
 import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Bean mapping the root of the configuration file.
@@ -82,6 +90,21 @@ public class Config {
 
     private boolean tilecacheMerging = false;
 
+    private String diskCacheDir = null;
+    private int diskCacheMaxSize = 512; // MB
+    private int diskCacheTtl = 24*60*60; // 1 day, in seconds
+    private int imageCacheMaxSize = 64; // MB
+    private int imageCacheTtl = 60*60; // 1 hour, in seconds
+    private int svgCacheMaxEntries = 100;
+    private int svgCacheTtl = 60*60; // 1 hour, in seconds
+    private int tileBufferMaxSize = 64; // MB
+    private int capabilitiesTtl = 60*60; // 1 hour, in seconds
+    private int capabilitiesErrorTtl = 60; // seconds
+    private int dnsCacheTtl = 5*60; // seconds
+    private int dnsCacheErrorTtl = 30; // seconds
+    private int pngCompressionLevel = 6;
+    private int pngMaxParallelConversions = Runtime.getRuntime().availableProcessors();
+
     private String outputFilename = "mapfish-print.pdf";
 
     /**
@@ -94,8 +117,17 @@ public class Config {
      * The bunch of threads that will be used to do the // fetching of the map
      * chunks
      */
-    private OrderedResultsExecutor<MapTileTask> mapRenderingExecutor = null;
+    private TileScheduler tileScheduler = null;
     private MultiThreadedHttpConnectionManager connectionManager;
+    private HttpFetcher httpFetcher = null;
+    private HostAuthorizer hostAuthorizer = null;
+    private DnsCache dnsCache = null;
+    private DiskTileCache diskTileCache = null;
+    private ImageCache imageCache = null;
+    private SvgCache svgCache = null;
+    private PdfReaderPool pdfReaderPool = null;
+    private Semaphore pngConversions = null;
+    private ExecutorService rasterizers = null;
     private TreeSet<String> formats; // private int svgMaxWidth = -1; private int svgMaxHeight = -1;
 
     public Config() {
@@ -217,8 +249,9 @@ public class Config {
         return scales.contains(scale);
     }
 
-    public void setHosts(List<HostMatcher> hosts) {
+    public synchronized void setHosts(List<HostMatcher> hosts) {
         this.hosts = hosts;
+        hostAuthorizer = null;
     }
 
     public void setFonts(TreeSet<String> fonts) {
@@ -243,16 +276,24 @@ public class Config {
      * Make sure an URI is authorized
      */
     public boolean validateUri(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
-        for (int i = 0; i < hosts.size(); i++) {
-            HostMatcher matcher = hosts.get(i);
-            if (matcher.validate(uri)) {
-                if (LOGGER.isDebugEnabled()) {
-                    LOGGER.debug("URI [" + uri + "] accepted by: " + matcher);
-                }
-                return true;
-            }
+        return getHostAuthorizer().validate(uri, getDnsCache());
+    }
+
+    private synchronized HostAuthorizer getHostAuthorizer() {
+        if (hostAuthorizer == null) {
+            hostAuthorizer = new HostAuthorizer(hosts, dnsCacheErrorTtl * 1000L);
         }
-        return false;
+        return hostAuthorizer;
+    }
+
+    /**
+     * @return The cache of the DNS resolutions used to check the hosts.
+     */
+    public synchronized DnsCache getDnsCache() {
+        if (dnsCache == null) {
+            dnsCache = new DnsCache(dnsCacheTtl * 1000L, dnsCacheErrorTtl * 1000L);
+        }
+        return dnsCache;
     }
 
     /**
@@ -287,6 +328,46 @@ public class Config {
             throw new InvalidValueException("connectionTimeout", connectionTimeout);
         }
 
+        if (diskCacheMaxSize < 0) {
+            throw new InvalidValueException("diskCacheMaxSize", diskCacheMaxSize);
+        }
+        if (diskCacheTtl < 0) {
+            throw new InvalidValueException("diskCacheTtl", diskCacheTtl);
+        }
+        if (tileBufferMaxSize < 1) {
+            throw new InvalidValueException("tileBufferMaxSize", tileBufferMaxSize);
+        }
+        if (capabilitiesTtl < 0) {
+            throw new InvalidValueException("capabilitiesTtl", capabilitiesTtl);
+        }
+        if (capabilitiesErrorTtl < 0) {
+            throw new InvalidValueException("capabilitiesErrorTtl", capabilitiesErrorTtl);
+        }
+        if (dnsCacheTtl < 0) {
+            throw new InvalidValueException("dnsCacheTtl", dnsCacheTtl);
+        }
+        if (dnsCacheErrorTtl < 0) {
+            throw new InvalidValueException("dnsCacheErrorTtl", dnsCacheErrorTtl);
+        }
+        if (imageCacheMaxSize < 0) {
+            throw new InvalidValueException("imageCacheMaxSize", imageCacheMaxSize);
+        }
+        if (imageCacheTtl < 0) {
+            throw new InvalidValueException("imageCacheTtl", imageCacheTtl);
+        }
+        if (svgCacheMaxEntries < 0) {
+            throw new InvalidValueException("svgCacheMaxEntries", svgCacheMaxEntries);
+        }
+        if (svgCacheTtl < 0) {
+            throw new InvalidValueException("svgCacheTtl", svgCacheTtl);
+        }
+        if (pngCompressionLevel < 0 || pngCompressionLevel > 9) {
+            throw new InvalidValueException("pngCompressionLevel", pngCompressionLevel);
+        }
+        if (pngMaxParallelConversions < 1) {
+            throw new InvalidValueException("pngMaxParallelConversions", pngMaxParallelConversions);
+        }
+
         for (Key key : getKeys()) {
             key.validate();
         }
@@ -306,26 +387,121 @@ public class Config {
         return scales.last();
     }
 
-    public synchronized OrderedResultsExecutor<MapTileTask> getMapRenderingExecutor() {
-        if (mapRenderingExecutor == null && globalParallelFetches > 1) {
-            mapRenderingExecutor = new OrderedResultsExecutor<MapTileTask>(globalParallelFetches, "tilesReader");
-            mapRenderingExecutor.start();
+    /**
+     * @return The scheduler used to fetch the map chunks or null if the
+     *         parallel loading is disabled.
+     */
+    public synchronized TileScheduler getTileScheduler() {
+        if (tileScheduler == null && globalParallelFetches > 1) {
+            tileScheduler = new TileScheduler(globalParallelFetches, perHostParallelFetches);
+            tileScheduler.start();
+        }
+        return tileScheduler;
+    }
+
+    /**
+     * @return The statistics of the parallel tile fetching, per host. Empty
+     *         if nothing was fetched in parallel yet.
+     */
+    public synchronized List<TileScheduler.HostStats> getTileStats() {
+        if (tileScheduler == null) {
+            return Collections.emptyList();
+        }
+        return tileScheduler.getStats();
+    }
+
+    /**
+     * @return The layer doing all the HTTP requests to the map servers.
+     */
+    public synchronized HttpFetcher getHttpFetcher() {
+        if (httpFetcher == null) {
+            httpFetcher = new HttpFetcher(this);
+        }
+        return httpFetcher;
+    }
+
+    /**
+     * @return The cache of map tiles on the disk or null if it is not enabled.
+     */
+    public synchronized DiskTileCache getDiskTileCache() {
+        if (diskTileCache == null && diskCacheDir != null && diskCacheMaxSize > 0) {
+            diskTileCache = DiskTileCache.getInstance(new File(diskCacheDir), diskCacheMaxSize * 1024L * 1024L, diskCacheTtl * 1000L);
+        }
+        return diskTileCache;
+    }
+
+    /**
+     * @return The in memory cache of decoded images or null if it is disabled.
+     */
+    public synchronized ImageCache getImageCache() {
+        if (imageCache == null && imageCacheMaxSize > 0) {
+            imageCache = new ImageCache(imageCacheMaxSize * 1024L * 1024L, imageCacheTtl * 1000L);
+        }
+        return imageCache;
+    }
+
+    /**
+     * @return The in memory cache of parsed SVG documents or null if it is disabled.
+     */
+    public synchronized SvgCache getSvgCache() {
+        if (svgCache == null && svgCacheMaxEntries > 0) {
+            svgCache = new SvgCache(svgCacheMaxEntries, svgCacheTtl * 1000L);
+        }
+        return svgCache;
+    }
+
+    /**
+     * @return The pool of parsed background PDFs.
+     */
+    public synchronized PdfReaderPool getPdfReaderPool() {
+        if (pdfReaderPool == null) {
+            pdfReaderPool = new PdfReaderPool();
+        }
+        return pdfReaderPool;
+    }
+
+    /**
+     * @return The semaphore limiting the number of PDF to PNG conversions running at the same time.
+     */
+    public synchronized Semaphore getPngConversions() {
+        if (pngConversions == null) {
+            pngConversions = new Semaphore(pngMaxParallelConversions, true);
+        }
+        return pngConversions;
+    }
+
+    /**
+     * @return The threads rasterizing the pages of the image outputs, one per CPU.
+     */
+    public synchronized ExecutorService getRasterizers() {
+        if (rasterizers == null) {
+            final AtomicInteger threadNumber = new AtomicInteger(0);
+            rasterizers = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "pdfToImage-" + threadNumber.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
         }
-        return mapRenderingExecutor;
+        return rasterizers;
     }
 
     /**
      * Stop all the threads and stuff used for this config.
      */
     public synchronized void stop() {
-        WMSServerInfo.clearCache();
-        if (mapRenderingExecutor != null) {
-            mapRenderingExecutor.stop();
+        if (tileScheduler != null) {
+            tileScheduler.stop();
         }
 
         if(connectionManager != null) {
             connectionManager.shutdown();
         }
+
+        if (rasterizers != null) {
+            rasterizers.shutdownNow();
+        }
     }
 
     public void setGlobalParallelFetches(int globalParallelFetches) {
@@ -385,6 +561,94 @@ public class Config {
         return tilecacheMerging;
     }
 
+    public void setDiskCacheDir(String diskCacheDir) {
+        this.diskCacheDir = diskCacheDir;
+    }
+
+    public void setDiskCacheMaxSize(int diskCacheMaxSize) {
+        this.diskCacheMaxSize = diskCacheMaxSize;
+    }
+
+    public void setDiskCacheTtl(int diskCacheTtl) {
+        this.diskCacheTtl = diskCacheTtl;
+    }
+
+    public void setTileBufferMaxSize(int tileBufferMaxSize) {
+        this.tileBufferMaxSize = tileBufferMaxSize;
+    }
+
+    /**
+     * @return The maximum size, in bytes, of the tiles read but not rendered yet, per map.
+     */
+    public long getTileBufferMaxSize() {
+        return tileBufferMaxSize * 1024L * 1024L;
+    }
+
+    public void setCapabilitiesTtl(int capabilitiesTtl) {
+        this.capabilitiesTtl = capabilitiesTtl;
+    }
+
+    /**
+     * @return The time, in milliseconds, the WMS capabilities are used before being reloaded (0 for forever).
+     */
+    public long getCapabilitiesTtl() {
+        return capabilitiesTtl * 1000L;
+    }
+
+    public void setCapabilitiesErrorTtl(int capabilitiesErrorTtl) {
+        this.capabilitiesErrorTtl = capabilitiesErrorTtl;
+    }
+
+    /**
+     * @return The time, in milliseconds, before retrying to load WMS capabilities that failed.
+     */
+    public long getCapabilitiesErrorTtl() {
+        return capabilitiesErrorTtl * 1000L;
+    }
+
+    /**
+     * @return The file where the WMS capabilities are saved to survive a restart, or null if there is no disk cache.
+     */
+    public File getCapabilitiesSnapshotFile() {
+        return diskCacheDir != null ? new File(diskCacheDir, "wms-capabilities.dat") : null;
+    }
+
+    public void setDnsCacheTtl(int dnsCacheTtl) {
+        this.dnsCacheTtl = dnsCacheTtl;
+    }
+
+    public void setDnsCacheErrorTtl(int dnsCacheErrorTtl) {
+        this.dnsCacheErrorTtl = dnsCacheErrorTtl;
+    }
+
+    public void setImageCacheMaxSize(int imageCacheMaxSize) {
+        this.imageCacheMaxSize = imageCacheMaxSize;
+    }
+
+    public void setImageCacheTtl(int imageCacheTtl) {
+        this.imageCacheTtl = imageCacheTtl;
+    }
+
+    public void setSvgCacheMaxEntries(int svgCacheMaxEntries) {
+        this.svgCacheMaxEntries = svgCacheMaxEntries;
+    }
+
+    public void setSvgCacheTtl(int svgCacheTtl) {
+        this.svgCacheTtl = svgCacheTtl;
+    }
+
+    public void setPngCompressionLevel(int pngCompressionLevel) {
+        this.pngCompressionLevel = pngCompressionLevel;
+    }
+
+    public int getPngCompressionLevel() {
+        return pngCompressionLevel;
+    }
+
+    public void setPngMaxParallelConversions(int pngMaxParallelConversions) {
+        this.pngMaxParallelConversions = pngMaxParallelConversions;
+    }
+
     public void setSocketTimeout(int socketTimeout) {
         this.socketTimeout = socketTimeout;
     }
@@ -393,6 +657,17 @@ public class Config {
         this.connectionTimeout = connectionTimeout;
     }
 
+    /**
+     * @return The maximum time, in milliseconds, a request to a map server
+     *         can take (connection and reading), 0 for no limit.
+     */
+    public long getFetchTimeout() {
+        if (socketTimeout == 0 || connectionTimeout == 0) {
+            return 0;
+        }
+        return (long) socketTimeout + connectionTimeout;
+    }
+
     public String getOutputFilename(String layoutName) {
         Layout layout = layouts.get(layoutName);
         String name = null;
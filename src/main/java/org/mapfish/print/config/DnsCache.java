@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.config;
+
+import org.apache.log4j.Logger;
+import org.mapfish.print.cache.SingleFlight;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cache of the DNS resolutions done to check the hosts allowed by the
+ * configuration.
+ * <p/>
+ * The unknown hosts are cached too, for a shorter time. When a resolution
+ * fails, the previous addresses of the host are kept once for that shorter
+ * time instead, so a flaky DNS server doesn't reject the hosts that were
+ * valid.
+ * Only one resolution at a time is done for a given host.
+ */
+public class DnsCache {
+    public static final Logger LOGGER = Logger.getLogger(DnsCache.class);
+
+    private final long ttl;
+    private final long errorTtl;
+
+    private final ConcurrentHashMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+    private final SingleFlight<String, Entry> lookups = new SingleFlight<String, Entry>();
+
+    /**
+     * @param ttl      How long, in milliseconds, the addresses of a host are kept
+     * @param errorTtl How long, in milliseconds, a failed resolution is kept
+     */
+    public DnsCache(long ttl, long errorTtl) {
+        this.ttl = ttl;
+        this.errorTtl = errorTtl;
+    }
+
+    /**
+     * Same as {@link InetAddress#getAllByName(String)}, but cached.
+     */
+    public InetAddress[] getAllByName(final String host) throws UnknownHostException {
+        if (host == null) {
+            // the loopback address
+            return InetAddress.getAllByName(null);
+        }
+        Entry entry = entries.get(host);
+        if (entry == null || entry.expiresAt <= System.currentTimeMillis()) {
+            try {
+                entry = lookups.get(host, new Callable<Entry>() {
+                    public Entry call() {
+                        return resolve(host);
+                    }
+                });
+            } catch (RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                // resolve doesn't throw checked exceptions
+                throw new RuntimeException(e);
+            }
+        }
+        if (entry.addresses == null) {
+            throw new UnknownHostException(host);
+        }
+        return entry.addresses;
+    }
+
+    private Entry resolve(String host) {
+        final long now = System.currentTimeMillis();
+        Entry result;
+        try {
+            result = new Entry(InetAddress.getAllByName(host), now + ttl, false);
+        } catch (UnknownHostException e) {
+            final Entry previous = entries.get(host);
+            if (previous != null && previous.addresses != null && !previous.stale) {
+                LOGGER.info("Cannot resolve " + host + ", keeping the previous addresses");
+                result = new Entry(previous.addresses, now + errorTtl, true);
+            } else {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Unknown host: " + host);
+                }
+                result = new Entry(null, now + errorTtl, false);
+            }
+        }
+        entries.put(host, result);
+        return result;
+    }
+
+    public void clear() {
+        entries.clear();
+    }
+
+    private static class Entry {
+        /**
+         * Null if the host is unknown.
+         */
+        private final InetAddress[] addresses;
+        private final long expiresAt;
+
+        /**
+         * True if the addresses are kept from a previous resolution.
+         */
+        private final boolean stale;
+
+        private Entry(InetAddress[] addresses, long expiresAt, boolean stale) {
+            this.addresses = addresses;
+            this.expiresAt = expiresAt;
+            this.stale = stale;
+        }
+    }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.config;
+
+import org.apache.log4j.Logger;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.MalformedURLException;
+import java.net.SocketException;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The hosts of the configuration, prepared to check quickly if an URI is
+ * allowed: the host name is resolved only once and the address blocks of
+ * all the {@link InetHostMatcher} are in a trie.
+ */
+class HostAuthorizer {
+    public static final Logger LOGGER = Logger.getLogger(HostAuthorizer.class);
+
+    /**
+     * The matchers that are not in the trie, checked one by one.
+     */
+    private final List<HostMatcher> others = new CopyOnWriteArrayList<HostMatcher>();
+
+    private final AddressTrie<InetHostMatcher> trie = new AddressTrie<InetHostMatcher>();
+    private boolean trieEmpty = true;
+
+    /**
+     * The matchers whose addresses could not be resolved yet.
+     */
+    private final List<InetHostMatcher> unresolved = new ArrayList<InetHostMatcher>();
+    private final long retryDelay;
+    private long retryAt = 0;
+
+    public HostAuthorizer(List<HostMatcher> hosts) {
+        this(hosts, 0);
+    }
+
+    /**
+     * The matchers whose addresses cannot be resolved are ignored until
+     * a resolution succeeds, they would make every check fail.
+     *
+     * @param retryDelay The time, in milliseconds, between two resolutions
+     *                   of the unresolved matchers
+     */
+    public HostAuthorizer(List<HostMatcher> hosts, long retryDelay) {
+        this.retryDelay = retryDelay;
+        for (int i = 0; i < hosts.size(); i++) {
+            final HostMatcher matcher = hosts.get(i);
+            if (matcher instanceof InetHostMatcher) {
+                final InetHostMatcher inetMatcher = (InetHostMatcher) matcher;
+                try {
+                    if (inetMatcher.addTo(trie)) {
+                        trieEmpty = false;
+                        continue;
+                    }
+                } catch (IOException e) {
+                    LOGGER.warn("Cannot resolve the addresses of " + matcher + ", will retry: " + e.getMessage());
+                    unresolved.add(inetMatcher);
+                    continue;
+                }
+            }
+            others.add(matcher);
+        }
+        retryAt = System.currentTimeMillis() + retryDelay;
+    }
+
+    public boolean validate(URI uri, DnsCache dnsCache) throws UnknownHostException, SocketException, MalformedURLException {
+        retryUnresolved();
+        for (int i = 0; i < others.size(); i++) {
+            final HostMatcher matcher = others.get(i);
+            if (matcher.validate(uri, dnsCache)) {
+                logAccepted(uri, matcher);
+                return true;
+            }
+        }
+        if (trieEmpty) {
+            return false;
+        }
+
+        final InetAddress[] addresses;
+        try {
+            addresses = dnsCache.getAllByName(uri.getHost());
+        } catch (UnknownHostException ex) {
+            return false;
+        }
+        final List<InetHostMatcher> candidates = new ArrayList<InetHostMatcher>();
+        for (int i = 0; i < addresses.length; ++i) {
+            trie.findAll(addresses[i].getAddress(), candidates);
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            final InetHostMatcher matcher = candidates.get(i);
+            if (matcher.validatePortAndPath(uri)) {
+                logAccepted(uri, matcher);
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Tries again to resolve the matchers that failed. The ones resolved are
+     * checked one by one, the trie is not thread safe.
+     */
+    private synchronized void retryUnresolved() {
+        if (unresolved.isEmpty() || System.currentTimeMillis() < retryAt) {
+            return;
+        }
+        for (Iterator<InetHostMatcher> it = unresolved.iterator(); it.hasNext();) {
+            final InetHostMatcher matcher = it.next();
+            try {
+                matcher.addTo(new AddressTrie<InetHostMatcher>());
+                LOGGER.info("Addresses of " + matcher + " resolved");
+                others.add(matcher);
+                it.remove();
+            } catch (IOException e) {
+                LOGGER.debug("Still cannot resolve the addresses of " + matcher + ": " + e.getMessage());
+            }
+        }
+        retryAt = System.currentTimeMillis() + retryDelay;
+    }
+
+    private static void logAccepted(URI uri, HostMatcher matcher) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("URI [" + uri + "] accepted by: " + matcher);
+        }
+    }
+}
@@ -45,8 +45,24 @@ public abstract class HostMatcher {
 
     protected int port = -1;
     protected String pathRegex = null;
+    private volatile Pattern pathPattern = null;
 
     public boolean validate(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
+        return validatePortAndPath(uri);
+    }
+
+    /**
+     * Same as {@link #validate(URI)}, but the host names are resolved
+     * through the given cache.
+     */
+    public boolean validate(URI uri, DnsCache dnsCache) throws UnknownHostException, SocketException, MalformedURLException {
+        return validate(uri);
+    }
+
+    /**
+     * Checks only the port and the path, not the host.
+     */
+    protected final boolean validatePortAndPath(URI uri) throws MalformedURLException {
         int uriPort = uri.getPort();
         if (uriPort < 0) {
             uriPort = uri.toURL().getDefaultPort();
@@ -56,7 +72,12 @@ public abstract class HostMatcher {
         }
 
         if (pathRegex != null) {
-            Matcher matcher = Pattern.compile(pathRegex).matcher(uri.getPath());
+            Pattern pattern = pathPattern;
+            if (pattern == null) {
+                pattern = Pattern.compile(pathRegex);
+                pathPattern = pattern;
+            }
+            Matcher matcher = pattern.matcher(uri.getPath());
             if (!matcher.matches()) {
                 return false;
             }
@@ -70,6 +91,7 @@ public abstract class HostMatcher {
 
     public void setPathRegex(String pathRegex) {
         this.pathRegex = pathRegex;
+        pathPattern = null;
     }
 
     public abstract String toString();
@@ -33,10 +33,14 @@ public abstract class InetHostMatcher extends HostMatcher {
     protected byte[][] authorizedIPs = null;
 
     public boolean validate(URI uri) throws UnknownHostException, SocketException, MalformedURLException {
+        return validate(uri, null);
+    }
+
+    public boolean validate(URI uri, DnsCache dnsCache) throws UnknownHostException, SocketException, MalformedURLException {
         final InetAddress maskAddress = getMaskAddress();
         final InetAddress[] requestedIPs;
         try {
-            requestedIPs = InetAddress.getAllByName(uri.getHost());
+            requestedIPs = dnsCache != null ? dnsCache.getAllByName(uri.getHost()) : InetAddress.getAllByName(uri.getHost());
         } catch (UnknownHostException ex) {
             return false;
         }
@@ -48,7 +52,7 @@ public abstract class InetHostMatcher extends HostMatcher {
                 break;
             }
         }
-        return oneMatching && super.validate(uri);
+        return oneMatching && validatePortAndPath(uri);
     }
 
     private boolean isInAuthorized(InetAddress requestedIP, InetAddress mask) throws UnknownHostException, SocketException {
@@ -99,6 +103,31 @@ public abstract class InetHostMatcher extends HostMatcher {
 
     protected abstract InetAddress getMaskAddress() throws UnknownHostException;
 
+    /**
+     * Adds the authorized address blocks to the trie.
+     *
+     * @return False if the mask is not contiguous and cannot be put in a trie
+     * @throws UnknownHostException If the authorized addresses cannot be resolved
+     */
+    boolean addTo(AddressTrie<InetHostMatcher> trie) throws UnknownHostException, SocketException {
+        final InetAddress mask = getMaskAddress();
+        final byte[] maskBytes = mask != null ? mask.getAddress() : null;
+        final int maskLength = maskBytes != null ? AddressTrie.getPrefixLength(maskBytes) : -1;
+        // resolved even when not put in the trie, so an unknown host fails here
+        final byte[][] authorizedIPs = getAuthorizedIPs(mask);
+        if (maskBytes != null && maskLength < 0) {
+            return false;
+        }
+        for (int i = 0; i < authorizedIPs.length; ++i) {
+            final byte[] authorizedIP = authorizedIPs[i];
+            // like in mask(), the addresses of another family are not masked
+            final int prefixLength = maskBytes != null && maskBytes.length == authorizedIP.length ?
+                    maskLength : authorizedIP.length * 8;
+            trie.add(authorizedIP, prefixLength, this);
+        }
+        return true;
+    }
+
     protected void buildMaskedAuthorizedIPs(InetAddress[] ips) throws UnknownHostException {
         final InetAddress maskAddress = getMaskAddress();
         authorizedIPs = new byte[ips.length][];
@@ -20,8 +20,8 @@
 package org.mapfish.print.config.layout;
 
 import com.lowagie.text.Font;
-import com.lowagie.text.FontFactory;
 import com.lowagie.text.pdf.BaseFont;
+import org.mapfish.print.FontCache;
 import org.mapfish.print.config.ColorWrapper;
 import org.mapfish.print.InvalidValueException;
 
@@ -67,7 +67,7 @@ public abstract class FontBlock extends Block {
     }
 
     protected Font getPdfFont() {
-        Font result = FontFactory.getFont(font, fontEncoding, (float) getFontSize());
+        Font result = FontCache.getFont(font, fontEncoding, (float) getFontSize());
         result.setColor(getFontColorVal());
         return result;
     }
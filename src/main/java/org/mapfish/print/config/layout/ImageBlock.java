@@ -22,16 +22,12 @@ package org.mapfish.print.config.layout;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Rectangle;
 import com.lowagie.text.pdf.PdfContentByte;
-import org.apache.batik.ext.awt.RenderingHintsKeyExt;
-import org.apache.batik.transcoder.TranscoderInput;
-import org.apache.batik.transcoder.print.PrintTranscoder;
+import com.lowagie.text.pdf.PdfTemplate;
 import org.mapfish.print.*;
 import org.mapfish.print.utils.PJsonObject;
 
-import java.awt.*;
 import java.awt.geom.AffineTransform;
-import java.awt.print.PageFormat;
-import java.awt.print.Paper;
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 
@@ -66,20 +62,15 @@ public class ImageBlock extends Block {
     }
 
     private void drawSVG(RenderingContext context, PJsonObject params, PdfElement paragraph, URI url) throws DocumentException {
-        final TranscoderInput ti = new TranscoderInput(url.toString());
-        final PrintTranscoder pt = new PrintTranscoder();
-        pt.addTranscodingHint(PrintTranscoder.KEY_SCALE_TO_PAGE, Boolean.TRUE);
-        pt.transcode(ti, null);
-
-        final Paper paper = new Paper();
-        paper.setSize(maxWidth, maxHeight);
-        paper.setImageableArea(0, 0, maxWidth, maxHeight);
+        final PdfTemplate template;
+        try {
+            template = PDFUtils.getSvgTemplate(context, url);
+        } catch (IOException e) {
+            throw new InvalidValueException("url", url.toString(), e);
+        }
         final float rotation = getRotationRadian(context, params);
 
-        final PageFormat pf = new PageFormat();
-        pf.setPaper(paper);
-
-        final SvgDrawer drawer = new SvgDrawer(context.getCustomBlocks(), rotation, pt, pf);
+        final SvgDrawer drawer = new SvgDrawer(context.getCustomBlocks(), rotation, template);
 
         //register a drawer that will do the job once the position of the map is known
         paragraph.add(PDFUtils.createPlaceholderTable(maxWidth, maxHeight, spacingAfter, drawer, align, context.getCustomBlocks()));
@@ -105,39 +96,27 @@ public class ImageBlock extends Block {
 
     private class SvgDrawer extends ChunkDrawer {
         private final float rotation;
-        private final PrintTranscoder pt;
-        private final PageFormat pf;
+        private final PdfTemplate template;
 
-        public SvgDrawer(PDFCustomBlocks customBlocks, float rotation, PrintTranscoder pt, PageFormat pf) {
+        public SvgDrawer(PDFCustomBlocks customBlocks, float rotation, PdfTemplate template) {
             super(customBlocks);
             this.rotation = rotation;
-            this.pt = pt;
-            this.pf = pf;
+            this.template = template;
         }
 
         public void renderImpl(Rectangle rectangle, PdfContentByte dc) {
-            dc.saveState();
-            Graphics2D g2 = null;
-            try {
-                final AffineTransform t = AffineTransform.getTranslateInstance(rectangle.getLeft(), rectangle.getBottom());
-                if (rotation != 0.0F) {
-                    t.rotate(rotation, maxWidth / 2.0, maxHeight / 2.0);
-                }
-                dc.transform(t);
-                g2 = dc.createGraphics((float) maxWidth, (float) maxHeight);
-
-                //avoid a warning from Batik
-                System.setProperty("org.apache.batik.warn_destination", "false");
-                g2.setRenderingHint(RenderingHintsKeyExt.KEY_TRANSCODING, RenderingHintsKeyExt.VALUE_TRANSCODING_PRINTING);
-                g2.setRenderingHint(RenderingHintsKeyExt.KEY_AVOID_TILE_PAINTING, RenderingHintsKeyExt.VALUE_AVOID_TILE_PAINTING_ON);
-
-                pt.print(g2, pf, 0);
-            } finally {
-                if (g2 != null) {
-                    g2.dispose();
-                }
-                dc.restoreState();
+            final float scale = PDFUtils.getScaleToFit(template.getWidth(), template.getHeight(), maxWidth, maxHeight);
+            final AffineTransform t = AffineTransform.getTranslateInstance(rectangle.getLeft(), rectangle.getBottom());
+            if (rotation != 0.0F) {
+                t.rotate(rotation, maxWidth / 2.0, maxHeight / 2.0);
             }
+            //at the top left of the block
+            t.translate(0, maxHeight - template.getHeight() * scale);
+            t.scale(scale, scale);
+            final double[] matrix = new double[6];
+            t.getMatrix(matrix);
+            dc.addTemplate(template, (float) matrix[0], (float) matrix[1], (float) matrix[2], (float) matrix[3],
+                    (float) matrix[4], (float) matrix[5]);
         }
 
     }
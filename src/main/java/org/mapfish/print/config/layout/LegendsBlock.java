@@ -22,18 +22,27 @@ package org.mapfish.print.config.layout;
 import java.io.IOException;
 import java.net.URI;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import org.apache.log4j.Logger;
+import org.mapfish.print.FontCache;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
+import org.mapfish.print.map.TileScheduler;
 import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
 
 import com.lowagie.text.Chunk;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Font;
-import com.lowagie.text.FontFactory;
+import com.lowagie.text.Image;
 import com.lowagie.text.Paragraph;
 import com.lowagie.text.pdf.BaseFont;
 import com.lowagie.text.pdf.PdfPCell;
@@ -97,6 +106,8 @@ public class LegendsBlock extends Block {
         private double currentCellHeight = 0;
         // the current column height 
         private double currentColumnHeight = 0;
+        // the icons loaded in advance, per URL
+        private final Map<String, IconLoad> prefetched = new HashMap<String, IconLoad>();
 
         /**
          * Construct
@@ -125,6 +136,7 @@ public class LegendsBlock extends Block {
             // create the legend
             PJsonArray legends = context.getGlobalParams().optJSONArray("legends");
             if (legends != null && legends.size() > 0) {
+                prefetchIcons(legends);
                 for (int i = 0; i < legends.size(); ++i) {
                     PJsonObject layer = legends.getJSONObject(i);
                     createLine(0.0, layer, layerPdfFont, i == 0 ? 0 : layerSpace, true);
@@ -227,7 +239,7 @@ public class LegendsBlock extends Block {
             result.setFont(pdfFont);
             result.add(name);
             if (name.trim().length() > 0) {
-                float width = pdfFont.getBaseFont().getWidthPoint(name, pdfFont.getSize());
+                float width = FontCache.getWidthPoint(pdfFont.getBaseFont(), name, pdfFont.getSize());
                 if (escapeOrphanTitle) {
                     currentCellHeight += pdfFont.getSize();
                     cellWidth = Math.max(cellWidth, width);
@@ -260,13 +272,7 @@ public class LegendsBlock extends Block {
         private Paragraph createIcon(double indent, float lineSpace,
                 final String icon, Paragraph result) throws DocumentException {
             try {
-                Chunk iconChunk = null;
-                if (icon.indexOf("image%2Fsvg%2Bxml") != -1) { // TODO: make this cleaner
-                    iconChunk = PDFUtils.createImageChunkFromSVG(context, icon, maxIconWidth, maxIconHeight);
-                } else {
-                    iconChunk = PDFUtils.createImageChunk(context, maxIconWidth, maxIconHeight, scale, 
-                            URI.create(icon), 0f);
-                }
+                Chunk iconChunk = getIconChunk(icon);
                 result.add(iconChunk);
                 if (!inline) {
                     currentCellHeight += iconChunk.getImage().getPlainHeight() + lineSpace;
@@ -285,6 +291,106 @@ public class LegendsBlock extends Block {
             return result;
         }
 
+        /**
+         * Loads all the icons of the legend in parallel with the threads
+         * fetching the map tiles, so the legend waits only for the slowest
+         * icon and not for the sum of all of them. The icons not loaded within
+         * the fetch timeout of the configuration are loaded when used.
+         */
+        private void prefetchIcons(PJsonArray legends) {
+            final TileScheduler scheduler = context.getConfig().getTileScheduler();
+            if (scheduler == null) {
+                return;
+            }
+            final Set<String> icons = new LinkedHashSet<String>();
+            for (int i = 0; i < legends.size(); ++i) {
+                PJsonObject layer = legends.getJSONObject(i);
+                collectIcons(layer, icons);
+                PJsonArray classes = layer.optJSONArray("classes");
+                if (classes != null) {
+                    for (int j = 0; j < classes.size(); ++j) {
+                        collectIcons(classes.getJSONObject(j), icons);
+                    }
+                }
+            }
+            if (icons.size() < 2) {
+                return;
+            }
+
+            final CountDownLatch latch = new CountDownLatch(icons.size());
+            for (final String icon : icons) {
+                final IconLoad load = new IconLoad();
+                prefetched.put(icon, load);
+                scheduler.schedule(this, getHost(icon), new Runnable() {
+                    public void run() {
+                        try {
+                            load.image = loadIcon(icon);
+                        } catch (Throwable e) {
+                            load.error = e;
+                        } finally {
+                            load.done = true;
+                            latch.countDown();
+                        }
+                    }
+                });
+            }
+            try {
+                final long timeout = context.getConfig().getFetchTimeout();
+                if (timeout == 0) {
+                    latch.await();
+                } else if (!latch.await(timeout, TimeUnit.MILLISECONDS)) {
+                    LOGGER.warn("Timeout while loading the legend icons (" + latch.getCount() + " of " +
+                            icons.size() + " not loaded after " + timeout + "ms), loading the others directly");
+                    for (Iterator<IconLoad> it = prefetched.values().iterator(); it.hasNext();) {
+                        if (!it.next().done) {
+                            it.remove();
+                        }
+                    }
+                }
+            } catch (InterruptedException e) {
+                // the icons not loaded yet will be loaded when used
+                Thread.currentThread().interrupt();
+                prefetched.clear();
+            }
+        }
+
+        private void collectIcons(PJsonObject node, Set<String> icons) {
+            final String icon = node.optString("icon");
+            if (icon != null) {
+                icons.add(icon);
+            }
+            final PJsonArray iconItems = node.optJSONArray("icons");
+            if (iconItems != null) {
+                for (int i = 0; i < iconItems.size(); ++i) {
+                    icons.add(iconItems.getString(i));
+                }
+            }
+        }
+
+        private String getHost(String icon) {
+            try {
+                return URI.create(icon).getHost();
+            } catch (IllegalArgumentException e) {
+                return null;
+            }
+        }
+
+        private Chunk getIconChunk(String icon) throws IOException, DocumentException {
+            final IconLoad load = prefetched.get(icon);
+            final Image image = load != null ? load.get() : loadIcon(icon);
+            // the same icon can be used more than once
+            return new Chunk(load != null ? Image.getInstance(image) : image, 0f, 0f, true);
+        }
+
+        private Image loadIcon(String icon) throws IOException, DocumentException {
+            if (icon.indexOf("image%2Fsvg%2Bxml") != -1) { // TODO: make this cleaner
+                return PDFUtils.createImageFromSVG(context, icon, maxIconWidth, maxIconHeight);
+            } else {
+                return PDFUtils.createImage(context, maxIconWidth, maxIconHeight, scale,
+                        URI.create(icon), 0f);
+            }
+        }
+
         /**
          * Add an icon in the column as a cell.
          * @param indent left indentation
@@ -325,6 +431,29 @@ public class LegendsBlock extends Block {
         }
     }
 
+    /**
+     * The result of the loading of an icon, written by a tile thread before
+     * it counts down the latch the renderer waits on.
+     */
+    private static class IconLoad {
+        private Image image;
+        private Throwable error;
+        private volatile boolean done = false;
+
+        private Image get() throws IOException, DocumentException {
+            if (error instanceof IOException) {
+                throw (IOException) error;
+            } else if (error instanceof DocumentException) {
+                throw (DocumentException) error;
+            } else if (error instanceof RuntimeException) {
+                throw (RuntimeException) error;
+            } else if (error instanceof Error) {
+                throw (Error) error;
+            }
+            return image;
+        }
+    }
+
     public void setMaxWidth(double maxWidth) {
         this.maxWidth = maxWidth;
         if (maxWidth < 0.0) throw new InvalidValueException("maxWidth", maxWidth);
@@ -374,11 +503,11 @@ public class LegendsBlock extends Block {
     }
 
     protected Font getLayerPdfFont() {
-        return FontFactory.getFont(layerFont, fontEncoding, (float) layerFontSize);
+        return FontCache.getFont(layerFont, fontEncoding, (float) layerFontSize);
     }
 
     protected Font getClassPdfFont() {
-        return FontFactory.getFont(classFont, fontEncoding, (float) classFontSize);
+        return FontCache.getFont(classFont, fontEncoding, (float) classFontSize);
     }
 
     public void setLayerSpace(double layerSpace) {
@@ -36,10 +36,10 @@ import org.mapfish.print.utils.PJsonObject;
  * See http://trac.mapfish.org/trac/mapfish/wiki/PrintModuleServer#Mapblock
  */
 public class MapBlock extends Block {
-    private String height = null;
-    private String width = null;
-    private String absoluteX = null;
-    private String absoluteY = null;
+    private LayoutExpression height = null;
+    private LayoutExpression width = null;
+    private LayoutExpression absoluteX = null;
+    private LayoutExpression absoluteY = null;
     private double overviewMap = Double.NaN;
 
     /**
@@ -153,7 +153,7 @@ public class MapBlock extends Block {
 
     public void setHeight(String height) {
         //this.height = Integer.toString(height);a
-        this.height = height;
+        this.height = LayoutExpression.compile(height);
     }
 
     public float getHeight(RenderingContext context, PJsonObject params) {
@@ -162,7 +162,7 @@ public class MapBlock extends Block {
 
     public void setWidth(String width) {
         //this.width = Integer.toString(width);
-        this.width = width;
+        this.width = LayoutExpression.compile(width);
     }
 
     public float getWidth(RenderingContext context, PJsonObject params) {
@@ -175,7 +175,7 @@ public class MapBlock extends Block {
     }
 
     public void setAbsoluteX(String absoluteX) {
-        this.absoluteX = absoluteX;
+        this.absoluteX = LayoutExpression.compile(absoluteX);
     }
 
     public float getAbsoluteX(RenderingContext context, PJsonObject params) {
@@ -184,7 +184,7 @@ public class MapBlock extends Block {
     }
 
     public void setAbsoluteY(String absoluteY) {
-        this.absoluteY = absoluteY;
+        this.absoluteY = LayoutExpression.compile(absoluteY);
     }
 
     public float getAbsoluteY(RenderingContext context, PJsonObject params) {
@@ -202,7 +202,7 @@ public class MapBlock extends Block {
         json.object();
         double w; //int w;
         try {
-        	w = Math.round(Double.parseDouble(width)); //w = Integer.parseInt(width);
+        	w = Math.round(Double.parseDouble(width.getSource())); //w = Integer.parseInt(width);
         } catch (NumberFormatException e) {
             w = 0;
         }
@@ -210,7 +210,7 @@ public class MapBlock extends Block {
 
         double h; //int h;
         try {
-        	h = Math.round(Double.parseDouble(height)); //h = Integer.parseInt(height);
+        	h = Math.round(Double.parseDouble(height.getSource())); //h = Integer.parseInt(height);
         } catch (NumberFormatException e) {
             h = 0;
         }
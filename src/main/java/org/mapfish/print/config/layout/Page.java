@@ -21,6 +21,7 @@ package org.mapfish.print.config.layout;
 
 import com.lowagie.text.*;
 import org.mapfish.print.InvalidValueException;
+import org.mapfish.print.LayoutExpression;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.utils.PJsonObject;
@@ -33,14 +34,14 @@ import java.util.List;
  */
 public class Page {
     protected List<Block> items;
-    private String pageSize = "A4";
+    private LayoutExpression pageSize = LayoutExpression.compile("A4");
     private HeaderFooter header = null;
     private HeaderFooter footer = null;
-    private String marginLeft = "40";
-    private String marginRight = "40";
-    private String marginTop = "20";
-    private String marginBottom = "20";
-    private String backgroundPdf = null;
+    private LayoutExpression marginLeft = LayoutExpression.compile("40");
+    private LayoutExpression marginRight = LayoutExpression.compile("40");
+    private LayoutExpression marginTop = LayoutExpression.compile("20");
+    private LayoutExpression marginBottom = LayoutExpression.compile("20");
+    private LayoutExpression backgroundPdf = null;
     private boolean landscape = false;
 
     public void render(PJsonObject params, RenderingContext context) throws DocumentException {
@@ -93,7 +94,7 @@ public class Page {
     }
 
     public void setPageSize(String pageSize) {
-        this.pageSize = pageSize;
+        this.pageSize = LayoutExpression.compile(pageSize);
         try {
             PageSize.getRectangle(pageSize);
         } catch (RuntimeException e) {
@@ -126,23 +127,23 @@ public class Page {
     }
 
     public void setMarginLeft(String marginLeft) {
-        this.marginLeft = marginLeft;
+        this.marginLeft = LayoutExpression.compile(marginLeft);
     }
 
     public void setMarginRight(String marginRight) {
-        this.marginRight = marginRight;
+        this.marginRight = LayoutExpression.compile(marginRight);
     }
 
     public void setMarginTop(String marginTop) {
-        this.marginTop = marginTop;
+        this.marginTop = LayoutExpression.compile(marginTop);
     }
 
     public void setMarginBottom(String marginBottom) {
-        this.marginBottom = marginBottom;
+        this.marginBottom = LayoutExpression.compile(marginBottom);
     }
 
     public void setBackgroundPdf(String backgroundPdf) {
-        this.backgroundPdf = backgroundPdf;
+        this.backgroundPdf = LayoutExpression.compile(backgroundPdf);
     }
 
     public void setLandscape(boolean landscape) {
@@ -22,14 +22,14 @@ package org.mapfish.print.map;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.pdf.PdfContentByte;
 import org.mapfish.print.RenderingContext;
-import org.pvalsecc.concurrent.OrderedResultsExecutor;
 
 import java.io.IOException;
+import java.net.URI;
 
 /**
  * Task for loading and rendering a tile.
  */
-public abstract class MapTileTask implements OrderedResultsExecutor.Task<MapTileTask> {
+public abstract class MapTileTask {
     /**
      * When not null, we had an exception in the reading.
      */
@@ -52,6 +52,27 @@ public abstract class MapTileTask implements OrderedResultsExecutor.Task<MapTile
         return false;
     }
 
+    /**
+     * The URI read by this task. Used to limit the number of tasks reading
+     * from the same host at the same time.
+     *
+     * @return null if the task doesn't read anything from the network
+     */
+    public URI getUri() {
+        return null;
+    }
+
+    /**
+     * The memory used by what was read until {@link #renderOnPdf} is called.
+     * Used to throttle the reading when too many tiles are waiting to be
+     * rendered.
+     *
+     * @return An estimation, in bytes
+     */
+    public long getBufferedSize() {
+        return 0;
+    }
+
     /**
      * Do the reading.
      * <p/>
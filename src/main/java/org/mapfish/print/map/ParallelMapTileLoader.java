@@ -21,9 +21,15 @@ package org.mapfish.print.map;
 
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.pdf.PdfContentByte;
+import org.apache.log4j.Logger;
+import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
 import org.pvalsecc.concurrent.BlockingSimpleTarget;
-import org.pvalsecc.concurrent.OrderedResultsExecutor;
+
+import java.net.URI;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.Map;
 
 /**
  * An instance of this class is in charge of loading in parallel the tiles of a
@@ -33,18 +39,25 @@ import org.pvalsecc.concurrent.OrderedResultsExecutor;
  * the shared resources. One of the big ones is the DirectContent (dc) or the
  * PDFWriter. For those, a lock on context.getPdfLock() is used.
  * <p/>
- * This class uses a global {@link org.pvalsecc.concurrent.OrderedResultsExecutor} to
- * do the things in // and a {@link org.pvalsecc.concurrent.BlockingSimpleTarget} to
- * know when everything is finished.
+ * This class uses the global {@link TileScheduler} to do the things in //,
+ * renders the results in the order the tasks were added and uses a
+ * {@link org.pvalsecc.concurrent.BlockingSimpleTarget} to know when everything
+ * is finished.
+ * <p/>
+ * The tiles read before the ones added before them are kept until they can be
+ * rendered. When what they hold goes over the configured budget, no new tile
+ * is given to the scheduler until the buffer is drained.
  */
-public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultCollector<MapTileTask> {
+public class ParallelMapTileLoader {
+    public static final Logger LOGGER = Logger.getLogger(ParallelMapTileLoader.class);
+
     private final PdfContentByte dc;
     private RenderingContext context;
 
     /**
-     * Reference on the global executor to use.
+     * Reference on the global scheduler to use.
      */
-    private final OrderedResultsExecutor<MapTileTask> executor;
+    private final TileScheduler scheduler;
 
     /**
      * Target used to know when all the tiles are read and rendered.
@@ -56,8 +69,32 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
      */
     private int nbTiles = 0;
 
+    /**
+     * The tasks that are read, but cannot be rendered yet because a task
+     * added before is not finished. Key is the order of the task.
+     */
+    private final Map<Integer, MapTileTask> finished = new HashMap<Integer, MapTileTask>();
+    private int nextToRender = 0;
+
+    /**
+     * True when a thread is rendering the finished tasks.
+     */
+    private boolean draining = false;
+
+    /**
+     * The tasks not yet given to the scheduler because the buffer is full.
+     */
+    private final LinkedList<PendingTask> pending = new LinkedList<PendingTask>();
+
+    /**
+     * Sum of the {@link MapTileTask#getBufferedSize()} of the finished tasks.
+     */
+    private long bufferedBytes = 0;
+    private final long maxBufferedBytes;
+
     public ParallelMapTileLoader(RenderingContext context, PdfContentByte dc) {
-        executor = context.getConfig().getMapRenderingExecutor();
+        scheduler = context.getConfig().getTileScheduler();
+        maxBufferedBytes = context.getConfig().getTileBufferMaxSize();
         this.dc = dc;
         this.context = context;
     }
@@ -65,14 +102,23 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
     /**
      * Schedule a tile to be loaded and rendered using the given task.
      */
-    public void addTileToLoad(MapTileTask task) {
-        nbTiles++;
-        if (executor != null) {
-            executor.addTask(task, this);
+    public void addTileToLoad(final MapTileTask task) {
+        final int order = nbTiles++;
+        if (scheduler != null && !(task instanceof MapTileTask.RenderOnly)) {
+            final URI uri = task.getUri();
+            synchronized (finished) {
+                pending.addLast(new PendingTask(uri != null ? uri.getHost() : null, new Runnable() {
+                    public void run() {
+                        task.process();
+                        completed(order, task);
+                    }
+                }));
+            }
+            schedulePending();
         } else {
-            //no parallel loading... do it right away
+            //no parallel loading or nothing to load... do it right away
             task.process();
-            handle(task);
+            completed(order, task);
         }
     }
 
@@ -82,6 +128,74 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
     public void waitForCompletion() {
         target.setTarget(nbTiles);
         target.waitForCompletion();
+        if (scheduler != null && LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Tile fetching statistics: " + scheduler.getStats());
+            LOGGER.debug("Shared image requests: " + PDFUtils.getNbHttpFetches() + " fetched, " +
+                    PDFUtils.getNbHttpAttached() + " attached to a running request");
+        }
+    }
+
+    /**
+     * Called when a task is read. Renders it if all the tasks added before are
+     * rendered, otherwise it will be rendered by the thread finishing the
+     * last of them.
+     */
+    private void completed(int order, MapTileTask task) {
+        synchronized (finished) {
+            finished.put(order, task);
+            bufferedBytes += task.getBufferedSize();
+            if (draining) {
+                return;
+            }
+            draining = true;
+        }
+
+        while (true) {
+            final MapTileTask next;
+            synchronized (finished) {
+                next = finished.remove(nextToRender);
+                if (next == null) {
+                    draining = false;
+                    break;
+                }
+                nextToRender++;
+                bufferedBytes -= next.getBufferedSize();
+            }
+            try {
+                handle(next);
+            } catch (RuntimeException e) {
+                context.addError(e);
+            }
+        }
+
+        if (scheduler != null) {
+            schedulePending();
+        }
+    }
+
+    /**
+     * Gives the pending tasks to the scheduler, as long as the buffer is not full.
+     * <p/>
+     * The tasks are scheduled in order. So the one blocking the rendering
+     * is always already scheduled and this cannot dead-lock.
+     */
+    private void schedulePending() {
+        while (true) {
+            final PendingTask next;
+            synchronized (finished) {
+                if (pending.isEmpty()) {
+                    return;
+                }
+                if (bufferedBytes >= maxBufferedBytes) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Tile buffer full (" + bufferedBytes + " bytes), " + pending.size() + " tiles waiting");
+                    }
+                    return;
+                }
+                next = pending.removeFirst();
+            }
+            scheduler.schedule(this, next.host, next.task);
+        }
     }
 
     /**
@@ -106,4 +220,14 @@ public class ParallelMapTileLoader implements OrderedResultsExecutor.ResultColle
             target.addDone(1);
         }
     }
+
+    private static class PendingTask {
+        private final String host;
+        private final Runnable task;
+
+        private PendingTask(String host, Runnable task) {
+            this.host = host;
+            this.task = task;
+        }
+    }
 }
@@ -0,0 +1,377 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map;
+
+import org.apache.log4j.Logger;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Pool of threads used to fetch the map tiles of all the print jobs.
+ * <p/>
+ * The tasks are queued per job and per host:
+ * <ul>
+ * <li>at most perHostLimit tasks are running at the same time for a given host,
+ * so a slow server doesn't use all the threads;
+ * <li>the jobs (usually a {@link ParallelMapTileLoader}) are served in a
+ * round-robin way, so a big print doesn't starve the others;
+ * <li>within a job, the oldest task that can run is taken first.
+ * </ul>
+ * The order in which the results are rendered is not handled here, see
+ * {@link ParallelMapTileLoader}.
+ */
+public class TileScheduler {
+    public static final Logger LOGGER = Logger.getLogger(TileScheduler.class);
+
+    /**
+     * Above that many hosts, the statistics of the idle ones are forgotten,
+     * the least recently used first.
+     */
+    private static final int DEFAULT_MAX_HOSTS = 1000;
+
+    private final int perHostLimit;
+    private final int maxHosts;
+    private final Thread[] workers;
+
+    /**
+     * The jobs having pending tasks, in round-robin order.
+     */
+    private final LinkedList<JobQueue> jobs = new LinkedList<JobQueue>();
+    private final Map<Object, JobQueue> jobsByKey = new HashMap<Object, JobQueue>();
+    /**
+     * The statistics per host, the least recently used first.
+     */
+    private final Map<String, HostStats> hosts = new LinkedHashMap<String, HostStats>(16, 0.75f, true);
+    private boolean stopped = false;
+
+    /**
+     * @param nbThreads    The total number of threads
+     * @param perHostLimit The maximum number of tasks running at the same time for one host
+     */
+    public TileScheduler(int nbThreads, int perHostLimit) {
+        this(nbThreads, perHostLimit, DEFAULT_MAX_HOSTS);
+    }
+
+    TileScheduler(int nbThreads, int perHostLimit, int maxHosts) {
+        this.perHostLimit = perHostLimit;
+        this.maxHosts = maxHosts;
+        workers = new Thread[nbThreads];
+        for (int i = 0; i < nbThreads; ++i) {
+            workers[i] = new Thread(new Runnable() {
+                public void run() {
+                    work();
+                }
+            }, "tilesReader-" + i);
+            workers[i].setDaemon(true);
+        }
+    }
+
+    public void start() {
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i].start();
+        }
+    }
+
+    public void stop() {
+        synchronized (this) {
+            stopped = true;
+            notifyAll();
+        }
+        for (int i = 0; i < workers.length; ++i) {
+            workers[i].interrupt();
+        }
+    }
+
+    /**
+     * Queues a task. Once the scheduler is stopped, the task is run by the
+     * calling thread instead, the queued tasks would never run.
+     *
+     * @param job  The tasks having the same job are served in FIFO order (per host)
+     * @param host The host the task will connect to, null if it doesn't use the network
+     */
+    public void schedule(Object job, String host, Runnable task) {
+        if (!enqueue(job, host, task)) {
+            LOGGER.debug("Scheduler stopped, running the task directly");
+            task.run();
+        }
+    }
+
+    /**
+     * @return False if the scheduler is stopped
+     */
+    private synchronized boolean enqueue(Object job, String host, Runnable task) {
+        if (stopped) {
+            return false;
+        }
+        JobQueue jobQueue = jobsByKey.get(job);
+        if (jobQueue == null) {
+            jobQueue = new JobQueue(job);
+            jobsByKey.put(job, jobQueue);
+            jobs.addLast(jobQueue);
+        }
+        jobQueue.add(new Entry(jobQueue, host, task));
+        getHostStats(host).queued++;
+        notify();
+        return true;
+    }
+
+    /**
+     * @return A snapshot of the statistics for each host. The hosts idle for a
+     *         long time may be missing, see {@link #DEFAULT_MAX_HOSTS}.
+     */
+    public synchronized List<HostStats> getStats() {
+        List<HostStats> result = new ArrayList<HostStats>(hosts.size());
+        for (HostStats stats : hosts.values()) {
+            result.add(stats.copy());
+        }
+        return result;
+    }
+
+    private void work() {
+        while (true) {
+            final Entry entry;
+            try {
+                entry = take();
+            } catch (InterruptedException e) {
+                return;
+            }
+            if (entry == null) {
+                return;
+            }
+            try {
+                entry.task.run();
+            } catch (Throwable e) {
+                // keep the worker alive, the other jobs still need it
+                LOGGER.error("Error while running a tile task", e);
+            } finally {
+                finished(entry);
+            }
+        }
+    }
+
+    private synchronized Entry take() throws InterruptedException {
+        while (!stopped) {
+            Entry entry = pick();
+            if (entry != null) {
+                final HostStats stats = getHostStats(entry.host);
+                final long waitTime = System.currentTimeMillis() - entry.creationTime;
+                stats.queued--;
+                stats.running++;
+                stats.nbTasks++;
+                stats.totalWaitTime += waitTime;
+                stats.maxWaitTime = Math.max(stats.maxWaitTime, waitTime);
+                return entry;
+            }
+            wait();
+        }
+        return null;
+    }
+
+    private synchronized void finished(Entry entry) {
+        getHostStats(entry.host).running--;
+        // a slot for this host is free, some tasks may be runnable now
+        notifyAll();
+    }
+
+    /**
+     * Takes the next runnable task, going through the jobs in a round-robin way.
+     */
+    private Entry pick() {
+        final int nbJobs = jobs.size();
+        for (int i = 0; i < nbJobs; ++i) {
+            final JobQueue jobQueue = jobs.removeFirst();
+            final Entry entry = jobQueue.poll();
+            if (jobQueue.isEmpty()) {
+                jobsByKey.remove(jobQueue.key);
+            } else {
+                jobs.addLast(jobQueue);
+            }
+            if (entry != null) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private HostStats getHostStats(String host) {
+        HostStats result = hosts.get(host);
+        if (result == null) {
+            result = new HostStats(host);
+            hosts.put(host, result);
+            if (hosts.size() > maxHosts) {
+                removeIdleHosts();
+            }
+        }
+        return result;
+    }
+
+    /**
+     * The hosts having queued or running tasks are kept, their counters are
+     * still needed.
+     */
+    private void removeIdleHosts() {
+        final Iterator<HostStats> it = hosts.values().iterator();
+        while (it.hasNext() && hosts.size() > maxHosts) {
+            final HostStats stats = it.next();
+            if (stats.queued == 0 && stats.running == 0) {
+                it.remove();
+            }
+        }
+    }
+
+    private boolean isHostAvailable(String host) {
+        return host == null || getHostStats(host).running < perHostLimit;
+    }
+
+    private static class Entry {
+        private final String host;
+        private final Runnable task;
+        private final long creationTime = System.currentTimeMillis();
+        private final long sequence;
+
+        private Entry(JobQueue job, String host, Runnable task) {
+            this.host = host;
+            this.task = task;
+            this.sequence = job.nextSequence++;
+        }
+    }
+
+    /**
+     * The pending tasks of one job, per host.
+     */
+    private class JobQueue {
+        private final Object key;
+        private final Map<String, LinkedList<Entry>> perHost = new LinkedHashMap<String, LinkedList<Entry>>();
+        private long nextSequence = 0;
+
+        private JobQueue(Object key) {
+            this.key = key;
+        }
+
+        private void add(Entry entry) {
+            LinkedList<Entry> queue = perHost.get(entry.host);
+            if (queue == null) {
+                queue = new LinkedList<Entry>();
+                perHost.put(entry.host, queue);
+            }
+            queue.addLast(entry);
+        }
+
+        /**
+         * @return The oldest task of this job whose host is not saturated.
+         */
+        private Entry poll() {
+            LinkedList<Entry> best = null;
+            for (Map.Entry<String, LinkedList<Entry>> cur : perHost.entrySet()) {
+                if (isHostAvailable(cur.getKey())) {
+                    final LinkedList<Entry> queue = cur.getValue();
+                    if (best == null || queue.getFirst().sequence < best.getFirst().sequence) {
+                        best = queue;
+                    }
+                }
+            }
+            if (best == null) {
+                return null;
+            }
+            final Entry result = best.removeFirst();
+            if (best.isEmpty()) {
+                perHost.remove(result.host);
+            }
+            return result;
+        }
+
+        private boolean isEmpty() {
+            return perHost.isEmpty();
+        }
+    }
+
+    /**
+     * Metrics about the tasks of a host.
+     */
+    public static class HostStats {
+        private final String host;
+        private int queued = 0;
+        private int running = 0;
+        private long nbTasks = 0;
+        private long totalWaitTime = 0;
+        private long maxWaitTime = 0;
+
+        private HostStats(String host) {
+            this.host = host;
+        }
+
+        private HostStats copy() {
+            HostStats result = new HostStats(host);
+            result.queued = queued;
+            result.running = running;
+            result.nbTasks = nbTasks;
+            result.totalWaitTime = totalWaitTime;
+            result.maxWaitTime = maxWaitTime;
+            return result;
+        }
+
+        /**
+         * @return The host name, null for the tasks not using the network.
+         */
+        public String getHost() {
+            return host;
+        }
+
+        /**
+         * @return The number of tasks waiting for a thread.
+         */
+        public int getQueued() {
+            return queued;
+        }
+
+        public int getRunning() {
+            return running;
+        }
+
+        /**
+         * @return The number of tasks started since the scheduler creation.
+         */
+        public long getNbTasks() {
+            return nbTasks;
+        }
+
+        /**
+         * @return The average time, in milliseconds, the tasks waited for a thread.
+         */
+        public long getAverageWaitTime() {
+            return nbTasks > 0 ? totalWaitTime / nbTasks : 0;
+        }
+
+        public long getMaxWaitTime() {
+            return maxWaitTime;
+        }
+
+        public String toString() {
+            return host + ": queued=" + queued + " running=" + running + " tasks=" + nbTasks +
+                    " avgWait=" + getAverageWaitTime() + "ms maxWait=" + maxWaitTime + "ms";
+        }
+    }
+}
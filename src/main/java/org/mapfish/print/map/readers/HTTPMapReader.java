@@ -57,7 +57,7 @@ public abstract class HTTPMapReader extends MapReader {
 
     private void checkSecurity(PJsonObject params) {
         try {
-            if (!context.getConfig().validateUri(baseUrl)) {
+            if (!context.validateUri(baseUrl)) {
                 throw new InvalidJsonValueException(params, "baseURL", baseUrl);
             }
         } catch (Exception e) {
@@ -77,7 +77,7 @@ public class ImageMapReader extends MapReader {
 
     private void checkSecurity(RenderingContext context, PJsonObject params) {
         try {
-            if (!context.getConfig().validateUri(baseUrl)) {
+            if (!context.validateUri(baseUrl)) {
                 throw new InvalidJsonValueException(params, "baseURL", baseUrl);
             }
         } catch (Exception e) {
@@ -91,6 +91,10 @@ public class ImageMapReader extends MapReader {
         parallelMapTileLoader.addTileToLoad(new MapTileTask() {
             public Image image;
 
+            public URI getUri() {
+                return baseUrl;
+            }
+
             public void readTile() throws DocumentException {
                 image = PDFUtils.createImage(context, extentMaxX - extentMinX, extentMaxY - extentMinY, baseUrl, 0);
                 image.setAbsolutePosition(extentMinX, extentMinY);
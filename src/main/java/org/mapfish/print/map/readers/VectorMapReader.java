@@ -20,7 +20,9 @@
 package org.mapfish.print.map.readers;
 
 import com.lowagie.text.DocumentException;
+import com.lowagie.text.Rectangle;
 import com.lowagie.text.pdf.PdfContentByte;
+import com.lowagie.text.pdf.PdfTemplate;
 import org.json.JSONException;
 import org.mapfish.geo.MfGeo;
 import org.mapfish.geo.MfGeoJSONReader;
@@ -30,7 +32,9 @@ import org.mapfish.print.Transformer;
 import org.mapfish.print.map.MapTileTask;
 import org.mapfish.print.map.ParallelMapTileLoader;
 import org.mapfish.print.map.renderers.vector.FeaturesRenderer;
+import org.mapfish.print.map.renderers.vector.GeometryGeneralizer;
 import org.mapfish.print.map.renderers.vector.StyledMfGeoFactory;
+import org.mapfish.print.utils.PackedGeoJson;
 import org.mapfish.print.utils.PJsonObject;
 
 import java.util.List;
@@ -45,42 +49,79 @@ import java.util.List;
  * to '_style'). The given property may contain a style object directly.
  * <li>styles: dictonary of styles. One style is defined as in OpenLayers.Feature.Vector.style
  * <li>name: the layer name.
+ * <li>generalize: false to render all the geometries as they are, without
+ * dropping the ones outside of the map and simplifying the others to the
+ * output resolution (defaults to true).
  * </ul>
  */
 public class VectorMapReader extends MapReader {
     private final MfGeo geo;
     private final RenderingContext context;
     private final String name;
+    private final boolean generalize;
 
     public VectorMapReader(RenderingContext context, PJsonObject params) {
         super(params);
         this.context = context;
 
-        final PJsonObject geoJson = params.getJSONObject("geoJson");
         final String styleProperty = params.optString("styleProperty", "_style");
         final PJsonObject styles = params.optJSONObject("styles");
-        try {
-            final MfGeoJSONReader reader = new MfGeoJSONReader(new StyledMfGeoFactory(styles, styleProperty));
-            //noinspection deprecation
-            geo = reader.decode(geoJson.getInternalObj());
-        } catch (JSONException e) {
-            throw new InvalidJsonValueException(params, "geoJson", geoJson.toString(), e);
+        final StyledMfGeoFactory factory = new StyledMfGeoFactory(styles, styleProperty);
+        final Object packed = params.getInternalObj().opt("geoJson");
+        if (packed instanceof PackedGeoJson) {
+            // already decoded while parsing the spec
+            geo = ((PackedGeoJson) packed).toMfGeo(factory);
+        } else {
+            final PJsonObject geoJson = params.getJSONObject("geoJson");
+            try {
+                final MfGeoJSONReader reader = new MfGeoJSONReader(factory);
+                //noinspection deprecation
+                geo = reader.decode(geoJson.getInternalObj());
+            } catch (JSONException e) {
+                throw new InvalidJsonValueException(params, "geoJson", geoJson.toString(), e);
+            }
         }
         name = params.optString("name", "vector");
+        generalize = params.optBool("generalize", true);
     }
 
     public static void create(List<MapReader> target, RenderingContext context, PJsonObject params) {
         target.add(new VectorMapReader(context, params));
     }
 
+    /**
+     * The features are drawn in a PdfTemplate by a worker thread, while the
+     * tiles of the other layers are loaded. Only adding the template to the
+     * page is done with the PDF lock.
+     */
     public void render(final Transformer transformer, ParallelMapTileLoader parallelMapTileLoader, String srs, boolean first) {
-        parallelMapTileLoader.addTileToLoad(new MapTileTask.RenderOnly() {
-            public void renderOnPdf(PdfContentByte dc) throws DocumentException {
-                dc.transform(transformer.getGeoTransform(false));
-                float styleFactor = context.getStyleFactor();
-                context.setStyleFactor(styleFactor * transformer.getGeoW() / transformer.getPaperW());  //protected by the PDFLock acquired in the caller (ParallelMapTileLoader.handle)
-                FeaturesRenderer.render(context, dc, geo);
-                context.setStyleFactor(styleFactor);
+        final GeometryGeneralizer generalizer = generalize ? new GeometryGeneralizer(transformer) : null;
+        final RenderingContext layerContext = context.withStyleFactor(context.getStyleFactor() * transformer.getGeoW() / transformer.getPaperW());
+        parallelMapTileLoader.addTileToLoad(new MapTileTask() {
+            private PdfTemplate template = null;
+
+            protected void readTile() {
+                final Rectangle bbox = new Rectangle(transformer.getPaperPosX(), transformer.getPaperPosY(),
+                        transformer.getPaperPosX() + transformer.getPaperW(), transformer.getPaperPosY() + transformer.getPaperH());
+                final PdfTemplate result;
+                synchronized (context.getPdfLock()) {
+                    result = PdfTemplate.createTemplate(context.getWriter(), bbox.getWidth(), bbox.getHeight());
+                }
+                result.setBoundingBox(bbox);
+                result.transform(transformer.getGeoTransform(false));
+                FeaturesRenderer.render(layerContext, result, geo, generalizer);
+                if (generalizer != null) {
+                    generalizer.logStats(name);
+                }
+                template = result;
+            }
+
+            public long getBufferedSize() {
+                return template != null ? template.size() : 0;
+            }
+
+            protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
+                dc.addTemplate(template, 0, 0);
             }
         });
     }
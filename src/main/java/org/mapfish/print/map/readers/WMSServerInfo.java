@@ -19,45 +19,87 @@
 
 package org.mapfish.print.map.readers;
 
-import org.apache.commons.httpclient.methods.GetMethod;
 import org.apache.commons.logging.Log;
 import org.apache.commons.logging.LogFactory;
-import org.apache.xerces.util.DOMUtil;
+import org.mapfish.print.HttpFetcher;
 import org.mapfish.print.RenderingContext;
+import org.mapfish.print.cache.SingleFlight;
+import org.mapfish.print.config.Config;
 import org.pvalsecc.misc.URIUtils;
-import org.w3c.dom.Document;
-import org.w3c.dom.Element;
-import org.w3c.dom.Node;
-import org.w3c.dom.NodeList;
+import org.xml.sax.Attributes;
 import org.xml.sax.EntityResolver;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.StringReader;
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.net.URL;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Collections;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * Use to get information about a WMS server. Caches the results.
+ * <p/>
+ * Only one GetCapabilities request runs at a time for a given server, the
+ * other threads needing it wait for its result. The results are kept for
+ * {@link Config#getCapabilitiesTtl()} and reloaded in the background a bit
+ * before they expire. The failures are kept for
+ * {@link Config#getCapabilitiesErrorTtl()}. If the configuration has a disk
+ * cache, the results are saved in it to be used after a restart.
  */
 public class WMSServerInfo {
     private static final Log LOGGER = LogFactory.getLog(WMSServerInfo.class);
-    private static final Map<URI, WMSServerInfo> cache = Collections.synchronizedMap(new HashMap<URI, WMSServerInfo>());
 
-    private static DocumentBuilderFactory documentBuilderFactory = DocumentBuilderFactory.newInstance();
+    private static final int SNAPSHOT_MAGIC = 0x4d465743;
+
+    /**
+     * Fraction of the TTL after which an entry is reloaded in the background.
+     */
+    private static final double REFRESH_RATIO = 0.8;
+
+    private static final ConcurrentHashMap<URI, CacheEntry> cache = new ConcurrentHashMap<URI, CacheEntry>();
+    private static final SingleFlight<URI, CacheEntry> loads = new SingleFlight<URI, CacheEntry>();
+
+    private static final ExecutorService refresher = Executors.newCachedThreadPool(new ThreadFactory() {
+        public Thread newThread(Runnable r) {
+            final Thread thread = new Thread(r, "capabilitiesRefresher");
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    /**
+     * The snapshot file already loaded, if any.
+     */
+    private static File snapshotLoaded = null;
+    private static final AtomicBoolean savePending = new AtomicBoolean(false);
+
+    private static final SAXParserFactory parserFactory = SAXParserFactory.newInstance();
 
     static {
-        documentBuilderFactory.setValidating(false);  //doesn't work?!?!?
+        parserFactory.setValidating(false);
+        parserFactory.setNamespaceAware(false);
     }
 
     /**
@@ -68,107 +110,163 @@ public class WMSServerInfo {
     public WMSServerInfo() {
     }
 
-    public static synchronized void clearCache() {
+    public static void clearCache() {
         cache.clear();
     }
 
     public static WMSServerInfo getInfo(URI uri, RenderingContext context) {
-        WMSServerInfo result = cache.get(uri);
-        if (result == null) {
-            return getInfoImpl(uri, context);
+        final Config config = context.getConfig();
+        loadSnapshot(config);
+
+        final CacheEntry entry = cache.get(uri);
+        final long now = System.currentTimeMillis();
+        if (entry != null && now < entry.expiresAt) {
+            if (now >= entry.refreshAt) {
+                refreshInBackground(uri, entry, context);
+            }
+            return entry.info;
         }
-        return result;
+
+        return load(uri, context, null).info;
     }
 
-    private static synchronized WMSServerInfo getInfoImpl(URI uri, RenderingContext context) {
-        WMSServerInfo result = cache.get(uri);
-        if (result == null) {
-            try {
-                result = requestInfo(uri, context);
-            } catch (Exception e) {
-                LOGGER.info("Error while getting capabilities for "+uri+". The print module will assume it's a standard WMS.");
-                String stackTrace = "";
-                for (StackTraceElement el : e.getStackTrace()) {
-                	stackTrace += el.toString() +"\n";
+    private static CacheEntry load(final URI uri, final RenderingContext context, final CacheEntry previous) {
+        try {
+            return loads.get(uri, new Callable<CacheEntry>() {
+                public CacheEntry call() {
+                    return fetch(uri, context, previous);
                 }
-                LOGGER.info(stackTrace);
-                result = new WMSServerInfo();
+            });
+        } catch (RuntimeException e) {
+            throw e;
+        } catch (Exception e) {
+            // fetch doesn't throw checked exceptions
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static void refreshInBackground(final URI uri, final CacheEntry entry, final RenderingContext context) {
+        if (!entry.refreshing.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(new Runnable() {
+            public void run() {
+                load(uri, context, entry);
             }
+        });
+    }
+
+    /**
+     * Does the GetCapabilities request and stores the result in the cache.
+     *
+     * @param previous The entry being refreshed, kept if the request fails
+     */
+    private static CacheEntry fetch(URI uri, RenderingContext context, CacheEntry previous) {
+        final Config config = context.getConfig();
+        final long start = System.currentTimeMillis();
+        CacheEntry result;
+        try {
+            final WMSServerInfo info = requestInfo(uri, context);
+            result = new CacheEntry(info, start, config.getCapabilitiesTtl(), false);
             if (LOGGER.isDebugEnabled()) {
-                LOGGER.debug("GetCapabilities " + uri + ": " + result);
+                LOGGER.debug("GetCapabilities " + uri + " (" + (System.currentTimeMillis() - start) + "ms): " + info);
             }
-            cache.put(uri, result);
+        } catch (Exception e) {
+            if (previous != null && !previous.failed && start < previous.expiresAt) {
+                LOGGER.info("Error while refreshing the capabilities for " + uri + ". Keeping the previous ones.", e);
+                result = previous.retryLater(start + config.getCapabilitiesErrorTtl());
+            } else {
+                LOGGER.info("Error while getting capabilities for " + uri + ". The print module will assume it's a standard WMS.", e);
+                result = new CacheEntry(new WMSServerInfo(), start, config.getCapabilitiesErrorTtl(), true);
+            }
+        }
+        cache.put(uri, result);
+        if (!result.failed) {
+            saveSnapshotInBackground(config.getCapabilitiesSnapshotFile());
         }
         return result;
     }
 
-    private static WMSServerInfo requestInfo(URI baseUrl, RenderingContext context) throws IOException, URISyntaxException, ParserConfigurationException, SAXException {
+    private static WMSServerInfo requestInfo(URI baseUrl, RenderingContext context) throws IOException, URISyntaxException {
         Map<String, List<String>> queryParams = new HashMap<String, List<String>>();
         URIUtils.addParamOverride(queryParams, "SERVICE", "WMS");
         URIUtils.addParamOverride(queryParams, "REQUEST", "GetCapabilities");
         URIUtils.addParamOverride(queryParams, "VERSION", "1.1.1");
-        URL url = URIUtils.addParams(baseUrl, queryParams, HTTPMapReader.OVERRIDE_ALL).toURL();
+        final URI url = URIUtils.addParams(baseUrl, queryParams, HTTPMapReader.OVERRIDE_ALL);
 
-        GetMethod method = new GetMethod(url.toString());
-        if (context.getReferer() != null) {
-            method.setRequestHeader("Referer", context.getReferer());
-        }
-        try {
-            context.getConfig().getHttpClient(baseUrl).executeMethod(method);
-            int code = method.getStatusCode();
-            if (code < 200 || code >= 300) {
-                throw new IOException("Error " + code + " while reading the Capabilities from " + url + ": " + method.getStatusText());
-            }
-            InputStream stream = method.getResponseBodyAsStream();
-            final WMSServerInfo result;
-            try {
-                result = parseCapabilities(stream);
-            } finally {
-                stream.close();
+        return context.getConfig().getHttpFetcher().get(url, context.getReferer(), null, new HttpFetcher.Handler<WMSServerInfo>() {
+            public WMSServerInfo handle(HttpFetcher.Response response) throws IOException {
+                int code = response.getStatusCode();
+                if (code < 200 || code >= 300) {
+                    throw new IOException("Error " + code + " while reading the Capabilities from " + url + ": " + response.getStatusText());
+                }
+                InputStream stream = response.getBodyAsStream();
+                if (stream == null) {
+                    throw new IOException("Empty Capabilities from " + url);
+                }
+                try {
+                    return parseCapabilities(stream);
+                } catch (ParserConfigurationException e) {
+                    throw wrap(url, e);
+                } catch (SAXException e) {
+                    throw wrap(url, e);
+                } finally {
+                    stream.close();
+                }
             }
-            return result;
-        } finally {
-            method.releaseConnection();
-        }
+        });
+    }
+
+    private static IOException wrap(URI url, Exception e) {
+        final IOException result = new IOException("Cannot parse the Capabilities from " + url + ": " + e.getMessage());
+        result.initCause(e);
+        return result;
     }
 
+    /**
+     * Streams through the capabilities and keeps only what is needed to
+     * detect a TileCache server.
+     */
     protected static WMSServerInfo parseCapabilities(InputStream stream) throws ParserConfigurationException, SAXException, IOException {
-        DocumentBuilder documentBuilder = documentBuilderFactory.newDocumentBuilder();
+        final XMLReader reader = parserFactory.newSAXParser().getXMLReader();
 
         //we don't want the DTD to be checked and it's the only way I found
-        documentBuilder.setEntityResolver(new EntityResolver() {
+        reader.setEntityResolver(new EntityResolver() {
             public InputSource resolveEntity(String publicId, String systemId) throws SAXException, IOException {
                 return new InputSource(new StringReader(""));
             }
         });
 
-        Document doc = documentBuilder.parse(stream);
-
-        NodeList tileSets = doc.getElementsByTagName("TileSet");
-        boolean isTileCache = (tileSets.getLength() > 0);
+        final CapabilitiesHandler handler = new CapabilitiesHandler();
+        reader.setContentHandler(handler);
+        reader.parse(new InputSource(stream));
 
         final WMSServerInfo result = new WMSServerInfo();
 
-        if (isTileCache) {
+        if (!handler.tileSets.isEmpty()) {
             result.tileCacheLayers = new HashMap<String, TileCacheLayerInfo>();
 
-            NodeList layers = doc.getElementsByTagName("Layer");
-            for (int i = 0; i < tileSets.getLength(); ++i) {
-                final Node tileSet = tileSets.item(i);
-                final Node layer = layers.item(i + 1);
-                String resolutions = DOMUtil.getChildText(DOMUtil.getFirstChildElement(tileSet, "Resolutions"));
-                int width = Integer.parseInt(DOMUtil.getChildText(DOMUtil.getFirstChildElement(tileSet, "Width")));
-                int height = Integer.parseInt(DOMUtil.getChildText(DOMUtil.getFirstChildElement(tileSet, "Height")));
-                Element bbox = DOMUtil.getFirstChildElement(layer, "BoundingBox");
-                float minX = Float.parseFloat(DOMUtil.getAttrValue(bbox, "minx"));
-                float minY = Float.parseFloat(DOMUtil.getAttrValue(bbox, "miny"));
-                float maxX = Float.parseFloat(DOMUtil.getAttrValue(bbox, "maxx"));
-                float maxY = Float.parseFloat(DOMUtil.getAttrValue(bbox, "maxy"));
-                String format = DOMUtil.getChildText(DOMUtil.getFirstChildElement(tileSet, "Format"));
-
-                String layerName = DOMUtil.getChildText(DOMUtil.getFirstChildElement(layer, "Name"));
+            for (int i = 0; i < handler.tileSets.size(); ++i) {
+                final Map<String, String> tileSet = handler.tileSets.get(i);
+                // the first layer is the container of the others
+                if (i + 1 >= handler.layers.size()) {
+                    throw new SAXException("No layer for the TileSet number " + (i + 1));
+                }
+                final LayerDesc layer = handler.layers.get(i + 1);
+                if (layer.bbox == null) {
+                    throw new SAXException("No BoundingBox for the layer " + layer.name);
+                }
+                String resolutions = tileSet.get("Resolutions");
+                int width = Integer.parseInt(tileSet.get("Width"));
+                int height = Integer.parseInt(tileSet.get("Height"));
+                float minX = Float.parseFloat(layer.bbox.get("minx"));
+                float minY = Float.parseFloat(layer.bbox.get("miny"));
+                float maxX = Float.parseFloat(layer.bbox.get("maxx"));
+                float maxY = Float.parseFloat(layer.bbox.get("maxy"));
+                String format = tileSet.get("Format");
+
                 final TileCacheLayerInfo info = new TileCacheLayerInfo(resolutions, width, height, minX, minY, maxX, maxY, format);
-                result.tileCacheLayers.put(layerName, info);
+                result.tileCacheLayers.put(layer.name, info);
             }
         }
 
@@ -191,4 +289,253 @@ public class WMSServerInfo {
         sb.append('}');
         return sb.toString();
     }
+
+    /**
+     * Loads the capabilities saved by a previous run, if not done yet. They
+     * are used while being reloaded.
+     */
+    private static void loadSnapshot(Config config) {
+        final File file = config.getCapabilitiesSnapshotFile();
+        if (file == null) {
+            return;
+        }
+        synchronized (WMSServerInfo.class) {
+            if (file.equals(snapshotLoaded)) {
+                return;
+            }
+            snapshotLoaded = file;
+        }
+        if (!file.isFile()) {
+            return;
+        }
+
+        final long now = System.currentTimeMillis();
+        final long ttl = config.getCapabilitiesTtl();
+        try {
+            final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+            try {
+                if (in.readInt() != SNAPSHOT_MAGIC) {
+                    throw new IOException("Not a capabilities snapshot");
+                }
+                final int nbServers = in.readInt();
+                for (int i = 0; i < nbServers; ++i) {
+                    final URI uri = new URI(in.readUTF());
+                    final long fetched = in.readLong();
+                    final WMSServerInfo info = readInfo(in);
+                    if (ttl > 0 && fetched + ttl <= now) {
+                        // too old, use it only until it's reloaded
+                        cache.putIfAbsent(uri, new CacheEntry(info, fetched, now, now + ttl, false));
+                    } else {
+                        cache.putIfAbsent(uri, new CacheEntry(info, fetched, ttl, false));
+                    }
+                }
+                LOGGER.info("Loaded the capabilities of " + nbServers + " servers from " + file);
+            } finally {
+                in.close();
+            }
+        } catch (Exception e) {
+            LOGGER.warn("Cannot read the capabilities snapshot " + file + ", ignoring it", e);
+        }
+    }
+
+    private static void saveSnapshotInBackground(final File file) {
+        if (file == null || !savePending.compareAndSet(false, true)) {
+            return;
+        }
+        refresher.execute(new Runnable() {
+            public void run() {
+                savePending.set(false);
+                saveSnapshot(file);
+            }
+        });
+    }
+
+    /**
+     * Writes the successfully loaded capabilities in a temporary file and
+     * renames it, so a crash never leaves a truncated snapshot.
+     */
+    private static void saveSnapshot(File file) {
+        final List<Map.Entry<URI, CacheEntry>> entries = new ArrayList<Map.Entry<URI, CacheEntry>>();
+        for (Map.Entry<URI, CacheEntry> entry : cache.entrySet()) {
+            if (!entry.getValue().failed) {
+                entries.add(entry);
+            }
+        }
+
+        final File tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        try {
+            final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                out.writeInt(SNAPSHOT_MAGIC);
+                out.writeInt(entries.size());
+                for (Map.Entry<URI, CacheEntry> entry : entries) {
+                    out.writeUTF(entry.getKey().toString());
+                    out.writeLong(entry.getValue().fetched);
+                    writeInfo(out, entry.getValue().info);
+                }
+            } finally {
+                out.close();
+            }
+            if (!tmpFile.renameTo(file)) {
+                if (!file.delete() || !tmpFile.renameTo(file)) {
+                    throw new IOException("Cannot rename " + tmpFile + " to " + file);
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.warn("Cannot save the capabilities snapshot " + file, e);
+            tmpFile.delete();
+        }
+    }
+
+    private static void writeInfo(DataOutputStream out, WMSServerInfo info) throws IOException {
+        if (info.tileCacheLayers == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(info.tileCacheLayers.size());
+        for (Map.Entry<String, TileCacheLayerInfo> entry : info.tileCacheLayers.entrySet()) {
+            final TileCacheLayerInfo layer = entry.getValue();
+            out.writeUTF(entry.getKey());
+            final float[] resolutions = layer.getResolutions();
+            out.writeInt(resolutions.length);
+            for (float resolution : resolutions) {
+                out.writeFloat(resolution);
+            }
+            out.writeInt(layer.width);
+            out.writeInt(layer.height);
+            out.writeFloat(layer.minX);
+            out.writeFloat(layer.minY);
+            out.writeFloat(layer.maxX);
+            out.writeFloat(layer.maxY);
+            out.writeUTF(layer.getExtension());
+        }
+    }
+
+    private static WMSServerInfo readInfo(DataInputStream in) throws IOException {
+        final WMSServerInfo result = new WMSServerInfo();
+        final int nbLayers = in.readInt();
+        if (nbLayers < 0) {
+            return result;
+        }
+        result.tileCacheLayers = new HashMap<String, TileCacheLayerInfo>();
+        for (int i = 0; i < nbLayers; ++i) {
+            final String name = in.readUTF();
+            final StringBuilder resolutions = new StringBuilder();
+            final int nbResolutions = in.readInt();
+            for (int j = 0; j < nbResolutions; ++j) {
+                if (j > 0) {
+                    resolutions.append(' ');
+                }
+                resolutions.append(in.readFloat());
+            }
+            final int width = in.readInt();
+            final int height = in.readInt();
+            final float minX = in.readFloat();
+            final float minY = in.readFloat();
+            final float maxX = in.readFloat();
+            final float maxY = in.readFloat();
+            final String format = "image/" + in.readUTF();
+            result.tileCacheLayers.put(name, new TileCacheLayerInfo(resolutions.toString(), width, height, minX, minY, maxX, maxY, format));
+        }
+        return result;
+    }
+
+    private static class CacheEntry {
+        private final WMSServerInfo info;
+        private final long fetched;
+        private final long refreshAt;
+        private final long expiresAt;
+        private final boolean failed;
+        private final AtomicBoolean refreshing = new AtomicBoolean(false);
+
+        /**
+         * @param ttl In milliseconds, 0 for forever (for a failure, 0 means retry at the next use)
+         */
+        private CacheEntry(WMSServerInfo info, long fetched, long ttl, boolean failed) {
+            this(info, fetched,
+                    ttl > 0 && !failed ? fetched + (long) (ttl * REFRESH_RATIO) : Long.MAX_VALUE,
+                    ttl > 0 || failed ? fetched + ttl : Long.MAX_VALUE,
+                    failed);
+        }
+
+        private CacheEntry(WMSServerInfo info, long fetched, long refreshAt, long expiresAt, boolean failed) {
+            this.info = info;
+            this.fetched = fetched;
+            this.refreshAt = refreshAt;
+            this.expiresAt = expiresAt;
+            this.failed = failed;
+        }
+
+        /**
+         * @return The same information, to be refreshed again at the given time.
+         */
+        private CacheEntry retryLater(long refreshAt) {
+            return new CacheEntry(info, fetched, Math.min(refreshAt, expiresAt), expiresAt, false);
+        }
+    }
+
+    private static class LayerDesc {
+        private String name = null;
+        private Map<String, String> bbox = null;
+    }
+
+    /**
+     * Collects the TileSet elements and the name and bounding box of the
+     * Layer elements, in the document order.
+     */
+    private static class CapabilitiesHandler extends DefaultHandler {
+        private final List<Map<String, String>> tileSets = new ArrayList<Map<String, String>>();
+        private final List<LayerDesc> layers = new ArrayList<LayerDesc>();
+
+        private final List<String> path = new ArrayList<String>();
+        private final List<LayerDesc> openLayers = new ArrayList<LayerDesc>();
+        private Map<String, String> currentTileSet = null;
+        private final StringBuilder text = new StringBuilder();
+
+        public void startElement(String uri, String localName, String qName, Attributes attributes) {
+            final String parent = path.isEmpty() ? null : path.get(path.size() - 1);
+            path.add(qName);
+            text.setLength(0);
+
+            if (qName.equals("TileSet")) {
+                currentTileSet = new HashMap<String, String>();
+                tileSets.add(currentTileSet);
+            } else if (qName.equals("Layer")) {
+                final LayerDesc layer = new LayerDesc();
+                layers.add(layer);
+                openLayers.add(layer);
+            } else if (qName.equals("BoundingBox") && "Layer".equals(parent)) {
+                final LayerDesc layer = openLayers.get(openLayers.size() - 1);
+                if (layer.bbox == null) {
+                    layer.bbox = new HashMap<String, String>();
+                    for (int i = 0; i < attributes.getLength(); ++i) {
+                        layer.bbox.put(attributes.getQName(i), attributes.getValue(i));
+                    }
+                }
+            }
+        }
+
+        public void characters(char[] ch, int start, int length) {
+            text.append(ch, start, length);
+        }
+
+        public void endElement(String uri, String localName, String qName) {
+            path.remove(path.size() - 1);
+            final String parent = path.isEmpty() ? null : path.get(path.size() - 1);
+
+            if (qName.equals("TileSet")) {
+                currentTileSet = null;
+            } else if (qName.equals("Layer")) {
+                openLayers.remove(openLayers.size() - 1);
+            } else if ("TileSet".equals(parent) && currentTileSet != null && !currentTileSet.containsKey(qName)) {
+                currentTileSet.put(qName, text.toString().trim());
+            } else if (qName.equals("Name") && "Layer".equals(parent)) {
+                final LayerDesc layer = openLayers.get(openLayers.size() - 1);
+                if (layer.name == null) {
+                    layer.name = text.toString().trim();
+                }
+            }
+            text.setLength(0);
+        }
+    }
 }
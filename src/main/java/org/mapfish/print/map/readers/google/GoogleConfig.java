@@ -22,6 +22,7 @@ package org.mapfish.print.map.readers.google;
 import org.apache.log4j.Logger;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.config.Config;
+import org.mapfish.print.config.DnsCache;
 import org.mapfish.print.config.Key;
 import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
@@ -50,7 +51,14 @@ public class GoogleConfig {
     public final List<String> markers;
     public final String path;
 
+    /**
+     * The name of this host doesn't change, no need to ask the system for
+     * each key of each google layer.
+     */
+    private static volatile URI localhostURI = null;
+
     public GoogleConfig(RenderingContext context, PJsonObject params, Logger logger, URI baseUrl, boolean requireKey) {
+        this.logger = logger;
         format = params.getString("format");
         sensor = params.getString("sensor");
         maptype = params.getString("maptype");
@@ -58,7 +66,6 @@ public class GoogleConfig {
         path = addEscapes(params.optString("path"));
         markers = getList(params, "markers");
         signer = createUriSigner(context, baseUrl, requireKey);
-        this.logger = logger;
     }
 
     private List<String> getList(PJsonObject params, String s) {
@@ -85,14 +92,28 @@ public class GoogleConfig {
         }
     }
 
+    private static URI getLocalhostURI() throws UnknownHostException {
+        URI result = localhostURI;
+        if (result == null) {
+            try {
+                result = new URI("http://" + InetAddress.getLocalHost().getHostName());
+            } catch (URISyntaxException e) {
+                throw new Error(e);
+            }
+            localhostURI = result;
+        }
+        return result;
+    }
+
     private GoogleURLSigner createUriSigner(RenderingContext context, URI baseUrl, boolean requireKey) {
         GoogleURLSigner signer = null;
         Config config = context.getConfig();
+        final DnsCache dnsCache = config.getDnsCache();
         for (Key key : config.getKeys()) {
             try {
-                URI localhostURI = new URI("http://" + InetAddress.getLocalHost().getHostName());
-                if (key.getHost().validate(baseUrl)){
-                    if(key.getDomain().validate(localhostURI)) {
+                if (key.getHost().validate(baseUrl, dnsCache)){
+                    URI localhostURI = getLocalhostURI();
+                    if(key.getDomain().validate(localhostURI, dnsCache)) {
                         signer = new GoogleURLSigner(key);
                     } else {
                         if(logger.isDebugEnabled()) {
@@ -119,8 +140,6 @@ public class GoogleConfig {
                 if(logger.isDebugEnabled()) {
                     logger.debug("Failed host matching", e);
                 }
-            } catch (URISyntaxException e) {
-                throw new Error(e);
             }
         }
         if(signer==null && requireKey) {
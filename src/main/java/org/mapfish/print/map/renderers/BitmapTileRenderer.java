@@ -68,6 +68,15 @@ public class BitmapTileRenderer extends TileRenderer {
             parallelMapTileLoader.addTileToLoad(new MapTileTask() {
                 public Image map;
 
+                public URI getUri() {
+                    return uri;
+                }
+
+                /**
+                 * The decoded bitmap is written in the PDF as soon as it is
+                 * read (see PDFUtils.getImage), only a reference to it waits
+                 * for the previous tiles to be rendered.
+                 */
                 protected void readTile() throws IOException, DocumentException {
                     map = PDFUtils.getImage(context, uri, bitmapTileW, bitmapTileH);
                     map.setAbsolutePosition(posX, posY);
@@ -24,14 +24,20 @@ import com.lowagie.text.pdf.PdfContentByte;
 import com.lowagie.text.pdf.PdfGState;
 import com.lowagie.text.pdf.PdfImportedPage;
 import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.RandomAccessFileOrArray;
 import org.apache.log4j.Logger;
+import org.mapfish.print.HttpFetcher;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.Transformer;
 import org.mapfish.print.map.MapTileTask;
 import org.mapfish.print.map.ParallelMapTileLoader;
 
+import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.net.URI;
 import java.util.List;
 
@@ -48,9 +54,27 @@ public class PDFTileRenderer extends TileRenderer {
         parallelMapTileLoader.addTileToLoad(new MapTileTask() {
             public PdfImportedPage pdfMap;
 
+            public URI getUri() {
+                return uri;
+            }
+
             protected void readTile() throws IOException, DocumentException {
                 LOGGER.debug(uri);
-                PdfReader reader = new PdfReader(uri.toURL());
+                final File file = download(uri, context);
+                final PdfReader reader;
+                try {
+                    reader = new PdfReader(new RandomAccessFileOrArray(file.getPath(), false, true), null);
+                } catch (IOException e) {
+                    delete(file);
+                    throw e;
+                }
+                // iText reads the imported page when the document is closed
+                context.addCleanup(new Runnable() {
+                    public void run() {
+                        reader.close();
+                        delete(file);
+                    }
+                });
                 synchronized (context.getPdfLock()) {
                     pdfMap = context.getWriter().getImportedPage(reader, 1);
 
@@ -70,4 +94,66 @@ public class PDFTileRenderer extends TileRenderer {
             }
         });
     }
+
+    private static void delete(File file) {
+        if (!file.delete()) {
+            LOGGER.warn(file + " was not able to be deleted for unknown reason.  Will try again on shutdown");
+            file.deleteOnExit();
+        }
+    }
+
+    /**
+     * Copies the PDF in a temporary file, to read it in partial mode instead
+     * of keeping it in memory until the document is closed.
+     */
+    private static File download(final URI uri, RenderingContext context) throws IOException {
+        final File file = File.createTempFile("pdfTile", ".pdf");
+        boolean ok = false;
+        try {
+            if (HttpFetcher.isHttp(uri)) {
+                context.getConfig().getHttpFetcher().get(uri, context.getReferer(), null, new HttpFetcher.Handler<Object>() {
+                    public Object handle(HttpFetcher.Response response) throws IOException {
+                        final int code = response.getStatusCode();
+                        if (code < 200 || code >= 300) {
+                            throw new IOException("Error (status=" + code + ") while reading the PDF from " + uri + ": " + response.getStatusText());
+                        }
+                        final InputStream input = response.getBodyAsStream();
+                        if (input == null) {
+                            throw new IOException("Empty PDF from " + uri);
+                        }
+                        copy(input, file);
+                        return null;
+                    }
+                });
+            } else {
+                copy(uri.toURL().openStream(), file);
+            }
+            ok = true;
+            return file;
+        } finally {
+            if (!ok && !file.delete()) {
+                file.deleteOnExit();
+            }
+        }
+    }
+
+    /**
+     * Copies the stream in the file and closes it.
+     */
+    private static void copy(InputStream input, File file) throws IOException {
+        try {
+            final OutputStream output = new FileOutputStream(file);
+            try {
+                final byte[] buffer = new byte[8192];
+                int nb;
+                while ((nb = input.read(buffer)) >= 0) {
+                    output.write(buffer, 0, nb);
+                }
+            } finally {
+                output.close();
+            }
+        } finally {
+            input.close();
+        }
+    }
 }
@@ -22,13 +22,14 @@ package org.mapfish.print.map.renderers;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.pdf.PdfContentByte;
 import com.lowagie.text.pdf.PdfGState;
+import org.apache.batik.dom.svg.SVGDOMImplementation;
 import org.apache.batik.ext.awt.RenderingHintsKeyExt;
 import org.apache.batik.transcoder.TranscoderInput;
 import org.apache.batik.transcoder.print.PrintTranscoder;
 import org.apache.log4j.Logger;
-import org.apache.xerces.parsers.DOMParser;
 import org.apache.xml.serialize.OutputFormat;
 import org.apache.xml.serialize.XMLSerializer;
+import org.mapfish.print.HttpFetcher;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.Transformer;
@@ -36,56 +37,40 @@ import org.mapfish.print.map.MapTileTask;
 import org.mapfish.print.map.ParallelMapTileLoader;
 import org.w3c.dom.Document;
 import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
+import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerException;
 import javax.xml.transform.TransformerFactory;
 import javax.xml.transform.dom.DOMResult;
-import javax.xml.transform.dom.DOMSource;
-import javax.xml.transform.stream.StreamSource;
+import javax.xml.transform.sax.SAXSource;
 import java.awt.*;
 import java.awt.print.PageFormat;
 import java.awt.print.Paper;
 import java.io.ByteArrayOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.URI;
-import java.net.URL;
-import java.net.URLConnection;
 
+/**
+ * Renders the SVG maps. The line widths and font sizes are adapted to the
+ * resolution of the PDF while the SVG is parsed, see {@link SvgZoomFilter}.
+ */
 public class SVGTileRenderer extends TileRenderer {
     public static final Logger LOGGER = Logger.getLogger(SVGTileRenderer.class);
 
-    private static Document svgZoomOut;
+    /**
+     * The factories are not thread safe, they are synchronized on.
+     */
+    private static final SAXParserFactory PARSERS = SAXParserFactory.newInstance();
+    private static final TransformerFactory TRANSFORMERS = TransformerFactory.newInstance();
 
     static {
-    	makeSvgZoomOut();
-    }
-    private static void makeSvgZoomOut() {
-        DOMParser parser = new DOMParser();
-        String svgZoomFileName = "svgZoomOut.xsl";
-        final InputStream stream = SVGTileRenderer.class.getResourceAsStream(svgZoomFileName);
-        if (stream == null) {
-            String file = SVGTileRenderer.class.getResource(".").getPath() + svgZoomFileName;
-            throw new RuntimeException("Cannot find the SVG transformation XSLT: expected it to be in: "+file);
-        }
-        try {
-            final InputSource inputSource = new InputSource(stream);
-            inputSource.setSystemId(".");
-            parser.parse(inputSource);
-
-            svgZoomOut = parser.getDocument();
-
-        } catch (Exception e) {
-            throw new RuntimeException("Cannot parse the SVG transformation XSLT", e);
-        } finally {
-            if(stream != null) {
-                try {
-                    stream.close();
-                } catch (IOException e2) {
-                    e2.printStackTrace();
-                }
-            }
-        }
+        PARSERS.setNamespaceAware(true);
     }
 
     public void render(final Transformer transformer, java.util.List<URI> uris, ParallelMapTileLoader parallelMapTileLoader, final RenderingContext context, final float opacity, int nbTilesHorizontal, float offsetX, float offsetY, long bitmapTileW, long bitmapTileH) throws IOException {
@@ -98,17 +83,31 @@ public class SVGTileRenderer extends TileRenderer {
 
         parallelMapTileLoader.addTileToLoad(new MapTileTask() {
             public PrintTranscoder pt;
+            private long bufferedSize = 0;
+
+            public URI getUri() {
+                return uri;
+            }
 
             @Override
             protected void readTile() throws IOException, DocumentException {
                 LOGGER.debug(uri);
-                final TranscoderInput ti = getTranscoderInput(uri.toURL(), transformer, context);
+                final CountingInputStream[] counter = new CountingInputStream[1];
+                final TranscoderInput ti = getTranscoderInput(uri, transformer, context, counter);
                 if (ti != null) {
                     pt = new PrintTranscoder();
                     pt.transcode(ti, null);
+                    bufferedSize = counter[0].getCount();
                 }
             }
 
+            /**
+             * The size of the SVG, the document built from it is proportional.
+             */
+            public long getBufferedSize() {
+                return bufferedSize;
+            }
+
             @Override
             protected void renderOnPdf(PdfContentByte dc) throws DocumentException {
                 dc.transform(transformer.getSvgTransform());
@@ -139,58 +138,94 @@ public class SVGTileRenderer extends TileRenderer {
         });
     }
 
-    private TranscoderInput getTranscoderInput(URL url, Transformer transformer, RenderingContext context) {
+    /**
+     * @param counter Receives the stream counting the bytes of the SVG
+     */
+    private TranscoderInput getTranscoderInput(final URI uri, Transformer transformer, RenderingContext context, final CountingInputStream[] counter) {
         final float zoomFactor = transformer.getSvgFactor() * context.getStyleFactor();
-    	//final float zoomFactor = context.getStyleFactor();
-        if (svgZoomOut != null && zoomFactor != 1.0f) {
-        	javax.xml.transform.Transformer xslt = null;
-            try {
-                DOMResult transformedSvg = new DOMResult();
-                final TransformerFactory factory = TransformerFactory.newInstance();
-                if (svgZoomOut.getTextContent() == null) {
-                	makeSvgZoomOut(); // a bit of a hack
-                }
-                xslt = factory.newTransformer(new DOMSource(svgZoomOut));
+        try {
+            final Document doc;
+            if (HttpFetcher.isHttp(uri)) {
+                doc = context.getConfig().getHttpFetcher().get(uri, context.getReferer(), null, new HttpFetcher.Handler<Document>() {
+                    public Document handle(HttpFetcher.Response response) throws IOException {
+                        counter[0] = new CountingInputStream(getBody(uri, response));
+                        return parse(uri, counter[0], zoomFactor);
+                    }
+                });
+            } else {
+                counter[0] = new CountingInputStream(uri.toURL().openStream());
+                doc = parse(uri, counter[0], zoomFactor);
+            }
 
-                //TODO: may want a different zoom factor in function of the layer and the type (symbol, line or font)
-                xslt.setParameter("zoomFactor", zoomFactor);
+            if (LOGGER.isTraceEnabled()) {
+                printDom(doc);
+            }
+            final TranscoderInput result = new TranscoderInput(doc);
+            // to resolve the relative links of the document
+            result.setURI(uri.toString());
+            return result;
+        } catch (IOException e) {
+            context.addError(e);
+            return null;
+        }
+    }
 
-                final URLConnection urlConnection = url.openConnection();
-                if (context.getReferer() != null) {
-                    urlConnection.setRequestProperty("Referer", context.getReferer());
-                }
-                final InputStream inputStream = urlConnection.getInputStream();
+    /**
+     * Parses the SVG directly in a Batik document, multiplying the line
+     * widths and font sizes by the zoom factor on the fly. Closes the stream.
+     */
+    static Document parse(URI uri, InputStream inputStream, float zoomFactor) throws IOException {
+        try {
+            final XMLReader parser;
+            synchronized (PARSERS) {
+                parser = PARSERS.newSAXParser().getXMLReader();
+            }
+            final javax.xml.transform.Transformer identity;
+            synchronized (TRANSFORMERS) {
+                identity = TRANSFORMERS.newTransformer();
+            }
+            final Document doc = SVGDOMImplementation.getDOMImplementation().createDocument(SvgZoomFilter.SVG_NS, null, null);
+            final InputSource source = new InputSource(inputStream);
+            source.setSystemId(uri.toString());
+            identity.transform(new SAXSource(new SvgZoomFilter(parser, zoomFactor), source), new DOMResult(doc));
+            doc.setDocumentURI(uri.toString());
+            return doc;
+        } catch (ParserConfigurationException e) {
+            throw createParseError(uri, e);
+        } catch (SAXException e) {
+            throw createParseError(uri, e);
+        } catch (TransformerException e) {
+            throw createParseError(uri, e);
+        } finally {
+            inputStream.close();
+        }
+    }
 
-                Document doc;
-                try {
-                    xslt.transform(new StreamSource(inputStream), transformedSvg);
-                    doc = (Document) transformedSvg.getNode();
+    private static IOException createParseError(URI uri, Exception e) {
+        final IOException ioe = new IOException("Cannot parse the SVG from " + uri + ": " + e.getMessage());
+        ioe.initCause(e);
+        return ioe;
+    }
 
-                    if (LOGGER.isDebugEnabled()) {
-                        printDom(doc);
-                    }
-                } finally {
-                    inputStream.close();
-                }
-                return new TranscoderInput(doc);
-
-            } catch (Exception e) {
-            	if (xslt == null) {
-            		// some more information about the error
-            		LOGGER.error("xslt = NULL, zoomFactor = "+ 
-            				zoomFactor +", svgZoomOut = "+ svgZoomOut
-            				+"\nsvgZoomOut.getTextContent() = "+ svgZoomOut.getTextContent()
-            				+"\nsvgZoomOut.getChildNodes().getLength() = "+ svgZoomOut.getChildNodes().getLength());
-            	}
-            	
-                context.addError(e);
-                return null;
-            }
-        } else {
-            return new TranscoderInput(url.toString());
+    private static void checkStatus(URI uri, HttpFetcher.Response response) throws IOException {
+        final int code = response.getStatusCode();
+        if (code < 200 || code >= 300) {
+            throw new IOException("Error (status=" + code + ") while reading the SVG from " + uri + ": " + response.getStatusText());
         }
     }
 
+    /**
+     * @return The body of a successful response.
+     */
+    private static InputStream getBody(URI uri, HttpFetcher.Response response) throws IOException {
+        checkStatus(uri, response);
+        final InputStream result = response.getBodyAsStream();
+        if (result == null) {
+            throw new IOException("Empty SVG from " + uri);
+        }
+        return result;
+    }
+
     /**
      * Just for debugging XML.
      */
@@ -209,4 +244,31 @@ public class SVGTileRenderer extends TileRenderer {
         out.close();
     }
 
+    private static class CountingInputStream extends FilterInputStream {
+        private long count = 0;
+
+        private CountingInputStream(InputStream in) {
+            super(in);
+        }
+
+        public int read() throws IOException {
+            final int result = super.read();
+            if (result >= 0) {
+                count++;
+            }
+            return result;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+            final int result = super.read(b, off, len);
+            if (result > 0) {
+                count += result;
+            }
+            return result;
+        }
+
+        public long getCount() {
+            return count;
+        }
+    }
 }
@@ -0,0 +1,126 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers;
+
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.AttributesImpl;
+import org.xml.sax.helpers.XMLFilterImpl;
+
+import java.io.StringReader;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * SAX filter adapting an SVG map to the resolution of the PDF: multiplies
+ * the line widths, dash arrays, corner radiuses and font sizes by a factor.
+ * <p/>
+ * The elements without namespace are put in the SVG one and the external
+ * DTDs are not loaded.
+ */
+class SvgZoomFilter extends XMLFilterImpl {
+    public static final String SVG_NS = "http://www.w3.org/2000/svg";
+
+    private static final Pattern NUMBER_UNIT = Pattern.compile("^\\s*(\\d*(\\.\\d*)?)(.*)$");
+
+    private final float zoomFactor;
+
+    /**
+     * @param zoomFactor The factor to apply, 1 to leave the values as they are
+     */
+    public SvgZoomFilter(XMLReader parent, float zoomFactor) {
+        super(parent);
+        this.zoomFactor = zoomFactor;
+    }
+
+    public void startElement(String uri, String localName, String qName, Attributes atts) throws SAXException {
+        if (uri == null || uri.length() == 0) {
+            uri = SVG_NS;
+        }
+        super.startElement(uri, localName, qName, zoomFactor != 1.0f ? zoom(atts) : atts);
+    }
+
+    public void endElement(String uri, String localName, String qName) throws SAXException {
+        if (uri == null || uri.length() == 0) {
+            uri = SVG_NS;
+        }
+        super.endElement(uri, localName, qName);
+    }
+
+    public InputSource resolveEntity(String publicId, String systemId) {
+        // the SVG DTD would be downloaded for each tile
+        return new InputSource(new StringReader(""));
+    }
+
+    private Attributes zoom(Attributes atts) {
+        AttributesImpl result = null;
+        for (int i = 0; i < atts.getLength(); ++i) {
+            final String name = atts.getLocalName(i).length() > 0 ? atts.getLocalName(i) : atts.getQName(i);
+            final String value;
+            if (name.equals("stroke-width") || name.equals("rx") || name.equals("ry") || name.equals("font-size")) {
+                value = factorValue(atts.getValue(i), zoomFactor);
+            } else if (name.equals("stroke-dasharray")) {
+                value = factorArray(atts.getValue(i), zoomFactor);
+            } else {
+                continue;
+            }
+            if (result == null) {
+                result = new AttributesImpl(atts);
+            }
+            result.setValue(i, value);
+        }
+        return result != null ? result : atts;
+    }
+
+    /**
+     * Takes a string with numbers separated by ',' and returns this same
+     * string but with the numbers multiplied by the factor.
+     */
+    static String factorArray(String valsTxt, float factor) {
+        String[] vals = valsTxt.split("[,]\\s*");
+
+        StringBuilder result = new StringBuilder();
+        for (int i = 0; i < vals.length; ++i) {
+            if (i > 0) {
+                result.append(",");
+            }
+            result.append(factorValue(vals[i], factor));
+        }
+        return result.toString();
+    }
+
+    /**
+     * Multiplies a number that can be followed by a unit. The values that
+     * are not a number (none, inherit, ...) are returned as they are.
+     */
+    static String factorValue(String valTxt, float factor) {
+        Matcher matcher = NUMBER_UNIT.matcher(valTxt);
+        if (!matcher.matches() || matcher.group(1).length() == 0 || matcher.group(1).equals(".")) {
+            return valTxt;
+        }
+        String txt = String.valueOf(Float.parseFloat(matcher.group(1)) * factor);
+        if (txt.endsWith(".0")) {
+            txt = txt.substring(0, txt.length() - 2);
+        }
+        return txt + matcher.group(3);
+    }
+}
@@ -0,0 +1,398 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers.vector;
+
+import com.lowagie.text.pdf.BaseFont;
+import com.lowagie.text.pdf.PdfContentByte;
+import org.mapfish.print.FontCache;
+import org.mapfish.print.InvalidValueException;
+import org.mapfish.print.PDFUtils;
+import org.mapfish.print.RenderingContext;
+import org.mapfish.print.config.ColorWrapper;
+import org.mapfish.print.utils.PJsonObject;
+
+import java.awt.Color;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+/**
+ * Immutable version of a feature style (see OpenLayers' Feature/Vector.js),
+ * parsed only once per style.
+ * <p/>
+ * The widths and sizes are kept unscaled, the style factor of the rendering
+ * context is applied when drawing. A style that cannot be parsed remembers
+ * the error and throws it when used, like the non-compiled styles did.
+ */
+public class CompiledStyle {
+    private static final DashStyle[] DASH_STYLES = {
+            new DashStyle("dot", new float[]{0, 0.1f, 2, 0}),
+            new DashStyle("dash", new float[]{2, 0, 2, 0}),
+            new DashStyle("dashdot", new float[]{3, 0, 2, 0, 0, 0.1f, 2, 0}),
+            new DashStyle("longdash", new float[]{4, 0, 2, 0}),
+            new DashStyle("longdashdot", new float[]{5, 0, 2, 0, 0, 0.1f, 2, 0}),
+            new DashStyle("solid", null)
+    };
+
+    private final PJsonObject source;
+    private final RuntimeException error;
+
+    private final boolean displayed;
+
+    private final Color strokeColor;
+    private final float strokeOpacity;
+    private final float strokeWidth;
+    private final int lineCap;
+    private final DashStyle dashStyle;
+    private final Color fillColor;
+    private final float fillOpacity;
+
+    private final float pointRadius;
+    private final String graphicName;
+    private final float graphicWidth;
+    private final float graphicHeight;
+    private final float graphicXOffset;
+    private final float graphicYOffset;
+    private final String externalGraphic;
+    private final URI externalGraphicUri;
+    private final float graphicOpacity;
+
+    private final String label;
+    private final int labelHorizontalAlignment;
+    private final float labelVerticalFactor;
+    private final float labelXOffset;
+    private final float labelYOffset;
+    private final Color fontColor;
+    private final BaseFont labelFont;
+    private final float fontSize;
+
+    /**
+     * The last dash pattern computed, to avoid re-allocating it for every
+     * feature, since the width is usually the same for a whole layer.
+     */
+    private volatile DashPattern lastDash = null;
+
+    /**
+     * @return The compiled style or null if the style is null
+     */
+    public static CompiledStyle compile(PJsonObject style) {
+        if (style == null) {
+            return null;
+        }
+        return new CompiledStyle(style);
+    }
+
+    private CompiledStyle(PJsonObject style) {
+        source = style;
+        RuntimeException error = null;
+
+        displayed = !style.optString("display", "yes").equalsIgnoreCase("none");
+
+        Color strokeColor = null;
+        float strokeOpacity = Float.NaN;
+        float strokeWidth = 1.0f;
+        int lineCap = -1;
+        DashStyle dashStyle = null;
+        Color fillColor = null;
+        float fillOpacity = Float.NaN;
+        try {
+            strokeColor = ColorWrapper.convertColor(style.optString("strokeColor"));
+            if (style.optString("strokeOpacity") != null) {
+                strokeOpacity = style.getFloat("strokeOpacity");
+            }
+            strokeWidth = style.optFloat("strokeWidth", 1);
+            lineCap = parseLineCap(style.optString("strokeLinecap"));
+            dashStyle = parseDashStyle(style.optString("strokeDashstyle"));
+            fillColor = ColorWrapper.convertColor(style.optString("fillColor"));
+            if (style.optString("fillOpacity") != null) {
+                fillOpacity = style.getFloat("fillOpacity");
+            }
+        } catch (RuntimeException e) {
+            error = e;
+        }
+        this.strokeColor = strokeColor;
+        this.strokeOpacity = strokeOpacity;
+        this.strokeWidth = strokeWidth;
+        this.lineCap = lineCap;
+        this.dashStyle = dashStyle;
+        this.fillColor = fillColor;
+        this.fillOpacity = fillOpacity;
+
+        pointRadius = style.optFloat("pointRadius", 4.0f);
+        graphicName = style.optString("graphicName");
+        graphicWidth = style.optFloat("graphicWidth", pointRadius * 2.0f);
+        graphicHeight = style.optFloat("graphicHeight", pointRadius * 2.0f);
+        graphicXOffset = style.optFloat("graphicXOffset", -graphicWidth / 2.0f);
+        graphicYOffset = style.optFloat("graphicYOffset", -graphicHeight / 2.0f);
+        externalGraphic = style.optString("externalGraphic");
+        URI externalGraphicUri = null;
+        if (externalGraphic != null) {
+            try {
+                externalGraphicUri = new URI(externalGraphic);
+            } catch (URISyntaxException e) {
+                // reported when rendering, see getExternalGraphicUri
+            }
+        }
+        this.externalGraphicUri = externalGraphicUri;
+        graphicOpacity = style.optFloat("graphicOpacity", style.optFloat("fillOpacity", 1.0f));
+
+        label = style.optString("label");
+        /*
+         * Valid values for horizontal alignment: "l"=left, "c"=center,
+         * "r"=right. Valid values for vertical alignment: "t"=top,
+         * "m"=middle, "b"=bottom.
+         */
+        final String labelAlign = style.optString("labelAlign", "cm");
+        labelHorizontalAlignment = PDFUtils.getHorizontalAlignment(labelAlign);
+        labelVerticalFactor = PDFUtils.getVerticalOffset(labelAlign, 1.0f);
+        labelXOffset = style.optFloat("labelXOffset", 0.0f);
+        labelYOffset = style.optFloat("labelYOffset", 0.0f);
+        Color fontColor = null;
+        BaseFont labelFont = null;
+        float fontSize = 12.0f;
+        if (hasLabel()) {
+            try {
+                fontColor = ColorWrapper.convertColor(style.optString("fontColor", "#000000"));
+                /* Supported itext fonts: COURIER, HELVETICA, TIMES_ROMAN */
+                labelFont = FontCache.getLabelFont(style.optString("fontFamily", "HELVETICA"),
+                        style.optString("fontWeight", "normal"));
+                fontSize = Float.parseFloat(style.optString("fontSize", "12").toLowerCase().replaceAll("px", ""));
+            } catch (RuntimeException e) {
+                if (error == null) {
+                    error = e;
+                }
+            }
+        }
+        this.fontColor = fontColor;
+        this.labelFont = labelFont;
+        this.fontSize = fontSize;
+
+        this.error = error;
+    }
+
+    private static int parseLineCap(String linecap) {
+        if (linecap == null) {
+            return -1;
+        } else if (linecap.equalsIgnoreCase("butt")) {
+            return PdfContentByte.LINE_CAP_BUTT;
+        } else if (linecap.equalsIgnoreCase("round")) {
+            return PdfContentByte.LINE_CAP_ROUND;
+        } else if (linecap.equalsIgnoreCase("square")) {
+            return PdfContentByte.LINE_CAP_PROJECTING_SQUARE;
+        } else {
+            throw new InvalidValueException("strokeLinecap", linecap);
+        }
+    }
+
+    private static DashStyle parseDashStyle(String name) {
+        if (name == null) {
+            return null;
+        }
+        for (int i = 0; i < DASH_STYLES.length; ++i) {
+            if (DASH_STYLES[i].name.equalsIgnoreCase(name)) {
+                return DASH_STYLES[i];
+            }
+        }
+        throw new InvalidValueException("strokeDashstyle", name);
+    }
+
+    /**
+     * Throws the error found while parsing the style, if any.
+     */
+    public void checkValid() {
+        if (error != null) {
+            throw error;
+        }
+    }
+
+    public PJsonObject getSource() {
+        return source;
+    }
+
+    public boolean isDisplayed() {
+        return displayed;
+    }
+
+    /**
+     * Sets the line color, width, cap and dash pattern.
+     */
+    public void applyStroke(RenderingContext context, PdfContentByte dc) {
+        if (strokeColor != null) {
+            dc.setColorStroke(strokeColor);
+        }
+        final float width = strokeWidth * context.getStyleFactor();
+        dc.setLineWidth(width);
+        if (lineCap >= 0) {
+            dc.setLineCap(lineCap);
+        }
+        if (dashStyle != null && dashStyle.factors != null) {
+            dc.setLineDash(getDashPattern(width), 0);
+        }
+    }
+
+    /**
+     * Sets the stroke and the fill color.
+     */
+    public void applyStrokeAndFill(RenderingContext context, PdfContentByte dc) {
+        applyStroke(context, dc);
+        if (fillColor != null) {
+            dc.setColorFill(fillColor);
+        }
+    }
+
+    private float[] getDashPattern(float width) {
+        DashPattern cur = lastDash;
+        if (cur == null || cur.width != width || cur.style != dashStyle) {
+            cur = new DashPattern(dashStyle, width);
+            lastDash = cur;
+        }
+        return cur.pattern;
+    }
+
+    /**
+     * @return The stroke opacity or NaN if not specified.
+     */
+    public float getStrokeOpacity() {
+        return strokeOpacity;
+    }
+
+    /**
+     * @return The fill opacity or NaN if not specified.
+     */
+    public float getFillOpacity() {
+        return fillOpacity;
+    }
+
+    public float getPointRadius() {
+        return pointRadius;
+    }
+
+    public String getGraphicName() {
+        return graphicName;
+    }
+
+    public float getGraphicWidth() {
+        return graphicWidth;
+    }
+
+    public float getGraphicHeight() {
+        return graphicHeight;
+    }
+
+    public float getGraphicXOffset() {
+        return graphicXOffset;
+    }
+
+    public float getGraphicYOffset() {
+        return graphicYOffset;
+    }
+
+    public String getExternalGraphic() {
+        return externalGraphic;
+    }
+
+    /**
+     * @return The URI of the external graphic.
+     * @throws URISyntaxException If it is not a valid URI
+     */
+    public URI getExternalGraphicUri() throws URISyntaxException {
+        if (externalGraphicUri == null) {
+            return new URI(externalGraphic);
+        }
+        return externalGraphicUri;
+    }
+
+    public float getGraphicOpacity() {
+        return graphicOpacity;
+    }
+
+    public boolean hasLabel() {
+        return label != null && label.length() > 0;
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    /**
+     * @return One of the PdfContentByte.ALIGN_* constants
+     */
+    public int getLabelHorizontalAlignment() {
+        return labelHorizontalAlignment;
+    }
+
+    /**
+     * @return The distance between the anchor point and the text's baseline
+     */
+    public float getLabelVerticalOffset(float fontHeight) {
+        return labelVerticalFactor * fontHeight;
+    }
+
+    public float getLabelXOffset() {
+        return labelXOffset;
+    }
+
+    public float getLabelYOffset() {
+        return labelYOffset;
+    }
+
+    public Color getFontColor() {
+        return fontColor;
+    }
+
+    public BaseFont getLabelFont() {
+        return labelFont;
+    }
+
+    /**
+     * @return The unscaled font size of the label
+     */
+    public float getFontSize() {
+        return fontSize;
+    }
+
+    /**
+     * A strokeDashstyle value. Each element of the pattern is given as a
+     * factor of the line width plus a constant.
+     */
+    private static class DashStyle {
+        private final String name;
+        private final float[] factors;
+
+        private DashStyle(String name, float[] factors) {
+            this.name = name;
+            this.factors = factors;
+        }
+    }
+
+    private static class DashPattern {
+        private final DashStyle style;
+        private final float width;
+        private final float[] pattern;
+
+        private DashPattern(DashStyle style, float width) {
+            this.style = style;
+            this.width = width;
+            pattern = new float[style.factors.length / 2];
+            for (int i = 0; i < pattern.length; ++i) {
+                pattern[i] = style.factors[i * 2] * width + style.factors[i * 2 + 1];
+            }
+        }
+    }
+}
@@ -25,6 +25,7 @@ import org.mapfish.geo.MfFeature;
 import org.mapfish.geo.MfGeometry;
 import org.mapfish.print.RenderingContext;
 import com.lowagie.text.pdf.PdfContentByte;
+import com.vividsolutions.jts.geom.Geometry;
 
 import java.util.Map;
 import java.util.HashMap;
@@ -41,37 +42,57 @@ public abstract class FeaturesRenderer<T extends MfGeo> {
         RENDERERS.put(MfGeometry.class, new GeometryRenderer());
     }
 
-    @SuppressWarnings({"RawUseOfParameterizedType", "unchecked"})
     public static void render(RenderingContext context, PdfContentByte dc, MfGeo geo) {
+        render(context, dc, geo, null);
+    }
+
+    /**
+     * @param generalizer If not null, used to cull and simplify the geometries before rendering them
+     */
+    @SuppressWarnings({"RawUseOfParameterizedType", "unchecked"})
+    public static void render(RenderingContext context, PdfContentByte dc, MfGeo geo, GeometryGeneralizer generalizer) {
         FeaturesRenderer renderer = RENDERERS.get(geo.getClass());
         if (renderer == null) {
             throw new RuntimeException("Rendering of " + geo.getClass().getName() + " not supported");
         }
-        renderer.renderImpl(context, dc, geo);
+        renderer.renderImpl(context, dc, geo, generalizer);
     }
 
-    protected abstract void renderImpl(RenderingContext context, PdfContentByte dc, T geo);
+    protected abstract void renderImpl(RenderingContext context, PdfContentByte dc, T geo, GeometryGeneralizer generalizer);
+
+    private static Geometry generalize(GeometryGeneralizer generalizer, CompiledStyle style, Geometry geometry) {
+        if (generalizer == null) {
+            return geometry;
+        }
+        return generalizer.generalize(geometry, style != null && style.hasLabel());
+    }
 
     private static class FeatureRenderer extends FeaturesRenderer<StyledMfFeature> {
-        protected void renderImpl(RenderingContext context, PdfContentByte dc, StyledMfFeature geo) {
+        protected void renderImpl(RenderingContext context, PdfContentByte dc, StyledMfFeature geo, GeometryGeneralizer generalizer) {
             final MfGeometry theGeom = geo.getMfGeometry();
             if (theGeom != null && geo.isDisplayed()) {
-                GeometriesRenderer.render(context, dc, geo.getStyle(), theGeom.getInternalGeometry());
+                final Geometry geometry = generalize(generalizer, geo.getCompiledStyle(), theGeom.getInternalGeometry());
+                if (geometry != null) {
+                    GeometriesRenderer.render(context, dc, geo.getCompiledStyle(), geometry);
+                }
             }
         }
     }
 
     private static class FeatureCollectionRenderer extends FeaturesRenderer<MfFeatureCollection> {
-        protected void renderImpl(RenderingContext context, PdfContentByte dc, MfFeatureCollection geo) {
+        protected void renderImpl(RenderingContext context, PdfContentByte dc, MfFeatureCollection geo, GeometryGeneralizer generalizer) {
             for (MfFeature cur : geo.getCollection()) {
-                render(context, dc, cur);
+                render(context, dc, cur, generalizer);
             }
         }
     }
 
     private static class GeometryRenderer extends FeaturesRenderer<MfGeometry> {
-        protected void renderImpl(RenderingContext context, PdfContentByte dc, MfGeometry geo) {
-            GeometriesRenderer.render(context, dc, null, geo.getInternalGeometry());
+        protected void renderImpl(RenderingContext context, PdfContentByte dc, MfGeometry geo, GeometryGeneralizer generalizer) {
+            final Geometry geometry = generalize(generalizer, null, geo.getInternalGeometry());
+            if (geometry != null) {
+                GeometriesRenderer.render(context, dc, null, geometry);
+            }
         }
     }
 }
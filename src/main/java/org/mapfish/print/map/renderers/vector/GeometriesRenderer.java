@@ -23,7 +23,6 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.mapfish.print.RenderingContext;
-import org.mapfish.print.utils.PJsonObject;
 
 import com.lowagie.text.pdf.PdfContentByte;
 import com.vividsolutions.jts.geom.Geometry;
@@ -38,6 +37,10 @@ import com.vividsolutions.jts.geom.Polygon;
 
 /**
  * iText renderer for JTS geometries.
+ * <p/>
+ * May be called from several threads at the same time, each one drawing in
+ * its own PdfTemplate. The calls that register resources in the PdfWriter
+ * must be protected with the context's PDF lock.
  */
 public abstract class GeometriesRenderer<T extends Geometry> {
     private static final Map<Class<? extends Geometry>, GeometriesRenderer<?>> RENDERERS =
@@ -55,11 +58,14 @@ public abstract class GeometriesRenderer<T extends Geometry> {
     }
 
     @SuppressWarnings({"RawUseOfParameterizedType", "unchecked"})
-    protected static void render(RenderingContext context, PdfContentByte dc, PJsonObject style, Geometry geometry) {
+    protected static void render(RenderingContext context, PdfContentByte dc, CompiledStyle style, Geometry geometry) {
         GeometriesRenderer renderer = RENDERERS.get(geometry.getClass());
         if (renderer == null) {
             throw new RuntimeException("Rendering of " + geometry.getClass().getName() + " not supported");
         }
+        if (style != null) {
+            style.checkValid();
+        }
         dc.saveState();
         try {
             renderer.renderImpl(context, dc, style, geometry);
@@ -69,10 +75,27 @@ public abstract class GeometriesRenderer<T extends Geometry> {
         }
     }
 
-    protected abstract void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, T geometry);
+    protected abstract void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, T geometry);
+
+    /**
+     * Sets the graphic state, that is registered in the PdfWriter. The same
+     * opacities give the same PDF resource.
+     *
+     * @param fillOpacity   The fill opacity or NaN if not specified
+     * @param strokeOpacity The stroke opacity or NaN if not specified
+     */
+    protected static void setGState(RenderingContext context, PdfContentByte dc, float fillOpacity, float strokeOpacity) {
+        if (Float.isNaN(fillOpacity) && Float.isNaN(strokeOpacity)) {
+            // empty graphic state and the state is restored after each geometry
+            return;
+        }
+        synchronized (context.getPdfLock()) {
+            dc.setGState(context.getGraphicState(fillOpacity, strokeOpacity));
+        }
+    }
 
     private static class GeometryCollectionRenderer extends GeometriesRenderer<GeometryCollection> {
-        protected void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, GeometryCollection geometry) {
+        protected void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, GeometryCollection geometry) {
             for (int i = 0; i < geometry.getNumGeometries(); ++i) {
                 render(context, dc, style, geometry.getGeometryN(i));
             }
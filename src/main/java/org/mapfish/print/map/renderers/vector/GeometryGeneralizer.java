@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers.vector;
+
+import com.vividsolutions.jts.geom.Envelope;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.MultiPoint;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.simplify.DouglasPeuckerSimplifier;
+import org.apache.log4j.Logger;
+import org.mapfish.print.Transformer;
+
+/**
+ * Reduces the geometries of a vector layer to what can be seen on the map
+ * before they are written in the PDF:
+ * <ul>
+ * <li>the geometries outside of the (rotated) map extent are dropped;
+ * <li>the geometries much bigger than the extent are clipped to it;
+ * <li>the vertices closer than half an output pixel are merged.
+ * </ul>
+ * Not thread safe, use one instance per layer rendering.
+ */
+public class GeometryGeneralizer {
+    public static final Logger LOGGER = Logger.getLogger(GeometryGeneralizer.class);
+
+    /**
+     * Margin, in PDF points, added around the extent for the strokes and the
+     * symbols of the geometries just outside of it.
+     */
+    private static final float MARGIN = 100.0f;
+
+    /**
+     * A geometry is clipped only if it's that many times bigger than the extent.
+     */
+    private static final double CLIP_RATIO = 2.0;
+
+    private final Envelope extent;
+    private Geometry extentGeometry = null;
+    private final double tolerance;
+
+    private int nbFeaturesIn = 0;
+    private int nbFeaturesCulled = 0;
+    private int nbFeaturesClipped = 0;
+    private long nbVerticesIn = 0;
+    private long nbVerticesOut = 0;
+    private long time = 0;
+
+    public GeometryGeneralizer(Transformer transformer) {
+        final double margin = MARGIN * transformer.getGeoW() / transformer.getPaperW();
+        extent = new Envelope(transformer.getRotatedMinGeoX() - margin, transformer.getRotatedMaxGeoX() + margin,
+                transformer.getRotatedMinGeoY() - margin, transformer.getRotatedMaxGeoY() + margin);
+        tolerance = transformer.getResolution() / 2.0;
+    }
+
+    /**
+     * @param labelled True if a label is drawn at the centroid of the
+     *                 geometry. Such geometries are not clipped, to keep
+     *                 the label at the same place.
+     * @return The geometry to render or null if it's not visible.
+     */
+    public Geometry generalize(Geometry geometry, boolean labelled) {
+        final long start = System.currentTimeMillis();
+        try {
+            nbFeaturesIn++;
+            final int nbVertices = geometry.getNumPoints();
+            nbVerticesIn += nbVertices;
+
+            final Envelope envelope = geometry.getEnvelopeInternal();
+            if (!extent.intersects(envelope)) {
+                nbFeaturesCulled++;
+                return null;
+            }
+            if (geometry instanceof Point || geometry instanceof MultiPoint) {
+                nbVerticesOut += nbVertices;
+                return geometry;
+            }
+
+            Geometry result = geometry;
+            if (!labelled && isMuchBigger(envelope)) {
+                result = clip(result);
+            }
+            if (tolerance > 0.0) {
+                result = simplify(result);
+            }
+            nbVerticesOut += result.getNumPoints();
+            return result;
+        } finally {
+            time += System.currentTimeMillis() - start;
+        }
+    }
+
+    private boolean isMuchBigger(Envelope envelope) {
+        return !extent.contains(envelope) &&
+                (envelope.getWidth() > extent.getWidth() * CLIP_RATIO ||
+                        envelope.getHeight() > extent.getHeight() * CLIP_RATIO);
+    }
+
+    private Geometry clip(Geometry geometry) {
+        if (extentGeometry == null) {
+            extentGeometry = geometry.getFactory().toGeometry(extent);
+        }
+        try {
+            final Geometry result = geometry.intersection(extentGeometry);
+            if (result.isEmpty()) {
+                return geometry;
+            }
+            nbFeaturesClipped++;
+            return result;
+        } catch (RuntimeException e) {
+            // invalid geometries can make JTS fail, draw them as they are
+            LOGGER.debug("Cannot clip a geometry, rendering it completely", e);
+            return geometry;
+        }
+    }
+
+    private Geometry simplify(Geometry geometry) {
+        final DouglasPeuckerSimplifier simplifier = new DouglasPeuckerSimplifier(geometry);
+        simplifier.setDistanceTolerance(tolerance);
+        // the PDF doesn't care about the validity and fixing it is expensive
+        simplifier.setEnsureValid(false);
+        try {
+            final Geometry result = simplifier.getResultGeometry();
+            // smaller than a pixel: keep it, it's cheap and may still be visible with its stroke
+            return result.isEmpty() ? geometry : result;
+        } catch (RuntimeException e) {
+            LOGGER.debug("Cannot simplify a geometry, rendering it completely", e);
+            return geometry;
+        }
+    }
+
+    public void logStats(String layerName) {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Layer " + layerName + ": " + nbFeaturesIn + " geometries (" + nbFeaturesCulled + " culled, " +
+                    nbFeaturesClipped + " clipped), " + nbVerticesIn + " => " + nbVerticesOut + " vertices in " +
+                    time + "ms");
+        }
+    }
+}
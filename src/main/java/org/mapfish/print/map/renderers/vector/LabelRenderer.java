@@ -19,10 +19,8 @@
 
 package org.mapfish.print.map.renderers.vector;
 
-import org.mapfish.print.PDFUtils;
+import org.mapfish.print.FontCache;
 import org.mapfish.print.RenderingContext;
-import org.mapfish.print.config.ColorWrapper;
-import org.mapfish.print.utils.PJsonObject;
 
 import com.lowagie.text.pdf.BaseFont;
 import com.lowagie.text.pdf.PdfContentByte;
@@ -32,57 +30,39 @@ import com.vividsolutions.jts.geom.Point;
 public class LabelRenderer {
 
 	static void applyStyle(RenderingContext context, PdfContentByte dc,
-			PJsonObject style, Geometry geometry) {
+			CompiledStyle style, Geometry geometry) {
 		/*
 		 * See Feature/Vector.js for more information about labels
 		 */
-		String label = style.optString("label");
-
-		if (label != null && label.length() > 0) {
-			/*
-			 * Valid values for horizontal alignment: "l"=left, "c"=center,
-			 * "r"=right. Valid values for vertical alignment: "t"=top,
-			 * "m"=middle, "b"=bottom.
-			 */
-			String labelAlign = style.optString("labelAlign", "cm");
-			float labelXOffset = style.optFloat("labelXOffset", (float) 0.0);
-			float labelYOffset = style.optFloat("labelYOffset", (float) 0.0);
-			String fontColor = style.optString("fontColor", "#000000");
-			/* Supported itext fonts: COURIER, HELVETICA, TIMES_ROMAN */
-			String fontFamily = style.optString("fontFamily", "HELVETICA");
-			if (!"COURIER".equalsIgnoreCase(fontFamily)
-					|| !"HELVETICA".equalsIgnoreCase(fontFamily)
-					|| !"TIMES_ROMAN".equalsIgnoreCase(fontFamily)) {
-
-				System.out.println("Font: '"+ fontFamily + 
-						"' not supported, supported fonts are 'HELVETICA', " +
-						"'COURIER', 'TIMES_ROMAN', defaults to 'HELVETICA'");
-				fontFamily = "HELVETICA";
-			}
-			String fontSize = style.optString("fontSize", "12");
-			String fontWeight = style.optString("fontWeight", "normal");
+		if (style != null && style.hasLabel()) {
+			String label = style.getLabel();
+			float labelXOffset = style.getLabelXOffset();
+			float labelYOffset = style.getLabelYOffset();
 			Point center = geometry.getCentroid();
 			float f = context.getStyleFactor();
-			BaseFont bf = PDFUtils
-					.getBaseFont(fontFamily, fontSize, fontWeight);
-			float fontHeight = (float) Double.parseDouble(fontSize
-					.toLowerCase().replaceAll("px", "")) * f;
-			dc.setFontAndSize(bf, fontHeight);
-			dc.setColorFill(ColorWrapper.convertColor(fontColor));
-			dc.beginText();
-			dc.setTextMatrix((float) center.getX() + labelXOffset * f,
-					(float) center.getY() + labelYOffset * f);
-			dc.showTextAligned(
-					PDFUtils.getHorizontalAlignment(labelAlign),
-					label,
-					(float) center.getX() + labelXOffset * f,
-					(float) center.getY()
-							+ labelYOffset
-							* f
-							- PDFUtils
-									.getVerticalOffset(labelAlign, fontHeight),
-					0);
-			dc.endText();
+			BaseFont bf = style.getLabelFont();
+			float fontHeight = style.getFontSize() * f;
+			float x = (float) center.getX() + labelXOffset * f;
+			float y = (float) center.getY() + labelYOffset * f
+					- style.getLabelVerticalOffset(fontHeight);
+			// same as showTextAligned, with the width taken from the cache
+			switch (style.getLabelHorizontalAlignment()) {
+			case PdfContentByte.ALIGN_CENTER:
+				x -= FontCache.getWidthPoint(bf, label, fontHeight) / 2;
+				break;
+			case PdfContentByte.ALIGN_RIGHT:
+				x -= FontCache.getWidthPoint(bf, label, fontHeight);
+				break;
+			}
+			// the font is registered in the PdfWriter
+			synchronized (context.getPdfLock()) {
+				dc.setFontAndSize(bf, fontHeight);
+				dc.setColorFill(style.getFontColor());
+				dc.beginText();
+				dc.setTextMatrix(x, y);
+				dc.showText(label);
+				dc.endText();
+			}
 		}
 	}
 }
\ No newline at end of file
@@ -19,11 +19,13 @@
 
 package org.mapfish.print.map.renderers.vector;
 
+import java.io.IOException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.util.HashMap;
 import java.util.Map;
 
+import org.json.JSONObject;
 import org.mapfish.print.InvalidValueException;
 import org.mapfish.print.PDFUtils;
 import org.mapfish.print.RenderingContext;
@@ -33,7 +35,6 @@ import com.lowagie.text.BadElementException;
 import com.lowagie.text.DocumentException;
 import com.lowagie.text.Image;
 import com.lowagie.text.pdf.PdfContentByte;
-import com.lowagie.text.pdf.PdfGState;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Point;
 
@@ -49,6 +50,11 @@ public class PointRenderer extends GeometriesRenderer<Point> {
 
     private static final Map<String, float[]> SYMBOLS = new HashMap<String, float[]>();
 
+    /**
+     * Used for the points without style.
+     */
+    private static final CompiledStyle DEFAULT_STYLE = CompiledStyle.compile(new PJsonObject(new JSONObject(), "style"));
+
     static {
         SYMBOLS.put("star", normalizeSymbol(new float[]{350, 75, 379, 161, 469, 161, 397, 215, 423, 301, 350, 250, 277, 301, 303, 215, 231, 161, 321, 161, 350, 75}));
         SYMBOLS.put("cross", normalizeSymbol(new float[]{4, 0, 6, 0, 6, 4, 10, 4, 10, 6, 6, 6, 6, 10, 4, 10, 4, 6, 0, 6, 0, 4, 4, 4, 4, 0}));
@@ -79,30 +85,38 @@ public class PointRenderer extends GeometriesRenderer<Point> {
         return coords;
     }
 
-    protected void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, Point geometry) {
-        PdfGState state = new PdfGState();
+    protected void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, Point geometry) {
+        if (style == null) {
+            style = DEFAULT_STYLE;
+        }
         final Coordinate coordinate = geometry.getCoordinate();
-        float pointRadius = style.optFloat("pointRadius", 4.0f);
         final float f = context.getStyleFactor();
 
-        String graphicName = style.optString("graphicName");
-        float width = style.optFloat("graphicWidth", pointRadius * 2.0f);
-        float height = style.optFloat("graphicHeight", pointRadius * 2.0f);
-        float offsetX = style.optFloat("graphicXOffset", -width / 2.0f);
-        float offsetY = style.optFloat("graphicYOffset", -height / 2.0f);
-        
-        // See Feature/Vector.js for more information about labels 
-        String label = style.optString("label");
-        
-        if (style.optString("externalGraphic") != null) {
-            float opacity = style.optFloat("graphicOpacity", style.optFloat("fillOpacity", 1.0f));
-            state.setFillOpacity(opacity);
-            state.setStrokeOpacity(opacity);
-            dc.setGState(state);
+        String graphicName = style.getGraphicName();
+        float width = style.getGraphicWidth();
+        float height = style.getGraphicHeight();
+        float offsetX = style.getGraphicXOffset();
+        float offsetY = style.getGraphicYOffset();
+
+        if (style.getExternalGraphic() != null) {
+            float opacity = style.getGraphicOpacity();
+            setGState(context, dc, opacity, opacity);
             try {
-                Image image = PDFUtils.createImage(context, width * f, height * f, new URI(style.getString("externalGraphic")), 0.0f);
-                image.setAbsolutePosition((float) coordinate.x + offsetX * f, (float) coordinate.y + offsetY * f);
-                dc.addImage(image);
+                final URI uri = style.getExternalGraphicUri();
+                final Image image;
+                if (uri.getPath() != null && uri.getPath().toLowerCase().endsWith(".svg")) {
+                    image = PDFUtils.createImageFromSVG(context, uri, width * f, height * f);
+                } else {
+                    image = PDFUtils.createImage(context, width * f, height * f, uri, 0.0f);
+                }
+                if (image != null) {
+                    image.setAbsolutePosition((float) coordinate.x + offsetX * f, (float) coordinate.y + offsetY * f);
+                    synchronized (context.getPdfLock()) {
+                        dc.addImage(image);
+                    }
+                }
+            } catch (IOException e) {
+                context.addError(e);
             } catch (BadElementException e) {
                 context.addError(e);
             } catch (URISyntaxException e) {
@@ -112,25 +126,23 @@ public class PointRenderer extends GeometriesRenderer<Point> {
             }
 
         } else if (graphicName != null && !graphicName.equalsIgnoreCase("circle")) {
-            PolygonRenderer.applyStyle(context, dc, style, state);
+            PolygonRenderer.applyStyle(context, dc, style);
             float[] symbol = SYMBOLS.get(graphicName);
             if (symbol == null) {
                 throw new InvalidValueException("graphicName", graphicName);
             }
-            dc.setGState(state);
             dc.moveTo((float) coordinate.x + symbol[0] * width * f + offsetX * f, (float) coordinate.y + symbol[1] * height * f + offsetY * f);
             for (int i = 2; i < symbol.length - 2; i += 2) {
                 dc.lineTo((float) coordinate.x + symbol[i] * width * f + offsetX * f, (float) coordinate.y + symbol[i + 1] * height * f + offsetY * f);
             }
             dc.closePath();
             dc.fillStroke();
-        } else if (label != null && label.length() > 0) {
+        } else if (style.hasLabel()) {
             // rendered by LabelRenderer
         } else {
-            PolygonRenderer.applyStyle(context, dc, style, state);
-            dc.setGState(state);
+            PolygonRenderer.applyStyle(context, dc, style);
 
-            dc.circle((float) coordinate.x, (float) coordinate.y, pointRadius * f);
+            dc.circle((float) coordinate.x, (float) coordinate.y, style.getPointRadius() * f);
             dc.fillStroke();
         }
     }
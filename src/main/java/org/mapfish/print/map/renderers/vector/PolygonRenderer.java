@@ -23,28 +23,17 @@ import com.vividsolutions.jts.geom.Polygon;
 import com.vividsolutions.jts.geom.LineString;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.lowagie.text.pdf.PdfContentByte;
-import com.lowagie.text.pdf.PdfGState;
-import org.mapfish.print.utils.PJsonObject;
-import org.mapfish.print.config.ColorWrapper;
 import org.mapfish.print.RenderingContext;
 
 class PolygonRenderer extends GeometriesRenderer<Polygon> {
-    protected static void applyStyle(RenderingContext context, PdfContentByte dc, PJsonObject style, PdfGState state) {
+    protected static void applyStyle(RenderingContext context, PdfContentByte dc, CompiledStyle style) {
         if (style == null) return;
-        LineStringRenderer.applyStyle(context, dc, style, state);
-
-        if (style.optString("fillColor") != null) {
-            dc.setColorFill(ColorWrapper.convertColor(style.getString("fillColor")));
-        }
-        if (style.optString("fillOpacity") != null) {
-            state.setFillOpacity(style.getFloat("fillOpacity"));
-        }
+        style.applyStrokeAndFill(context, dc);
+        setGState(context, dc, style.getFillOpacity(), style.getStrokeOpacity());
     }
 
-    protected void renderImpl(RenderingContext context, PdfContentByte dc, PJsonObject style, Polygon geometry) {
-        PdfGState state = new PdfGState();
-        applyStyle(context, dc, style, state);
-        dc.setGState(state);
+    protected void renderImpl(RenderingContext context, PdfContentByte dc, CompiledStyle style, Polygon geometry) {
+        applyStyle(context, dc, style);
 
         final LineString ring = geometry.getExteriorRing();
         renderRing(dc, ring);
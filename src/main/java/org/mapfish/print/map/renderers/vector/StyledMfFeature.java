@@ -31,12 +31,21 @@ import org.json.JSONException;
 public class StyledMfFeature extends MfFeature {
     private final String id;
     private final MfGeometry geometry;
-    private PJsonObject style;
+    private final PJsonObject style;
+    private final CompiledStyle compiledStyle;
 
     public StyledMfFeature(String id, MfGeometry geometry, PJsonObject style) {
+        this(id, geometry, style, CompiledStyle.compile(style));
+    }
+
+    /**
+     * @param compiledStyle The compiled version of the style, can be shared with other features
+     */
+    public StyledMfFeature(String id, MfGeometry geometry, PJsonObject style, CompiledStyle compiledStyle) {
         this.id = id;
         this.geometry = geometry;
         this.style = style;
+        this.compiledStyle = compiledStyle;
     }
 
     public String getFeatureId() {
@@ -55,7 +64,11 @@ public class StyledMfFeature extends MfFeature {
         return style;
     }
 
+    public CompiledStyle getCompiledStyle() {
+        return compiledStyle;
+    }
+
     public boolean isDisplayed() {
-        return style==null || !style.optString("display", "yes").equalsIgnoreCase("none");
+        return compiledStyle == null || compiledStyle.isDisplayed();
     }
 }
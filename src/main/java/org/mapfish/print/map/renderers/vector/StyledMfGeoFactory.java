@@ -25,6 +25,9 @@ import org.mapfish.geo.MfGeometry;
 import org.mapfish.print.utils.PJsonObject;
 import org.json.JSONObject;
 
+import java.util.HashMap;
+import java.util.Map;
+
 /**
  * MfFactory that affects a styling object to the Features.
  */
@@ -35,6 +38,11 @@ public class StyledMfGeoFactory extends MfGeoFactory {
     private PJsonObject styles;
     private String styleProperty;
 
+    /**
+     * The named styles already compiled, shared by all the features using them.
+     */
+    private final Map<String, CompiledStyle> compiledStyles = new HashMap<String, CompiledStyle>();
+
     public StyledMfGeoFactory(PJsonObject styles, String styleProperty) {
         this.styles = styles;
         this.styleProperty = styleProperty;
@@ -42,17 +50,24 @@ public class StyledMfGeoFactory extends MfGeoFactory {
 
     public MfFeature createFeature(String id, MfGeometry geometry, JSONObject properties) {
         PJsonObject style = null;
+        CompiledStyle compiledStyle = null;
         if (styles != null) {
             JSONObject direct = properties.optJSONObject(styleProperty);
             if (direct != null) {
                 style = new PJsonObject(direct, "feature.properties." + styleProperty);
+                compiledStyle = CompiledStyle.compile(style);
             } else {
                 final String styleName = properties.optString(styleProperty);
                 if (styleName != null) {
                     style = styles.getJSONObject(styleName);
+                    compiledStyle = compiledStyles.get(styleName);
+                    if (compiledStyle == null) {
+                        compiledStyle = CompiledStyle.compile(style);
+                        compiledStyles.put(styleName, compiledStyle);
+                    }
                 }
             }
         }
-        return new StyledMfFeature(id, geometry, style);
+        return new StyledMfFeature(id, geometry, style, compiledStyle);
     }
 }
@@ -19,10 +19,18 @@
 
 package org.mapfish.print.output;
 
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
 
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
 /**
  * User: jeichar
  * Date: 10/21/10
@@ -62,4 +70,48 @@ abstract class AbstractImageFormat implements OutputFormat {
         }
         return dpi;
     }
+
+    /**
+     * @return The size of the image {@link PDPage#convertToImage(int, int)} will create.
+     */
+    protected static Dimension getPageSize(PDPage page, int dpi) {
+        final PDRectangle mediaBox = page.findMediaBox();
+        final float scaling = dpi / 72f;
+        int width = Math.round(mediaBox.getWidth() * scaling);
+        int height = Math.round(mediaBox.getHeight() * scaling);
+        final int rotation = page.findRotation();
+        if (rotation == 90 || rotation == 270) {
+            int tmp = width;
+            width = height;
+            height = tmp;
+        }
+        return new Dimension(width, height);
+    }
+
+    /**
+     * Rasterizes the pages one after the other and streams their rows to
+     * the PNG encoder, so only one page is in memory at a time.
+     */
+    protected static void writePng(OutputStream out, List<PDPage> pages, int dpi, int compressionLevel) throws IOException {
+        int width = 0;
+        int height = 0;
+        for (int i = 0; i < pages.size(); ++i) {
+            final Dimension size = getPageSize(pages.get(i), dpi);
+            width = Math.max(width, size.width);
+            height += size.height;
+            if (i > 0) {
+                height += (int) MARGIN;
+            }
+        }
+
+        final PngEncoder encoder = new PngEncoder(out, width, height, true, compressionLevel);
+        for (int i = 0; i < pages.size(); ++i) {
+            if (i > 0) {
+                encoder.writeEmptyRows((int) MARGIN);
+            }
+            BufferedImage img = pages.get(i).convertToImage(BufferedImage.TYPE_INT_ARGB, dpi);
+            encoder.writeRows(img, 0, img.getHeight());
+        }
+        encoder.finish();
+    }
 }
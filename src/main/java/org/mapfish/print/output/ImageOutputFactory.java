@@ -103,11 +103,18 @@ public class ImageOutputFactory implements OutputFormatFactory {
                 }
 
                 TimeLogger timeLog = TimeLogger.info(LOGGER, "Pdf to image conversion");
-                List<BufferedImage> images = createImages(jsonSpec, tmpFile, context);
-                timeLog.done();
-
-                timeLog = TimeLogger.info(LOGGER, "Write Image");
-                drawImage(out, images);
+                PDDocument pdf = PDDocument.load(tmpFile);
+                try {
+                    List<PDPage> pages = pdf.getDocumentCatalog().getAllPages();
+                    final int dpi = calculateDPI(context, jsonSpec);
+                    if ("png".equalsIgnoreCase(format)) {
+                        writePng(out, pages, dpi, printer.getConfig().getPngCompressionLevel());
+                    } else {
+                        drawImage(out, createImages(pages, dpi));
+                    }
+                } finally {
+                    pdf.close();
+                }
                 timeLog.done();
 
                 return context;
@@ -149,21 +156,16 @@ public class ImageOutputFactory implements OutputFormatFactory {
             RenderingHints hints = new RenderingHints(JAI.KEY_TILE_CACHE, cache);
 
             RenderedOp mosaic = JAI.create("mosaic", pbMosaic, hints);
-            ImageIO.write(mosaic, "TIFF", out);
+            ImageIO.write(mosaic, format, out);
         }
 
-        private List<BufferedImage> createImages(PJsonObject jsonSpec, File tmpFile, RenderingContext context) throws IOException {
-            List<BufferedImage> images = new ArrayList<BufferedImage>();
-            PDDocument pdf = PDDocument.load(tmpFile);
-            try {
-                List<PDPage> pages = pdf.getDocumentCatalog().getAllPages();
-
-                for (PDPage page : pages) {
-                    BufferedImage img = page.convertToImage(BufferedImage.TYPE_4BYTE_ABGR, calculateDPI(context, jsonSpec));
-                    images.add(img);
-                }
-            } finally {
-                pdf.close();
+        private List<BufferedImage> createImages(List<PDPage> pages, int dpi) throws IOException {
+            // no alpha channel for the formats that cannot store it, it takes a quarter of the memory
+            final boolean alpha = !"jpg".equalsIgnoreCase(format) && !"jpeg".equalsIgnoreCase(format) && !"bmp".equalsIgnoreCase(format);
+            final int imageType = alpha ? BufferedImage.TYPE_4BYTE_ABGR : BufferedImage.TYPE_INT_RGB;
+            List<BufferedImage> images = new ArrayList<BufferedImage>(pages.size());
+            for (PDPage page : pages) {
+                images.add(page.convertToImage(imageType, dpi));
             }
             return images;
         }
@@ -20,30 +20,35 @@
 package org.mapfish.print.output;
 
 import java.io.File;
-import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Semaphore;
 
 import org.apache.log4j.Logger;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
 import org.json.JSONException;
 import org.mapfish.print.MapPrinter;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.TimeLogger;
+import org.mapfish.print.config.Config;
 import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
 
 import com.lowagie.text.DocumentException;
 
 /**
- * Print Output that generate a PNG. It will first generate a PDF ant convert it
- * to PNG using the convert command provide by ImageMagick.
+ * Print Output that generate a PNG. It will first generate a PDF and convert it
+ * to PNG in process with PDFBox (it used to call the convert command of
+ * ImageMagick).
  * 
  * It include an hack to correct the transparency layer opacity.
  * 
- * To use it the system property USE_IMAGEMAGICK should be set to true.
+ * To use it the system property USE_IMAGEMAGICK should be set to true (the
+ * name is kept for compatibility, ImageMagick is not needed anymore).
  * 
  * @author Stéphane Brunner
  */
@@ -103,7 +108,6 @@ public class ImageOutputImageMagickFactory implements OutputFormatFactory {
 			}
 
 			File tmpPdfFile = null;
-			File tmpPngFile = null;
 			try {
 				tmpPdfFile = File.createTempFile("mapfishprint", ".pdf");
 				FileOutputStream tmpOut = new FileOutputStream(tmpPdfFile);
@@ -117,15 +121,8 @@ public class ImageOutputImageMagickFactory implements OutputFormatFactory {
 					tmpOut.close();
 				}
 
-				TimeLogger timeLog = TimeLogger.info(LOGGER,
-						"Pdf to image conversion");
-				tmpPngFile = File.createTempFile("mapfishprint", ".png");
-				createImage(jsonSpec, tmpPdfFile, tmpPngFile, context);
-				timeLog.done();
-
-				timeLog = TimeLogger.info(LOGGER, "Write Image");
-				drawImage(out, tmpPngFile);
-				timeLog.done();
+				createImage(jsonSpec, tmpPdfFile, out, context,
+						printer.getConfig());
 
 				return context;
 			} catch (IOException e) {
@@ -138,63 +135,57 @@ public class ImageOutputImageMagickFactory implements OutputFormatFactory {
 					}
 					tmpPdfFile.deleteOnExit();
 				}
-				if (tmpPngFile != null) {
-					if (!tmpPngFile.delete()) {
-						LOGGER.warn(tmpPngFile
-								+ " was not able to be deleted for unknown reason.  Will try again on shutdown");
-					}
-					tmpPngFile.deleteOnExit();
-				}
 			}
 		}
 
 		/**
-		 * Write the image from the temporary file to the output stream.
-		 * 
-		 * @param out
-		 *            the output stream
-		 * @param tmpPngFile
-		 *            the temporary file
-		 * @throws IOException
-		 *             on IO error
-		 */
-		private void drawImage(OutputStream out, File tmpPngFile)
-				throws IOException {
-			FileInputStream input = new FileInputStream(tmpPngFile);
-			byte[] buffer = new byte[1024 * 10]; // Adjust if you want
-			int bytesRead;
-			while ((bytesRead = input.read(buffer)) != -1) {
-				out.write(buffer, 0, bytesRead);
-			}
-		}
-
-		/**
-		 * Creates a PNG image from a PDF file using the convert command provide
-		 * by Image Magick
+		 * Rasterizes the PDF file and streams it as a PNG image. The number of
+		 * conversions running at the same time is limited by the configuration.
 		 * 
 		 * @param jsonSpec
 		 *            the spec used to know the DPI value
 		 * @param tmpPdfFile
 		 *            the PDF file
-		 * @param tmpPngFile
-		 *            the PNG file
+		 * @param out
+		 *            the output stream
 		 * @param context
 		 *            the context used to know the DPI value
+		 * @param config
+		 *            the configuration giving the compression level and the
+		 *            concurrency limit
 		 * @throws IOException
 		 *             on IO error
 		 */
 		private void createImage(PJsonObject jsonSpec, File tmpPdfFile,
-				File tmpPngFile, RenderingContext context) throws IOException {
+				OutputStream out, RenderingContext context, Config config)
+				throws IOException {
 			int dpi = calculateDPI(context, jsonSpec);
-			String cmd = "/usr/bin/convert -density " + dpi + "x" + dpi + " "
-					+ tmpPdfFile.getAbsolutePath() + " "
-					+ tmpPngFile.getAbsolutePath();
-			LOGGER.info("Run: " + cmd);
-			Process p = Runtime.getRuntime().exec(cmd);
+			Semaphore conversions = config.getPngConversions();
+			long waitStart = System.currentTimeMillis();
 			try {
-				p.waitFor();
+				conversions.acquire();
 			} catch (InterruptedException e) {
-				e.printStackTrace();
+				IOException ioe = new IOException(
+						"Interrupted while waiting for a PNG conversion slot");
+				ioe.initCause(e);
+				throw ioe;
+			}
+			try {
+				LOGGER.info("Waited " + (System.currentTimeMillis() - waitStart)
+						+ "ms for a PNG conversion slot ("
+						+ conversions.getQueueLength() + " waiting)");
+				TimeLogger timeLog = TimeLogger.info(LOGGER,
+						"Pdf to image conversion");
+				PDDocument pdf = PDDocument.load(tmpPdfFile);
+				try {
+					List<PDPage> pages = pdf.getDocumentCatalog().getAllPages();
+					writePng(out, pages, dpi, config.getPngCompressionLevel());
+				} finally {
+					pdf.close();
+				}
+				timeLog.done();
+			} finally {
+				conversions.release();
 			}
 		}
 
@@ -20,29 +20,39 @@
 package org.mapfish.print.output;
 
 import com.lowagie.text.DocumentException;
-import com.sun.media.jai.codec.FileSeekableStream;
 import org.apache.log4j.Logger;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.mapfish.print.MapPrinter;
 import org.mapfish.print.RenderingContext;
 import org.mapfish.print.TimeLogger;
-import org.mapfish.print.utils.PJsonArray;
 import org.mapfish.print.utils.PJsonObject;
 
 import javax.imageio.ImageIO;
+import javax.media.jai.ImageLayout;
 import javax.media.jai.JAI;
+import javax.media.jai.PlanarImage;
 import javax.media.jai.RenderedOp;
+import javax.media.jai.SourcelessOpImage;
+import javax.media.jai.TileCache;
+import java.awt.Dimension;
+import java.awt.Rectangle;
+import java.awt.RenderingHints;
 import java.awt.image.BufferedImage;
-import java.awt.image.RenderedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.DirectColorModel;
+import java.awt.image.SampleModel;
+import java.awt.image.SinglePixelPackedSampleModel;
+import java.awt.image.WritableRaster;
 import java.awt.image.renderable.ParameterBlock;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class ImageOutputScalableFactory extends ImageOutputFactory {
 
@@ -65,12 +75,20 @@ public class ImageOutputScalableFactory extends ImageOutputFactory {
 
         public static final Logger LOGGER = Logger.getLogger(ImageOutputScalable.class);
 
+        /**
+         * Height of the strips the mosaic is computed and written by.
+         */
+        private static final int STRIP_HEIGHT = 256;
+
+        private static final int[] RGB_MASKS = {0xFF0000, 0xFF00, 0xFF};
+
         public ImageOutputScalable(String format) {
             super(format);
         }
 
         public RenderingContext print(MapPrinter printer, PJsonObject jsonSpec, OutputStream out, String referer) throws DocumentException {
             File tmpFile = null;
+            PageStore store = null;
             try {
                 tmpFile = File.createTempFile("mapfishprint", ".pdf");
                 FileOutputStream tmpOut = new FileOutputStream(tmpFile);
@@ -84,17 +102,25 @@ public class ImageOutputScalableFactory extends ImageOutputFactory {
                 }
 
                 TimeLogger timeLog = TimeLogger.info(LOGGER, "Pdf to image conversion");
-                List<ImageInfo> images = createImages(jsonSpec, tmpFile, context);
-                timeLog.done();
+                final int dpi = calculateDPI(context, jsonSpec);
+                store = createStore(tmpFile, dpi);
+                startRasterizers(printer.getConfig().getRasterizers(), tmpFile, dpi, store);
 
-                timeLog = TimeLogger.info(LOGGER, "Write Mosaiced Image");
-                drawImage(out, images);
+                if ("png".equalsIgnoreCase(format)) {
+                    writePng(out, store, printer.getConfig().getPngCompressionLevel());
+                } else {
+                    store.waitForAll();
+                    drawImage(out, store);
+                }
                 timeLog.done();
 
                 return context;
             } catch (IOException e) {
                 throw new RuntimeException(e);
             } finally {
+                if (store != null) {
+                    store.close();
+                }
                 if (tmpFile != null) {
                     if(!tmpFile.delete()) {
                         LOGGER.warn(tmpFile+" was not able to be deleted for unknown reason.  Will try again on shutdown");
@@ -104,70 +130,149 @@ public class ImageOutputScalableFactory extends ImageOutputFactory {
             }
         }
 
-        private void drawImage(OutputStream out, List<ImageInfo> images) throws IOException {
-
-            ParameterBlock pbMosaic = new ParameterBlock();
-            float height = 0;
-            float width = 0;
-
-            int i = 0;
-            for (ImageInfo imageinfo : images) {
-                ParameterBlock pb = new ParameterBlock();
-                pb.add(new FileSeekableStream(imageinfo.imageFile));
-                pb.add(null);
-                pb.add(null);
-                RenderedOp source = JAI.create("TIFF", pb);
-                i++;
-                LOGGER.debug("Adding page image " + i + " bounds: [" + 0 + "," + height + " " + source.getWidth() + "," + (height + source.getHeight()) + "]");
-                RenderedOp translated = translateImage(height, source);
-
-                pbMosaic.addSource(translated);
-
-                height += imageinfo.height + MARGIN;
-                if (width < imageinfo.width) width = imageinfo.width;
+        private PageStore createStore(File tmpFile, int dpi) throws IOException {
+            PDDocument pdf = PDDocument.load(tmpFile);
+            try {
+                List<PDPage> pages = pdf.getDocumentCatalog().getAllPages();
+                List<Dimension> sizes = new ArrayList<Dimension>(pages.size());
+                for (PDPage page : pages) {
+                    sizes.add(getPageSize(page, dpi));
+                }
+                return new PageStore(sizes, (int) MARGIN);
+            } finally {
+                pdf.close();
             }
-
-            RenderedOp mosaic = JAI.create("mosaic", pbMosaic);
-            ImageIO.write(mosaic, format, out);
         }
 
-        private RenderedOp translateImage(float height, RenderedImage source) {
-            ParameterBlock pbTranslate = new ParameterBlock();
-            pbTranslate.addSource(source);
-            pbTranslate.add(0f);
-            pbTranslate.add(height);
-            return JAI.create("translate", pbTranslate);
+        /**
+         * Starts one rasterizer per CPU (at most one per page). Each of them
+         * loads its own copy of the PDF (PDFBox documents are not thread
+         * safe) and takes the pages in order.
+         */
+        private void startRasterizers(ExecutorService rasterizers, final File tmpFile, final int dpi, final PageStore store) {
+            final AtomicInteger nextPage = new AtomicInteger(0);
+            final int nbRasterizers = Math.min(store.getNbPages(), Runtime.getRuntime().availableProcessors());
+            for (int i = 0; i < nbRasterizers; ++i) {
+                rasterizers.execute(new Runnable() {
+                    public void run() {
+                        rasterize(tmpFile, dpi, store, nextPage);
+                    }
+                });
+            }
         }
 
-        private List<ImageInfo> createImages(PJsonObject jsonSpec, File tmpFile, RenderingContext context) throws IOException {
-            List<ImageInfo> images = new ArrayList<ImageInfo>();
-            PDDocument pdf = PDDocument.load(tmpFile);
+        private void rasterize(File tmpFile, int dpi, PageStore store, AtomicInteger nextPage) {
+            PDDocument pdf = null;
             try {
+                pdf = PDDocument.load(tmpFile);
                 List<PDPage> pages = pdf.getDocumentCatalog().getAllPages();
+                int i;
+                while (!store.isAborted() && (i = nextPage.getAndIncrement()) < pages.size()) {
+                    BufferedImage img = pages.get(i).convertToImage(BufferedImage.TYPE_INT_RGB, dpi);
+                    store.put(i, img);
+                    LOGGER.debug("Page " + (i + 1) + " rasterized by " + Thread.currentThread().getName());
+                }
+            } catch (Throwable e) {
+                if (!store.isAborted()) {
+                    LOGGER.error("Error while rasterizing the pages", e);
+                }
+                store.fail(e);
+            } finally {
+                if (pdf != null) {
+                    try {
+                        pdf.close();
+                    } catch (IOException e) {
+                        LOGGER.warn("Cannot close the PDF", e);
+                    }
+                }
+            }
+        }
 
-                for (PDPage page : pages) {
-                    BufferedImage img = page.convertToImage(BufferedImage.TYPE_INT_RGB, calculateDPI(context, jsonSpec));
-                    File file = File.createTempFile("pdfToImage", "tiff");
-                    ImageIO.write(img, "TIF", file);
-                    images.add(new ImageInfo(file, img.getWidth(), img.getHeight()));
+        /**
+         * Writes the pages as soon as they are available, strip by strip.
+         */
+        private void writePng(OutputStream out, PageStore store, int compressionLevel) throws IOException {
+            int width = 0;
+            int height = 0;
+            for (int i = 0; i < store.getNbPages(); ++i) {
+                final Dimension size = store.getSize(i);
+                width = Math.max(width, size.width);
+                height = store.getOffset(i) + size.height;
+            }
+
+            final PngEncoder encoder = new PngEncoder(out, width, height, false, compressionLevel);
+            final int[] row = new int[width];
+            for (int i = 0; i < store.getNbPages(); ++i) {
+                if (i > 0) {
+                    encoder.writeEmptyRows((int) MARGIN);
                 }
+                store.waitFor(i);
+                final Dimension size = store.getSize(i);
+                for (int y = 0; y < size.height; ++y) {
+                    store.getRow(i, y, 0, row, size.width);
+                    encoder.writeRow(row, size.width);
+                }
+            }
+            encoder.finish();
+        }
+
+        private void drawImage(OutputStream out, PageStore store) throws IOException {
+            ParameterBlock pbMosaic = new ParameterBlock();
+            for (int i = 0; i < store.getNbPages(); ++i) {
+                final Dimension size = store.getSize(i);
+                LOGGER.debug("Adding page image " + (i + 1) + " bounds: [" + 0 + "," + store.getOffset(i) + " " + size.width + "," + (store.getOffset(i) + size.height) + "]");
+                pbMosaic.addSource(new PageImage(store, i));
+            }
+
+            // the pages are read from the store when JAI asks for their strips
+            TileCache cache = JAI.createTileCache(16 * 1024 * 1024);
+            RenderingHints hints = new RenderingHints(JAI.KEY_TILE_CACHE, cache);
+            RenderedOp mosaic = JAI.create("mosaic", pbMosaic, hints);
+            try {
+                ImageIO.write(mosaic, format, out);
             } finally {
-                pdf.close();
+                mosaic.dispose();
+                cache.flush();
             }
-            return images;
         }
 
-    }
+        /**
+         * A page of the {@link PageStore}, at its position in the final
+         * image, computed strip by strip.
+         */
+        private static class PageImage extends SourcelessOpImage {
+            private final PageStore store;
+            private final int page;
 
-    static class ImageInfo {
-        final File imageFile;
-        final int width, height;
+            public PageImage(PageStore store, int page) {
+                super(createLayout(store.getSize(page), store.getOffset(page)), null,
+                        createSampleModel(store.getSize(page).width), 0, store.getOffset(page),
+                        store.getSize(page).width, store.getSize(page).height);
+                this.store = store;
+                this.page = page;
+            }
 
-        ImageInfo(File imageFile, int width, int height) {
-            this.imageFile = imageFile;
+            private static ImageLayout createLayout(Dimension size, int offset) {
+                ImageLayout layout = new ImageLayout();
+                layout.setTileGridXOffset(0);
+                layout.setTileGridYOffset(offset);
+                layout.setTileWidth(size.width);
+                layout.setTileHeight(Math.min(STRIP_HEIGHT, Math.max(size.height, 1)));
+                layout.setColorModel(new DirectColorModel(24, RGB_MASKS[0], RGB_MASKS[1], RGB_MASKS[2]));
+                return layout;
+            }
+
+            private static SampleModel createSampleModel(int width) {
+                return new SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, Math.max(width, 1), STRIP_HEIGHT, RGB_MASKS);
+            }
 
-            this.width = width;
-            this.height = height;
+            protected void computeRect(PlanarImage[] sources, WritableRaster dest, Rectangle destRect) {
+                final int[] row = new int[destRect.width];
+                for (int y = destRect.y; y < destRect.y + destRect.height; ++y) {
+                    store.getRow(page, y - getMinY(), destRect.x - getMinX(), row, destRect.width);
+                    dest.setDataElements(destRect.x, y, destRect.width, 1, row);
+                }
+            }
         }
     }
 }
@@ -0,0 +1,207 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import org.apache.log4j.Logger;
+
+import java.awt.Dimension;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.util.List;
+
+/**
+ * Memory mapped temporary file holding the rasterized pages of a print, as
+ * RGB ints.
+ * <p/>
+ * The pages can be written by several threads, in any order. The readers
+ * wait for the page they need with {@link #waitFor(int)}. Since the data is
+ * in a mapped file, the OS can page it out instead of filling the heap.
+ */
+class PageStore {
+    public static final Logger LOGGER = Logger.getLogger(PageStore.class);
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final Dimension[] sizes;
+    private final int[] offsets;
+    private final IntBuffer[] pages;
+    private final boolean[] done;
+    private Throwable error = null;
+    private boolean closed = false;
+
+    /**
+     * @param sizes The size of each page, in pixels
+     * @param margin The vertical space between the pages
+     */
+    public PageStore(List<Dimension> sizes, int margin) throws IOException {
+        final int nbPages = sizes.size();
+        this.sizes = sizes.toArray(new Dimension[nbPages]);
+        offsets = new int[nbPages];
+        pages = new IntBuffer[nbPages];
+        done = new boolean[nbPages];
+
+        file = File.createTempFile("pdfToImage", ".raw");
+        raf = new RandomAccessFile(file, "rw");
+        try {
+            final FileChannel channel = raf.getChannel();
+            long position = 0;
+            int y = 0;
+            for (int i = 0; i < nbPages; ++i) {
+                final Dimension size = this.sizes[i];
+                final long nbBytes = (long) size.width * size.height * 4;
+                if (nbBytes > Integer.MAX_VALUE) {
+                    throw new IOException("Page " + (i + 1) + " is too big to be rasterized (" + size.width + "x" + size.height + ")");
+                }
+                offsets[i] = y;
+                y += size.height + margin;
+                if (nbBytes > 0) {
+                    pages[i] = channel.map(FileChannel.MapMode.READ_WRITE, position, nbBytes).order(ByteOrder.nativeOrder()).asIntBuffer();
+                } else {
+                    pages[i] = IntBuffer.allocate(0);
+                }
+                position += nbBytes;
+            }
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    public int getNbPages() {
+        return sizes.length;
+    }
+
+    public Dimension getSize(int page) {
+        return sizes[page];
+    }
+
+    /**
+     * @return The position of the top of the page in the final image
+     */
+    public int getOffset(int page) {
+        return offsets[page];
+    }
+
+    /**
+     * Copies the pixels of a rasterized page and marks the page as available.
+     */
+    public void put(int page, BufferedImage image) throws IOException {
+        final Dimension size = sizes[page];
+        if (image.getWidth() != size.width || image.getHeight() != size.height) {
+            throw new IOException("Unexpected size for page " + (page + 1) + ": " + image.getWidth() + "x" + image.getHeight() +
+                    " instead of " + size.width + "x" + size.height);
+        }
+        final IntBuffer buffer = pages[page].duplicate();
+        final int[] row = new int[size.width];
+        for (int y = 0; y < size.height; ++y) {
+            image.getRGB(0, y, size.width, 1, row, 0, size.width);
+            buffer.put(row);
+        }
+        synchronized (this) {
+            done[page] = true;
+            notifyAll();
+        }
+    }
+
+    /**
+     * Reads a part of a row of a page that is available.
+     */
+    public void getRow(int page, int y, int x, int[] row, int nbPixels) {
+        final IntBuffer buffer = pages[page].duplicate();
+        buffer.position(y * sizes[page].width + x);
+        buffer.get(row, 0, nbPixels);
+    }
+
+    /**
+     * Waits for the given page to be available.
+     *
+     * @throws IOException If a page could not be rasterized
+     */
+    public synchronized void waitFor(int page) throws IOException {
+        try {
+            while (!done[page] && error == null && !closed) {
+                wait();
+            }
+        } catch (InterruptedException e) {
+            final IOException ioe = new IOException("Interrupted while waiting for page " + (page + 1));
+            ioe.initCause(e);
+            throw ioe;
+        }
+        if (error != null) {
+            final IOException ioe = new IOException("Error while rasterizing the pages: " + error);
+            ioe.initCause(error);
+            throw ioe;
+        }
+        if (closed) {
+            throw new IOException("Page store closed");
+        }
+    }
+
+    public void waitForAll() throws IOException {
+        for (int i = 0; i < sizes.length; ++i) {
+            waitFor(i);
+        }
+    }
+
+    /**
+     * Reports an error that happened while rasterizing a page. The readers
+     * will get it.
+     */
+    public synchronized void fail(Throwable e) {
+        if (error == null) {
+            error = e;
+        }
+        notifyAll();
+    }
+
+    /**
+     * @return True if the rasterization should be stopped.
+     */
+    public synchronized boolean isAborted() {
+        return error != null || closed;
+    }
+
+    /**
+     * Releases the file. The pages cannot be accessed anymore.
+     */
+    public void close() {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        for (int i = 0; i < pages.length; ++i) {
+            pages[i] = null;
+        }
+        try {
+            raf.close();
+        } catch (IOException e) {
+            LOGGER.warn("Cannot close " + file, e);
+        }
+        if (!file.delete()) {
+            LOGGER.warn(file + " was not able to be deleted for unknown reason.  Will try again on shutdown");
+            file.deleteOnExit();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Writes a PNG image row by row, without needing the whole image in memory.
+ * <p/>
+ * The image is 8 bits per channel RGB or RGBA. The rows must be given from
+ * the top to the bottom, exactly height of them.
+ */
+public class PngEncoder {
+    private static final byte[] SIGNATURE = {(byte) 137, 80, 78, 71, 13, 10, 26, 10};
+    private static final int IDAT_SIZE = 64 * 1024;
+
+    private static final byte FILTER_SUB = 1;
+
+    private final OutputStream out;
+    private final int width;
+    private final int height;
+    private final boolean alpha;
+    private final int bytesPerPixel;
+
+    private final Deflater deflater;
+    private final DeflaterOutputStream compressed;
+
+    private final byte[] row;
+    private int nbRows = 0;
+
+    /**
+     * @param compressionLevel From 0 (no compression) to 9 (best compression), or -1 for the default level
+     */
+    public PngEncoder(OutputStream out, int width, int height, boolean alpha, int compressionLevel) throws IOException {
+        this.out = out;
+        this.width = width;
+        this.height = height;
+        this.alpha = alpha;
+        bytesPerPixel = alpha ? 4 : 3;
+        row = new byte[1 + width * bytesPerPixel];
+
+        out.write(SIGNATURE);
+        final ByteArrayOutputStream header = new ByteArrayOutputStream(13);
+        writeInt(header, width);
+        writeInt(header, height);
+        header.write(8); // bit depth
+        header.write(alpha ? 6 : 2); // color type
+        header.write(0); // compression
+        header.write(0); // filter
+        header.write(0); // interlace
+        writeChunk("IHDR", header.toByteArray(), header.size());
+
+        deflater = new Deflater(compressionLevel);
+        compressed = new DeflaterOutputStream(new IdatOutputStream(), deflater, IDAT_SIZE);
+    }
+
+    /**
+     * Writes the given rows of an image. If the image is narrower than the
+     * PNG, the rows are padded with transparent black.
+     */
+    public void writeRows(BufferedImage image, int firstRow, int nbRows) throws IOException {
+        final int imageWidth = Math.min(image.getWidth(), width);
+        final int[] pixels = new int[imageWidth];
+        for (int y = firstRow; y < firstRow + nbRows; ++y) {
+            image.getRGB(0, y, imageWidth, 1, pixels, 0, imageWidth);
+            writeRow(pixels, imageWidth);
+        }
+    }
+
+    /**
+     * Writes one row.
+     *
+     * @param argb The pixels, as returned by {@link BufferedImage#getRGB(int, int)}
+     * @param nbPixels The number of pixels to take, the rest of the row is transparent black
+     */
+    public void writeRow(int[] argb, int nbPixels) throws IOException {
+        checkRow();
+        Arrays.fill(row, (byte) 0);
+        row[0] = FILTER_SUB;
+        int pos = 1;
+        for (int x = 0; x < nbPixels; ++x) {
+            final int pixel = argb[x];
+            row[pos++] = (byte) (pixel >> 16);
+            row[pos++] = (byte) (pixel >> 8);
+            row[pos++] = (byte) pixel;
+            if (alpha) {
+                row[pos++] = (byte) (pixel >>> 24);
+            }
+        }
+        // Sub filter, from the right to the left to use the raw values
+        for (int i = row.length - 1; i > bytesPerPixel; --i) {
+            row[i] -= row[i - bytesPerPixel];
+        }
+        compressed.write(row);
+    }
+
+    /**
+     * Writes rows of transparent black pixels.
+     */
+    public void writeEmptyRows(int nb) throws IOException {
+        for (int i = 0; i < nb; ++i) {
+            checkRow();
+            Arrays.fill(row, (byte) 0);
+            compressed.write(row);
+        }
+    }
+
+    /**
+     * Finishes the image. Doesn't close the underlying stream.
+     */
+    public void finish() throws IOException {
+        if (nbRows != height) {
+            throw new IOException("Only " + nbRows + " rows written out of " + height);
+        }
+        compressed.finish();
+        deflater.end();
+        writeChunk("IEND", new byte[0], 0);
+        out.flush();
+    }
+
+    public boolean hasAlpha() {
+        return alpha;
+    }
+
+    private void checkRow() throws IOException {
+        if (nbRows >= height) {
+            throw new IOException("Too many rows for a " + width + "x" + height + " image");
+        }
+        nbRows++;
+    }
+
+    private void writeChunk(String type, byte[] data, int length) throws IOException {
+        final byte[] typeBytes = type.getBytes("US-ASCII");
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+
+        writeInt(out, length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        writeInt(out, (int) crc.getValue());
+    }
+
+    private static void writeInt(OutputStream stream, int value) throws IOException {
+        stream.write(value >>> 24);
+        stream.write(value >>> 16);
+        stream.write(value >>> 8);
+        stream.write(value);
+    }
+
+    /**
+     * Cuts the compressed data in IDAT chunks.
+     */
+    private class IdatOutputStream extends OutputStream {
+        public void write(int b) throws IOException {
+            write(new byte[]{(byte) b}, 0, 1);
+        }
+
+        public void write(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return;
+            }
+            if (off == 0) {
+                writeChunk("IDAT", b, len);
+            } else {
+                final byte[] copy = new byte[len];
+                System.arraycopy(b, off, copy, 0, len);
+                writeChunk("IDAT", copy, len);
+            }
+        }
+    }
+}
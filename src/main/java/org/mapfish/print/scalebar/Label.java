@@ -20,6 +20,7 @@
 package org.mapfish.print.scalebar;
 
 import com.lowagie.text.pdf.BaseFont;
+import org.mapfish.print.FontCache;
 
 /**
  * Position, size and content of a label
@@ -45,7 +46,7 @@ public class Label {
     public Label(float paperOffset, String label, BaseFont font, double fontSize, boolean rotated) {
         this.paperOffset = paperOffset;
         this.label = label;
-        final float textWidth = font.getWidthPoint(label, (float) fontSize);
+        final float textWidth = FontCache.getWidthPoint(font, label, (float) fontSize);
         final float textHeight = font.getAscentPoint(label, (float) fontSize) - font.getDescentPoint(label, (float) fontSize);
         if (rotated) {
             this.height = textWidth;
@@ -26,22 +26,70 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * Base class for MapPrinter servlets (deals with the configuration loading)
+ * <p/>
+ * The configuration of each application is loaded once in a
+ * {@link ConfigSnapshot} and looked up without locking. A background thread
+ * checks the configuration files and, when one is modified, loads it and
+ * swaps the snapshots. The old MapPrinter is stopped only when the prints
+ * using it are finished.
  */
 public abstract class BaseMapServlet extends HttpServlet {
     private static final long serialVersionUID = -6342262849725708850L;
 
     public static final Logger LOGGER = Logger.getLogger(BaseMapServlet.class);
 
-    private MapPrinter printer = null;
-    private Map<String, MapPrinter> printers = null;
-    private long lastModified = 0L;
-    private long defaultLastModified = 0L;
-    private Map<String,Long> lastModifieds = null;
+    private static final int DEFAULT_CONFIG_CHECK_INTERVAL = 5;
+
+    /**
+     * Key used for the default application (ConcurrentHashMap doesn't support null keys).
+     */
+    private static final String DEFAULT_APP = "";
+
+    private final ConcurrentHashMap<String, ConfigSnapshot> snapshots = new ConcurrentHashMap<String, ConfigSnapshot>();
+
+    /**
+     * Taken only to load a configuration the first time.
+     */
+    private final Object loadLock = new Object();
+
+    private ScheduledExecutorService configWatcher = null;
+
+    public void init() throws ServletException {
+        super.init();
+        final String intervalTxt = getInitParameter("configCheckInterval");
+        int interval = DEFAULT_CONFIG_CHECK_INTERVAL;
+        if (intervalTxt != null) {
+            try {
+                interval = Integer.parseInt(intervalTxt.trim());
+            } catch (NumberFormatException e) {
+                throw new ServletException("Invalid value for the init-param 'configCheckInterval': " + intervalTxt);
+            }
+        }
+        if (interval > 0) {
+            configWatcher = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "configWatcher");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+            configWatcher.scheduleWithFixedDelay(new Runnable() {
+                public void run() {
+                    checkConfigs();
+                }
+            }, interval, interval, TimeUnit.SECONDS);
+        }
+    }
 
     /**
      * Builds a MapPrinter instance out of the file pointed by the servlet's
@@ -52,118 +100,158 @@ public abstract class BaseMapServlet extends HttpServlet {
      * </ul>
      * <p/>
      * If the location is a relative path, it's taken from the servlet's root directory.
+     * <p/>
+     * The returned printer may be stopped at any time if the configuration
+     * changes. To print with it, use {@link #acquireConfig(String)}.
+     */
+    protected MapPrinter getMapPrinter(String app) throws ServletException {
+        return getSnapshot(app).getPrinter();
+    }
+
+    /**
+     * Gets the current configuration of an application and prevents it to
+     * be stopped until {@link ConfigSnapshot#release()} is called.
      */
-    protected synchronized MapPrinter getMapPrinter(String app) throws ServletException {
+    protected ConfigSnapshot acquireConfig(String app) throws ServletException {
+        while (true) {
+            final ConfigSnapshot snapshot = getSnapshot(app);
+            if (snapshot.acquire()) {
+                return snapshot;
+            }
+            // replaced and drained in the meantime, take the new one
+        }
+    }
+
+    private ConfigSnapshot getSnapshot(String app) throws ServletException {
+        final String key = app != null ? app : DEFAULT_APP;
+        ConfigSnapshot result = snapshots.get(key);
+        if (result == null) {
+            synchronized (loadLock) {
+                result = snapshots.get(key);
+                if (result == null) {
+                    result = load(app, getConfigFile(app));
+                    snapshots.put(key, result);
+                }
+            }
+        }
+        return result;
+    }
+
+    private File getConfigFile(String app) throws ServletException {
         String configPath = getInitParameter("config");
         if (configPath == null) {
             throw new ServletException("Missing configuration in web.xml 'web-app/servlet/init-param[param-name=config]' or 'web-app/context-param[param-name=config]'");
         }
-        //String debugPath = "";
-
-        File configFile = null;
-        if (app != null) {
-        	if (lastModifieds == null) {
-        		lastModifieds = new HashMap<String, Long>();
-        		//debugPath += "new HashMap\n";
-        	}
-    		if (printers instanceof HashMap &&  printers.containsKey(app)) {
-    			printer = printers.get(app);
-    			//debugPath += "get printer from hashmap\n";
-    		} else {
-    			printer = null;
-    			//debugPath += "printer = null 1\n";
-    		}
-       		configFile = new File(app +".yaml");
-        } else {
-        	configFile = new File(configPath);
-        	//debugPath += "configFile = new ..., 1\n";
-        }
+
+        final String path = app != null ? app + ".yaml" : configPath;
+        File configFile = new File(path);
         if (!configFile.isAbsolute()) {
-        	if (app != null) {
-        		//debugPath += "config is absolute app = "+app+"\n";
-        		configFile = new File(getServletContext().getRealPath(app +".yaml"));
-        	} else {
-        		configFile = new File(getServletContext().getRealPath(configPath));
-        		//debugPath += "config is absolute app DEFAULT\n";
-        	}
+            configFile = new File(getServletContext().getRealPath(path));
         }
-        if (app != null) {
-        	if (lastModifieds instanceof HashMap && lastModifieds.containsKey(app)) {
-        		lastModified = lastModifieds.get(app);
-        		//debugPath += "app = "+app+" lastModifieds has key and gotten: "+ lastModified +"\n";
-        	} else {
-        		lastModified = 0L;
-        		//debugPath += "app = "+app+" lastModifieds has NOT key and gotten: "+ lastModified +" (0L)\n";
-        	}
-        } else {
-        	lastModified = defaultLastModified; // this is a fix for when configuration files have changed
-        	//debugPath += "app = NULL lastModifieds from defaultLastModified: "+ lastModified +"\n";
+        return configFile;
+    }
+
+    private ConfigSnapshot load(String app, File configFile) throws ServletException {
+        final long lastModified = configFile.lastModified();
+        try {
+            LOGGER.info("Loading configuration file: " + configFile.getAbsolutePath());
+            return new ConfigSnapshot(app, configFile, lastModified, new MapPrinter(configFile));
+        } catch (FileNotFoundException e) {
+            throw new ServletException("Cannot read configuration file: " + configFile, e);
         }
+    }
 
-        if (printer != null && configFile.lastModified() != lastModified) {
-            //file modified, reload it
-            LOGGER.info("Configuration file modified. Reloading...");
-            try {
-            	printer.stop();
-            	
-            	//debugPath += "printer stopped, setting NULL\n";
-            } catch (NullPointerException npe) {
-            	LOGGER.info("BaseMapServlet.java: printer was not stopped. This happens when a switch between applications happens.\n"+ npe);
-            }
-            
-            printer = null;
-            if (app != null) {
-            	LOGGER.info("Printer for "+ app +" stopped");
-            	printers.put(app, null);
+    /**
+     * Reloads the modified configurations. Called by the watcher thread, so
+     * the requests never wait for a configuration to be parsed.
+     */
+    protected void checkConfigs() {
+        for (Map.Entry<String, ConfigSnapshot> entry : snapshots.entrySet()) {
+            final ConfigSnapshot current = entry.getValue();
+            final long lastModified = current.configFile.lastModified();
+            if (lastModified == current.lastModified || lastModified == current.failedLastModified) {
+                continue;
             }
-        }
 
-        if (printer == null) {
-            lastModified = configFile.lastModified();
-            //debugPath += "printer == null, lastModified from configFile = "+lastModified+"\n";
+            LOGGER.info("Configuration file modified. Reloading " + current.configFile);
+            final ConfigSnapshot newSnapshot;
             try {
-                LOGGER.info("Loading configuration file: " + configFile.getAbsolutePath());
-                printer = new MapPrinter(configFile);
-                if (app != null) {
-                	if (printers == null) {
-                		printers = new HashMap<String, MapPrinter>();
-                		//debugPath += "printers = new HashMap , printer == null, app = "+app+"\n";
-                	}
-                	printers.put(app, printer);
-                	lastModifieds.put(app, lastModified);
-                	//debugPath += "putting app = "+app+" HashMaps: printer and lastModified: "+lastModified+"\n";
-                } else {
-                	defaultLastModified = lastModified; // need this for default application
-                	//debugPath += "defaultLastModified = "+defaultLastModified+" 123\n";
-                }
-            } catch (FileNotFoundException e) {
-                throw new ServletException("Cannot read configuration file: " + configPath, e);
+                newSnapshot = load(current.app, current.configFile);
+            } catch (Throwable e) {
+                // keep the old one until the file is fixed
+                LOGGER.error("Cannot load the modified configuration file " + current.configFile + ", keeping the previous one", e);
+                current.failedLastModified = lastModified;
+                continue;
             }
-        }
-        
-        //LOGGER.info(debugPath);
-        /*
-        try {
-            if (app == null) {
-            	throw new Exception("Just to see the stack trace");
+
+            if (snapshots.replace(entry.getKey(), current, newSnapshot)) {
+                current.release();
+            } else {
+                newSnapshot.release();
             }
-           	throw new Exception("Just to see the stack trace");
-        } catch (Exception e) {
-        	StackTraceElement stelements[] = e.getStackTrace();
-        	for (StackTraceElement s : stelements) {
-        		LOGGER.warn("StackTraceElement ASD: "+ s.toString());
-        	}
-        	//LOGGER.warn("app == NULL:\n"+ e.getStackTrace());
         }
-        */
-        return printer;
     }
 
     @Override
-    public synchronized void destroy() {
-        if(printer != null) {
-            printer.stop();
+    public void destroy() {
+        if (configWatcher != null) {
+            configWatcher.shutdownNow();
+        }
+        for (ConfigSnapshot snapshot : snapshots.values()) {
+            snapshot.release();
         }
+        snapshots.clear();
         super.destroy();
     }
-}
\ No newline at end of file
+
+    /**
+     * A loaded configuration file. Reference counted: the servlet holds one
+     * reference as long as it is the current configuration and each print
+     * using it holds one. The printer is stopped when the count drops to 0.
+     */
+    protected static class ConfigSnapshot {
+        private final String app;
+        private final File configFile;
+        private final long lastModified;
+        private final MapPrinter printer;
+        private final AtomicInteger refCount = new AtomicInteger(1);
+
+        /**
+         * Modification time of the last version of the file that could not be loaded.
+         */
+        private volatile long failedLastModified = 0L;
+
+        private ConfigSnapshot(String app, File configFile, long lastModified, MapPrinter printer) {
+            this.app = app;
+            this.configFile = configFile;
+            this.lastModified = lastModified;
+            this.printer = printer;
+        }
+
+        public MapPrinter getPrinter() {
+            return printer;
+        }
+
+        /**
+         * @return False if the snapshot is already stopped.
+         */
+        private boolean acquire() {
+            while (true) {
+                final int count = refCount.get();
+                if (count <= 0) {
+                    return false;
+                }
+                if (refCount.compareAndSet(count, count + 1)) {
+                    return true;
+                }
+            }
+        }
+
+        public void release() {
+            if (refCount.decrementAndGet() == 0) {
+                LOGGER.info("Stopping the printer of " + configFile);
+                printer.stop();
+            }
+        }
+    }
+}
@@ -24,6 +24,8 @@ import org.json.JSONException;
 import org.json.JSONWriter;
 import org.mapfish.print.Constants;
 import org.mapfish.print.MapPrinter;
+import org.mapfish.print.config.Config;
+import org.mapfish.print.map.TileScheduler;
 import org.mapfish.print.output.OutputFactory;
 import org.mapfish.print.output.OutputFormat;
 import org.mapfish.print.utils.PJsonObject;
@@ -33,9 +35,7 @@ import javax.servlet.ServletException;
 import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import java.io.*;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
@@ -48,22 +48,34 @@ public class MapPrinterServlet extends BaseMapServlet {
     private static final String INFO_URL = "/info.json";
     private static final String PRINT_URL = "/print.pdf";
     private static final String CREATE_URL = "/create.json";
+    private static final String STATUS_URL = "/status/";
+    private static final String STATUS_SUFFIX = ".json";
     protected static final String TEMP_FILE_PREFIX = "mapfish-print";
     private static final String TEMP_FILE_SUFFIX = ".printout";
-    
-    private String app = null;
 
     private static final int TEMP_FILE_PURGE_SECONDS = 10 * 60;
 
+    /**
+     * How long a request for the file of an unfinished job waits, to not
+     * block the threads of the container.
+     */
+    private static final int GET_FILE_MAX_WAIT_SECONDS = 5;
+
+    private static final int STREAM_BUFFER_SIZE = 64 * 1024;
+
+    private static final int DEFAULT_JOB_QUEUE_LENGTH = 20;
+    private static final int DEFAULT_RETRY_AFTER_SECONDS = 30;
+
     private File tempDir = null;
     /**
      * Tells if a thread is alread purging the old temporary files or not.
      */
     private AtomicBoolean purging = new AtomicBoolean(false);
     /**
-     * Map of temporary files.
+     * The jobs created by create.json.
      */
-    private final Map<String, TempFile> tempFiles = new HashMap<String, TempFile>();
+    private PrintJobQueue jobQueue = null;
+    private int retryAfter = DEFAULT_RETRY_AFTER_SECONDS;
 
     protected void doGet(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse) throws ServletException, IOException {
         //do the routing in function of the actual URL
@@ -72,6 +84,8 @@ public class MapPrinterServlet extends BaseMapServlet {
             createAndGetPDF(httpServletRequest, httpServletResponse);
         } else if (additionalPath.equals(INFO_URL)) {
             getInfo(httpServletRequest, httpServletResponse, getBaseUrl(httpServletRequest));
+        } else if (additionalPath.startsWith(STATUS_URL) && additionalPath.endsWith(STATUS_SUFFIX)) {
+            getStatus(httpServletRequest, httpServletResponse, additionalPath.substring(STATUS_URL.length(), additionalPath.length() - STATUS_SUFFIX.length()));
         } else if (additionalPath.startsWith("/") && additionalPath.endsWith(TEMP_FILE_SUFFIX)) {
             getFile(httpServletRequest, httpServletResponse, additionalPath.substring(1, additionalPath.length() - TEMP_FILE_SUFFIX.length()));
         } else {
@@ -89,24 +103,40 @@ public class MapPrinterServlet extends BaseMapServlet {
     }
 
     public void init() throws ServletException {
+        super.init();
+
         //get rid of the temporary files that were present before the servlet was started.
         File dir = getTempDir();
         File[] files = dir.listFiles();
         for (File file : files) {
             deleteFile(file);
         }
+
+        final int nbWorkers = getIntInitParameter("jobWorkers", Runtime.getRuntime().availableProcessors());
+        final int queueLength = getIntInitParameter("jobQueueLength", DEFAULT_JOB_QUEUE_LENGTH);
+        retryAfter = getIntInitParameter("jobRetryAfter", DEFAULT_RETRY_AFTER_SECONDS);
+        jobQueue = new PrintJobQueue(nbWorkers, queueLength);
     }
 
     public void destroy() {
-        synchronized (tempFiles) {
-            for (File file : tempFiles.values()) {
-                deleteFile(file);
-            }
-            tempFiles.clear();
+        if (jobQueue != null) {
+            jobQueue.shutdown();
         }
         super.destroy();
     }
 
+    private int getIntInitParameter(String name, int defaultValue) throws ServletException {
+        final String value = getInitParameter(name);
+        if (value == null) {
+            return defaultValue;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            throw new ServletException("Invalid value for the init-param '" + name + "': " + value);
+        }
+    }
+
     /**
      * All in one method: create and returns the PDF to the client. Avoid to use
      * it, the accents in the spec are not all supported.
@@ -124,38 +154,45 @@ public class MapPrinterServlet extends BaseMapServlet {
             return;
         }
 
-        TempFile tempFile = null;
         try {
-            tempFile = doCreatePDFFile(spec, httpServletRequest);
-            sendPdfFile(httpServletResponse, tempFile, Boolean.parseBoolean(httpServletRequest.getParameter("inline")));
+            doCreatePDFStream(spec, httpServletRequest, httpServletResponse, Boolean.parseBoolean(httpServletRequest.getParameter("inline")));
         } catch (Throwable e) {
-            error(httpServletResponse, e);
-        } finally {
-            deleteFile(tempFile);
+            if (!httpServletResponse.isCommitted()) {
+                httpServletResponse.reset();
+                error(httpServletResponse, e);
+            } else {
+                // too late to tell the client, it will receive a truncated file
+                LOGGER.error("Error while streaming PDF", e);
+            }
         }
     }
 
     /**
-     * Create the PDF and returns to the client (in JSON) the URL to get the PDF.
+     * Queues the creation of the PDF and returns to the client (in JSON) the
+     * URLs to get the PDF and the status of the job.
      */
     protected void createPDF(HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, String basePath) throws ServletException {
-        TempFile tempFile = null;
-        try {
-            purgeOldTemporaryFiles();
+        purgeOldTemporaryFiles();
 
-            String spec = getSpecFromPostBody(httpServletRequest);
-            tempFile = doCreatePDFFile(spec, httpServletRequest);
-            if (tempFile == null) {
-                error(httpServletResponse, "Missing 'spec' parameter", 500);
-                return;
-            }
+        final PrintJob job;
+        try {
+            final PJsonObject specJson = parseSpecFromPostBody(httpServletRequest);
+            job = createJob(specJson, httpServletRequest.getHeader("Referer"));
         } catch (Throwable e) {
-            deleteFile(tempFile);
             error(httpServletResponse, e);
             return;
         }
 
-        final String id = generateId(tempFile);
+        try {
+            jobQueue.submit(job);
+        } catch (RejectedExecutionException e) {
+            deleteFile(job.getFile());
+            httpServletResponse.setHeader("Retry-After", Integer.toString(retryAfter));
+            error(httpServletResponse, "Too many print jobs waiting (" + jobQueue.getQueueLength() + "), try again later", 503);
+            return;
+        }
+
+        final String id = job.getId();
         httpServletResponse.setContentType("application/json; charset=utf-8");
         PrintWriter writer = null;
         try {
@@ -163,41 +200,50 @@ public class MapPrinterServlet extends BaseMapServlet {
             JSONWriter json = new JSONWriter(writer);
             json.object();
             {
+                json.key("id").value(id);
                 json.key("getURL").value(basePath + "/" + id + TEMP_FILE_SUFFIX);
+                json.key("statusURL").value(basePath + STATUS_URL + id + STATUS_SUFFIX);
             }
             json.endObject();
         } catch (JSONException e) {
-            deleteFile(tempFile);
             throw new ServletException(e);
         } catch (IOException e) {
-            deleteFile(tempFile);
             throw new ServletException(e);
         } finally {
             if(writer != null) {
                 writer.close();
             }
         }
-        addTempFile(tempFile, id);
     }
 
-    protected void addTempFile(TempFile tempFile, String id) {
-        synchronized (tempFiles) {
-            tempFiles.put(id, tempFile);
+    /**
+     * Creates the job and its temporary file, the rendering is done later by
+     * the job queue.
+     */
+    protected PrintJob createJob(final PJsonObject specJson, final String referer) throws IOException, ServletException {
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Queuing PDF for spec=" + specJson);
         }
+
+        final TempFile tempFile = createTempFile(specJson);
+        return new PrintJob(generateId(tempFile), tempFile) {
+            protected void print(TempFile file) throws Exception {
+                printToFile(file, specJson, referer);
+            }
+        };
     }
 
-    protected String getSpecFromPostBody(HttpServletRequest httpServletRequest) throws IOException {
+    /**
+     * Parses the spec while it's received, to avoid having it in memory as
+     * text and as JSON at the same time.
+     */
+    protected PJsonObject parseSpecFromPostBody(HttpServletRequest httpServletRequest) throws IOException {
         if(httpServletRequest.getParameter("spec") != null) {
-            return httpServletRequest.getParameter("spec");
+            return MapPrinter.parseSpec(httpServletRequest.getParameter("spec"));
         }
         BufferedReader data = httpServletRequest.getReader();
         try {
-            StringBuilder spec = new StringBuilder();
-            String cur;
-            while ((cur = data.readLine()) != null) {
-                spec.append(cur).append("\n");
-            }
-            return spec.toString();
+            return MapPrinter.parseSpec(data);
         } finally {
             if(data != null) {
                 data.close();
@@ -206,27 +252,98 @@ public class MapPrinterServlet extends BaseMapServlet {
     }
 
     /**
-     * To get the PDF created previously.
+     * To get the PDF created previously. If the job is still queued or
+     * running, waits a few seconds for it, then answers with a 503 status.
      */
     protected void getFile(HttpServletRequest req, HttpServletResponse httpServletResponse, String id) throws IOException, ServletException {
-        final TempFile file;
-        synchronized (tempFiles) {
-            file = tempFiles.get(id);
-        }
-        if (file == null) {
+        final PrintJob job = jobQueue.get(id);
+        if (job == null) {
             error(httpServletResponse, "File with id=" + id + " unknown", 404);
             return;
         }
-        sendPdfFile(httpServletResponse, file, Boolean.parseBoolean(req.getParameter("inline")));
+        try {
+            if (!job.waitForCompletion(GET_FILE_MAX_WAIT_SECONDS * 1000L)) {
+                notReady(httpServletResponse, id);
+                return;
+            }
+        } catch (InterruptedException e) {
+            throw new ServletException(e);
+        }
+        if (job.getStatus() == PrintJob.Status.ERROR) {
+            error(httpServletResponse, job.getError());
+            return;
+        }
+        sendPdfFile(httpServletResponse, job.getFile(), Boolean.parseBoolean(req.getParameter("inline")));
+    }
+
+    private void notReady(HttpServletResponse httpServletResponse, String id) throws IOException {
+        httpServletResponse.setStatus(503);
+        httpServletResponse.setHeader("Retry-After", Integer.toString(retryAfter));
+        httpServletResponse.setContentType("text/plain");
+        final PrintWriter out = httpServletResponse.getWriter();
+        try {
+            out.println("The job with id=" + id + " is not finished yet, try again later");
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * To get (in JSON) the status of a job created by create.json.
+     */
+    protected void getStatus(HttpServletRequest req, HttpServletResponse httpServletResponse, String id) throws IOException, ServletException {
+        final PrintJob job = jobQueue.get(id);
+        if (job == null) {
+            error(httpServletResponse, "Job with id=" + id + " unknown", 404);
+            return;
+        }
+
+        httpServletResponse.setContentType("application/json; charset=utf-8");
+        final PrintWriter writer = httpServletResponse.getWriter();
+        try {
+            JSONWriter json = new JSONWriter(writer);
+            json.object();
+            {
+                job.printStatus(json);
+                if (job.getStatus() == PrintJob.Status.DONE) {
+                    json.key("getURL").value(getBaseUrl(req) + "/" + id + TEMP_FILE_SUFFIX);
+                }
+                printTileStats(json, getMapPrinter(job.getFile().app).getConfig());
+            }
+            json.endObject();
+        } catch (JSONException e) {
+            throw new ServletException(e);
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Writes the load of the map servers, to know why a job is slow.
+     */
+    private void printTileStats(JSONWriter json, Config config) throws JSONException {
+        json.key("tileHosts").array();
+        for (TileScheduler.HostStats stats : config.getTileStats()) {
+            json.object();
+            {
+                json.key("host").value(stats.getHost());
+                json.key("queued").value(stats.getQueued());
+                json.key("running").value(stats.getRunning());
+                json.key("nbTasks").value(stats.getNbTasks());
+                json.key("averageWaitTime").value(stats.getAverageWaitTime());
+                json.key("maxWaitTime").value(stats.getMaxWaitTime());
+            }
+            json.endObject();
+        }
+        json.endArray();
     }
 
     /**
      * To get (in JSON) the information about the available formats and CO.
      */
     protected void getInfo(HttpServletRequest req, HttpServletResponse resp, String basePath) throws ServletException, IOException {
-    	app = req.getParameter("app");
-    	//System.out.println("app = "+app);
-    	
+        final String app = req.getParameter("app");
+
         MapPrinter printer = getMapPrinter(app);
         resp.setContentType("application/json; charset=utf-8");
         final PrintWriter writer = resp.getWriter();
@@ -262,34 +379,59 @@ public class MapPrinterServlet extends BaseMapServlet {
 
 
     /**
-     * Do the actual work of creating the PDF temporary file.
+     * Creates the PDF directly in the response. The output formats needing
+     * some post-processing (images) are using their own temporary files.
      */
-    protected TempFile doCreatePDFFile(String spec, HttpServletRequest httpServletRequest) throws IOException, DocumentException, ServletException {
+    protected void doCreatePDFStream(String spec, HttpServletRequest httpServletRequest, HttpServletResponse httpServletResponse, boolean inline) throws IOException, DocumentException, ServletException {
         if (LOGGER.isDebugEnabled()) {
             LOGGER.debug("Generating PDF for spec=" + spec);
         }
 
-        PJsonObject specJson = MapPrinter.parseSpec(spec);
-        if (specJson.has("app")) {
-        	app = specJson.getString("app");
-        } else {
-        	app = null;
-        }
+        final PJsonObject specJson = MapPrinter.parseSpec(spec);
+        final ConfigSnapshot config = acquireConfig(specJson.optString("app", null));
+        try {
+            final MapPrinter mapPrinter = config.getPrinter();
+            final OutputFormat outputFormat = OutputFactory.create(mapPrinter.getConfig(), specJson);
 
-        String referer = httpServletRequest.getHeader("Referer");
+            httpServletResponse.setContentType(outputFormat.contentType());
+            if (!inline) {
+                final String fileName = getOutputFileName(mapPrinter, specJson.optString(Constants.OUTPUT_FILENAME_KEY),
+                        specJson.optString(Constants.JSON_LAYOUT_KEY, null), outputFormat.fileSuffix(), TEMP_FILE_PREFIX);
+                httpServletResponse.setHeader("Content-disposition", "attachment; filename=" + fileName);
+            }
 
-        final OutputFormat outputFormat = OutputFactory.create(getMapPrinter(app).getConfig(),specJson);
-        //create a temporary file that will contain the PDF
+            // not closed on error, so the response is not committed if
+            // nothing was sent yet and the caller can still send an error
+            final OutputStream out = new BufferedOutputStream(httpServletResponse.getOutputStream(), STREAM_BUFFER_SIZE);
+            outputFormat.print(mapPrinter, specJson, out, httpServletRequest.getHeader("Referer"));
+            out.close();
+        } finally {
+            config.release();
+        }
+    }
+
+    /**
+     * Create a temporary file that will contain the PDF.
+     */
+    protected TempFile createTempFile(PJsonObject specJson) throws IOException, ServletException {
+        final String app = specJson.optString("app", null);
+        final OutputFormat outputFormat = OutputFactory.create(getMapPrinter(app).getConfig(), specJson);
         final File tempJavaFile = File.createTempFile(TEMP_FILE_PREFIX, "."+outputFormat.fileSuffix()+TEMP_FILE_SUFFIX, getTempDir());
-        TempFile tempFile = new TempFile(tempJavaFile, specJson, outputFormat);
+        return new TempFile(tempJavaFile, specJson, outputFormat);
+    }
 
+    /**
+     * Renders the PDF into the given temporary file. Deletes the file in case
+     * of error.
+     */
+    protected void printToFile(TempFile tempFile, PJsonObject specJson, String referer) throws IOException, DocumentException, ServletException {
         FileOutputStream out = null;
+        ConfigSnapshot config = null;
         try {
             out = new FileOutputStream(tempFile);
 
-            outputFormat.print(getMapPrinter(app), specJson, out, referer);
-
-            return tempFile;
+            config = acquireConfig(tempFile.app);
+            tempFile.getOutputFormat().print(config.getPrinter(), specJson, out, referer);
         } catch (IOException e) {
             deleteFile(tempFile);
             throw e;
@@ -300,6 +442,9 @@ public class MapPrinterServlet extends BaseMapServlet {
             deleteFile(tempFile);
             throw e;
         } finally {
+            if (config != null) {
+                config.release();
+            }
             if (out != null)
                 out.close();
         }
@@ -314,7 +459,7 @@ public class MapPrinterServlet extends BaseMapServlet {
         try {
             httpServletResponse.setContentType(tempFile.contentType());
             if (inline != true) {
-                final String fileName = tempFile.getOutputFileName(getMapPrinter(app));
+                final String fileName = tempFile.getOutputFileName(getMapPrinter(tempFile.app));
                 httpServletResponse.setHeader("Content-disposition", "attachment; filename=" + fileName);
             }
             FileUtilities.copyStream(pdf, response);
@@ -431,52 +576,57 @@ public class MapPrinterServlet extends BaseMapServlet {
     protected void purgeOldTemporaryFiles() {
         if (!purging.getAndSet(true)) {
             final long minTime = System.currentTimeMillis() - TEMP_FILE_PURGE_SECONDS * 1000L;
-            synchronized (tempFiles) {
-                Iterator<Map.Entry<String, TempFile>> it = tempFiles.entrySet().iterator();
-                while (it.hasNext()) {
-                    Map.Entry<String, TempFile> entry = it.next();
-                    if (entry.getValue().creationTime < minTime) {
-                        deleteFile(entry.getValue());
-                        it.remove();
-                    }
-                }
-            }
+            jobQueue.purge(minTime);
             purging.set(false);
         }
     }
 
+    /**
+     * The name of the file, as seen by the client, for the given spec.
+     */
+    protected static String getOutputFileName(MapPrinter mapPrinter, String outputFileName, String printedLayoutName,
+                                              String suffix, String defaultName) {
+        if(outputFileName != null) {
+            return addSuffix(outputFileName, suffix);
+        } else {
+            return addSuffix(mapPrinter.getOutputFilename(printedLayoutName, defaultName), suffix);
+        }
+    }
+
+    private static String addSuffix(String startingName, String suffix) {
+        if(!startingName.toLowerCase().endsWith("."+suffix.toLowerCase())) {
+            return startingName+"."+suffix;
+        } else {
+            return startingName;
+        }
+    }
+
     protected static class TempFile extends File {
         private static final long serialVersionUID = 455104129549002361L;
-        private final long creationTime;
+        public final String app;
         public final String printedLayoutName;
         public final String outputFileName;
+        private final OutputFormat outputFormat;
         private final String contentType;
         private String suffix;
 
         public TempFile(File tempFile, PJsonObject jsonSpec, OutputFormat format) {
             super(tempFile.getAbsolutePath());
-            creationTime = System.currentTimeMillis();
+            this.app = jsonSpec.optString("app", null);
             this.outputFileName = jsonSpec.optString(Constants.OUTPUT_FILENAME_KEY);
             this.printedLayoutName = jsonSpec.optString(Constants.JSON_LAYOUT_KEY, null);
 
+            this.outputFormat = format;
             this.suffix = format.fileSuffix();
             this.contentType = format.contentType();
         }
 
-        public String getOutputFileName(MapPrinter mapPrinter) {
-            if(outputFileName != null) {
-                return addSuffix(outputFileName);
-            } else {
-                return addSuffix(mapPrinter.getOutputFilename(printedLayoutName, getName()));
-            }
+        public OutputFormat getOutputFormat() {
+            return outputFormat;
         }
 
-        private String addSuffix(String startingName) {
-            if(!startingName.toLowerCase().endsWith("."+suffix.toLowerCase())) {
-                return startingName+"."+suffix;
-            } else {
-                return startingName;
-            }
+        public String getOutputFileName(MapPrinter mapPrinter) {
+            return MapPrinterServlet.getOutputFileName(mapPrinter, outputFileName, printedLayoutName, suffix, getName());
         }
 
         public String contentType() {
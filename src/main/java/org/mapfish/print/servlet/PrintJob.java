@@ -0,0 +1,144 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.servlet;
+
+import org.apache.log4j.Logger;
+import org.json.JSONException;
+import org.json.JSONWriter;
+
+/**
+ * A print requested through create.json. Rendered asynchronously by a
+ * {@link PrintJobQueue} into its temporary file.
+ */
+public abstract class PrintJob implements Runnable {
+    public static final Logger LOGGER = Logger.getLogger(PrintJob.class);
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, ERROR
+    }
+
+    private final String id;
+    private final MapPrinterServlet.TempFile file;
+
+    private Status status = Status.QUEUED;
+    private final long creationTime;
+    private long startTime = 0;
+    private long endTime = 0;
+    private Throwable error = null;
+
+    public PrintJob(String id, MapPrinterServlet.TempFile file) {
+        this.id = id;
+        this.file = file;
+        creationTime = System.currentTimeMillis();
+    }
+
+    /**
+     * Does the actual rendering into the temporary file.
+     */
+    protected abstract void print(MapPrinterServlet.TempFile file) throws Exception;
+
+    public void run() {
+        synchronized (this) {
+            status = Status.RUNNING;
+            startTime = System.currentTimeMillis();
+        }
+        Status result = Status.ERROR;
+        Throwable failure = null;
+        try {
+            print(file);
+            result = Status.DONE;
+        } catch (Throwable e) {
+            LOGGER.error("Error while generating the print job " + id, e);
+            failure = e;
+            file.delete();
+        } finally {
+            synchronized (this) {
+                status = result;
+                error = failure;
+                endTime = System.currentTimeMillis();
+                notifyAll();
+            }
+        }
+        if (LOGGER.isInfoEnabled()) {
+            LOGGER.info("Print job " + id + " " + result + " (waited " + (startTime - creationTime) + "ms, rendered in " + (endTime - startTime) + "ms)");
+        }
+    }
+
+    /**
+     * Waits for the job to be finished (done or in error).
+     *
+     * @return True if the job is finished
+     */
+    public synchronized boolean waitForCompletion(long timeout) throws InterruptedException {
+        final long end = System.currentTimeMillis() + timeout;
+        while (!isFinished()) {
+            final long remaining = end - System.currentTimeMillis();
+            if (remaining <= 0) {
+                return false;
+            }
+            wait(remaining);
+        }
+        return true;
+    }
+
+    public synchronized boolean isFinished() {
+        return status == Status.DONE || status == Status.ERROR;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public MapPrinterServlet.TempFile getFile() {
+        return file;
+    }
+
+    public synchronized Status getStatus() {
+        return status;
+    }
+
+    public synchronized Throwable getError() {
+        return error;
+    }
+
+    public long getCreationTime() {
+        return creationTime;
+    }
+
+    public synchronized long getEndTime() {
+        return endTime;
+    }
+
+    /**
+     * Writes the status and the timings (in milliseconds) of the job.
+     */
+    public synchronized void printStatus(JSONWriter json) throws JSONException {
+        final long now = System.currentTimeMillis();
+        json.key("id").value(id);
+        json.key("status").value(status.name().toLowerCase());
+        json.key("waitingTime").value((startTime > 0 ? startTime : now) - creationTime);
+        if (startTime > 0) {
+            json.key("renderingTime").value((endTime > 0 ? endTime : now) - startTime);
+        }
+        if (error != null) {
+            json.key("error").value(error.toString());
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.servlet;
+
+import org.apache.log4j.Logger;
+
+import java.util.Iterator;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Registry of the print jobs and pool of threads rendering them.
+ * <p/>
+ * The number of jobs waiting to be rendered is limited, when the queue is
+ * full new jobs are rejected.
+ */
+public class PrintJobQueue {
+    public static final Logger LOGGER = Logger.getLogger(PrintJobQueue.class);
+
+    private final ThreadPoolExecutor executor;
+    private final ConcurrentHashMap<String, PrintJob> jobs = new ConcurrentHashMap<String, PrintJob>();
+
+    /**
+     * @param nbWorkers      The number of jobs rendered in parallel
+     * @param maxQueueLength The maximum number of jobs waiting for a worker
+     */
+    public PrintJobQueue(int nbWorkers, int maxQueueLength) {
+        final AtomicInteger threadNumber = new AtomicInteger(0);
+        executor = new ThreadPoolExecutor(nbWorkers, nbWorkers, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(maxQueueLength),
+                new ThreadFactory() {
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "printJob-" + threadNumber.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        LOGGER.info("Print jobs rendered by " + nbWorkers + " threads, at most " + maxQueueLength + " jobs waiting");
+    }
+
+    /**
+     * Registers and queues the given job.
+     *
+     * @throws RejectedExecutionException If the queue is full
+     */
+    public void submit(PrintJob job) throws RejectedExecutionException {
+        jobs.put(job.getId(), job);
+        try {
+            executor.execute(job);
+        } catch (RejectedExecutionException e) {
+            jobs.remove(job.getId());
+            LOGGER.warn("Print job " + job.getId() + " rejected, the queue is full");
+            throw e;
+        }
+    }
+
+    public PrintJob get(String id) {
+        return jobs.get(id);
+    }
+
+    /**
+     * @return The number of jobs waiting for a worker.
+     */
+    public int getQueueLength() {
+        return executor.getQueue().size();
+    }
+
+    /**
+     * Forgets about the jobs that finished before the given time and deletes
+     * their files.
+     */
+    public void purge(long minTime) {
+        Iterator<PrintJob> it = jobs.values().iterator();
+        while (it.hasNext()) {
+            PrintJob job = it.next();
+            if (job.isFinished() && job.getEndTime() < minTime) {
+                it.remove();
+                deleteFile(job);
+            }
+        }
+    }
+
+    /**
+     * Stops the workers and deletes all the files.
+     */
+    public void shutdown() {
+        executor.shutdownNow();
+        for (PrintJob job : jobs.values()) {
+            deleteFile(job);
+        }
+        jobs.clear();
+    }
+
+    private static void deleteFile(PrintJob job) {
+        if (job.getFile().exists() && !job.getFile().delete()) {
+            LOGGER.warn("Cannot delete file:" + job.getFile().getAbsolutePath());
+        }
+    }
+}
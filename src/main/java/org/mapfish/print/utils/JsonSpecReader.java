@@ -0,0 +1,627 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.utils;
+
+import com.vividsolutions.jts.geom.CoordinateSequence;
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.GeometryFactory;
+import com.vividsolutions.jts.geom.LineString;
+import com.vividsolutions.jts.geom.LinearRing;
+import com.vividsolutions.jts.geom.Point;
+import com.vividsolutions.jts.geom.Polygon;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequence;
+import com.vividsolutions.jts.geom.impl.PackedCoordinateSequenceFactory;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a spec directly from a stream, without having it in a String
+ * first.
+ * <p/>
+ * The result is made of the usual org.json objects, except for the values
+ * of the "geoJson" keys. Those are decoded on the fly into a
+ * {@link PackedGeoJson}, to avoid having the coordinates of big vector
+ * layers as JSON arrays of Double objects.
+ * <p/>
+ * The same relaxed syntax as {@link org.json.JSONTokener} is accepted:
+ * single quoted strings, unquoted keys and values, '=' or '=>' after the
+ * keys, ';' as separator and extra separators before a closing bracket.
+ */
+public class JsonSpecReader {
+    private static final String GEO_JSON_KEY = "geoJson";
+
+    /**
+     * The chars ending an unquoted value, like in {@link org.json.JSONTokener}.
+     */
+    private static final String WORD_DELIMITERS = ",:]}/\\\"[{;=#";
+    private static final int BUFFER_SIZE = 16 * 1024;
+
+    private final Reader reader;
+    private final char[] buffer = new char[BUFFER_SIZE];
+    private int pos = 0;
+    private int end = 0;
+
+    /**
+     * Number of chars before the buffer, for the error messages.
+     */
+    private long offset = 0;
+
+    private final StringBuilder text = new StringBuilder();
+    private final GeometryFactory geometryFactory =
+            new GeometryFactory(new PackedCoordinateSequenceFactory(PackedCoordinateSequenceFactory.DOUBLE, 2));
+
+    public JsonSpecReader(Reader reader) {
+        this.reader = reader;
+    }
+
+    /**
+     * Reads the whole stream, that must contain one JSON object.
+     */
+    public JSONObject readObject() throws IOException, JSONException {
+        if (skipWhitespace() != '{') {
+            throw error("A JSON object must begin with '{'");
+        }
+        final JSONObject result = parseObject();
+        if (skipWhitespace() != -1) {
+            throw error("Unexpected content after the JSON object");
+        }
+        return result;
+    }
+
+    private Object parseValue() throws IOException, JSONException {
+        final int c = skipWhitespace();
+        switch (c) {
+            case '{':
+                return parseObject();
+            case '[':
+                return parseArray();
+            case '"':
+            case '\'':
+                return parseString();
+            case -1:
+                throw error("Unexpected end of the JSON");
+            default:
+                return parseLiteral();
+        }
+    }
+
+    private JSONObject parseObject() throws IOException, JSONException {
+        expect('{');
+        final JSONObject result = new JSONObject();
+        if (skipWhitespace() == '}') {
+            next();
+            return result;
+        }
+        while (true) {
+            final String key = parseKey();
+            if (key.equals(GEO_JSON_KEY) && skipWhitespace() == '{') {
+                result.put(key, new PackedGeoJson(parseGeoObject()));
+            } else {
+                result.put(key, parseValue());
+            }
+            if (!nextSeparator('}')) {
+                return result;
+            }
+        }
+    }
+
+    private JSONArray parseArray() throws IOException, JSONException {
+        expect('[');
+        final JSONArray result = new JSONArray();
+        if (skipWhitespace() == ']') {
+            next();
+            return result;
+        }
+        do {
+            final int c = skipWhitespace();
+            if (c == ',' || c == ';') {
+                result.put(JSONObject.NULL);
+            } else {
+                result.put(parseValue());
+            }
+        } while (nextSeparator(']'));
+        return result;
+    }
+
+    /**
+     * Reads a key, quoted or not, and the ':', '=' or '=>' after it.
+     */
+    private String parseKey() throws IOException, JSONException {
+        final int c = skipWhitespace();
+        final String key;
+        if (c == '"' || c == '\'') {
+            key = parseString();
+        } else {
+            key = readWord();
+            if (key.length() == 0) {
+                throw error("Expected a key");
+            }
+        }
+        final int separator = skipWhitespace();
+        if (separator == ':') {
+            next();
+        } else if (separator == '=') {
+            next();
+            if (peek() == '>') {
+                next();
+            }
+        } else {
+            throw error("Expected a ':' after a key");
+        }
+        return key;
+    }
+
+    /**
+     * @return True if a ',' (or ';') was found, false if it's the closing char
+     */
+    private boolean nextSeparator(char close) throws IOException, JSONException {
+        final int c = skipWhitespace();
+        if (c == ',' || c == ';') {
+            next();
+            if (skipWhitespace() == close) {
+                next();
+                return false;
+            }
+            return true;
+        } else if (c == close) {
+            next();
+            return false;
+        } else {
+            throw error("Expected ',' or '" + close + "'");
+        }
+    }
+
+    /**
+     * Reads a string quoted with '"' or '\''.
+     */
+    private String parseString() throws IOException, JSONException {
+        final int quote = next();
+        text.setLength(0);
+        while (true) {
+            final int c = next();
+            switch (c) {
+                case -1:
+                case '\n':
+                case '\r':
+                    throw error("Unterminated string");
+                case '\\':
+                    final int escaped = next();
+                    switch (escaped) {
+                        case 'b':
+                            text.append('\b');
+                            break;
+                        case 't':
+                            text.append('\t');
+                            break;
+                        case 'n':
+                            text.append('\n');
+                            break;
+                        case 'f':
+                            text.append('\f');
+                            break;
+                        case 'r':
+                            text.append('\r');
+                            break;
+                        case 'u':
+                            int value = 0;
+                            for (int i = 0; i < 4; ++i) {
+                                final int digit = Character.digit(next(), 16);
+                                if (digit < 0) {
+                                    throw error("Invalid unicode escape");
+                                }
+                                value = value * 16 + digit;
+                            }
+                            text.append((char) value);
+                            break;
+                        case -1:
+                            throw error("Unterminated string");
+                        default:
+                            text.append((char) escaped);
+                    }
+                    break;
+                default:
+                    if (c == quote) {
+                        return text.toString();
+                    }
+                    text.append((char) c);
+            }
+        }
+    }
+
+    /**
+     * Numbers, booleans, null and the unquoted strings.
+     */
+    private Object parseLiteral() throws IOException, JSONException {
+        final String value = readWord();
+        if (value.length() == 0) {
+            throw error("Missing value");
+        } else if (value.equalsIgnoreCase("true")) {
+            return Boolean.TRUE;
+        } else if (value.equalsIgnoreCase("false")) {
+            return Boolean.FALSE;
+        } else if (value.equalsIgnoreCase("null")) {
+            return JSONObject.NULL;
+        }
+
+        final char first = value.length() > 0 ? value.charAt(0) : ' ';
+        if ((first >= '0' && first <= '9') || first == '-' || first == '.' || first == '+') {
+            try {
+                if (value.indexOf('.') < 0 && value.indexOf('e') < 0 && value.indexOf('E') < 0) {
+                    final long longValue = Long.parseLong(value);
+                    if (longValue == (int) longValue) {
+                        return (int) longValue;
+                    }
+                    return longValue;
+                }
+                return Double.valueOf(value);
+            } catch (NumberFormatException e) {
+                // not a number, kept as a string
+            }
+        }
+        return value;
+    }
+
+    private double parseNumber() throws IOException, JSONException {
+        skipWhitespace();
+        final String value = readToken();
+        try {
+            return Double.parseDouble(value);
+        } catch (NumberFormatException e) {
+            throw error("Invalid coordinate: " + value);
+        }
+    }
+
+    /**
+     * Reads an unquoted value, until the next delimiter or end of line.
+     */
+    private String readWord() throws IOException {
+        text.setLength(0);
+        while (true) {
+            final int c = peek();
+            if (c < ' ' || WORD_DELIMITERS.indexOf(c) >= 0) {
+                return text.toString().trim();
+            }
+            text.append((char) next());
+        }
+    }
+
+    /**
+     * Reads until the next delimiter.
+     */
+    private String readToken() throws IOException {
+        text.setLength(0);
+        while (true) {
+            final int c = peek();
+            if (c == -1 || c == ',' || c == ']' || c == '}' || c == ':' || Character.isWhitespace(c)) {
+                return text.toString();
+            }
+            text.append((char) next());
+        }
+    }
+
+    /**
+     * Parses a geoJson object (geometry, feature or feature collection).
+     *
+     * @return A {@link Geometry}, a {@link PackedGeoJson.Feature} or a list of features
+     */
+    private Object parseGeoObject() throws IOException, JSONException {
+        expectAfterWhitespace('{');
+        String type = null;
+        String id = null;
+        Geometry geometry = null;
+        JSONObject properties = null;
+        List<PackedGeoJson.Feature> features = null;
+        Object coordinates = null;
+        List<Geometry> geometries = null;
+
+        if (skipWhitespace() == '}') {
+            next();
+            throw error("Empty geoJson object");
+        }
+        do {
+            final String key = parseKey();
+            final int c = skipWhitespace();
+            if (key.equals("type")) {
+                type = parseValue().toString();
+            } else if (key.equals("id")) {
+                final Object value = parseValue();
+                id = value == JSONObject.NULL ? null : value.toString();
+            } else if (key.equals("properties") && c == '{') {
+                properties = parseObject();
+            } else if (key.equals("geometry") && c == '{') {
+                geometry = toGeometry(parseGeoObject());
+            } else if (key.equals("geometries") && c == '[') {
+                geometries = new ArrayList<Geometry>();
+                expect('[');
+                if (skipWhitespace() == ']') {
+                    next();
+                } else {
+                    do {
+                        geometries.add(toGeometry(parseGeoObject()));
+                    } while (nextSeparator(']'));
+                }
+            } else if (key.equals("features") && c == '[') {
+                features = new ArrayList<PackedGeoJson.Feature>();
+                expect('[');
+                if (skipWhitespace() == ']') {
+                    next();
+                } else {
+                    do {
+                        final Object feature = parseGeoObject();
+                        if (!(feature instanceof PackedGeoJson.Feature)) {
+                            throw error("A FeatureCollection can contain only features");
+                        }
+                        features.add((PackedGeoJson.Feature) feature);
+                    } while (nextSeparator(']'));
+                }
+            } else if (key.equals("coordinates") && c == '[') {
+                coordinates = parseCoordinates();
+            } else {
+                // crs, bbox, null geometry, ...
+                parseValue();
+            }
+        } while (nextSeparator('}'));
+
+        if (type == null) {
+            throw error("Missing geoJson type");
+        }
+        try {
+            if (type.equals("FeatureCollection")) {
+                return features != null ? features : new ArrayList<PackedGeoJson.Feature>();
+            } else if (type.equals("Feature")) {
+                return new PackedGeoJson.Feature(id, geometry, properties != null ? properties : new JSONObject());
+            } else if (type.equals("GeometryCollection")) {
+                final List<Geometry> list = geometries != null ? geometries : new ArrayList<Geometry>();
+                return geometryFactory.createGeometryCollection(list.toArray(new Geometry[list.size()]));
+            } else {
+                return createGeometry(type, coordinates);
+            }
+        } catch (JSONException e) {
+            throw e;
+        } catch (RuntimeException e) {
+            // invalid structure of the coordinates, ring not closed, ...
+            final JSONException jsonException = error("Invalid " + type + ": " + e.getMessage());
+            jsonException.initCause(e);
+            throw jsonException;
+        }
+    }
+
+    private Geometry toGeometry(Object geo) throws JSONException {
+        if (!(geo instanceof Geometry)) {
+            throw error("Expected a geometry");
+        }
+        return (Geometry) geo;
+    }
+
+    private Geometry createGeometry(String type, Object coordinates) throws JSONException {
+        if (coordinates == null) {
+            throw error("Missing coordinates for " + type);
+        }
+        if (type.equals("Point")) {
+            return geometryFactory.createPoint(toSequence(coordinates));
+        } else if (type.equals("LineString")) {
+            return geometryFactory.createLineString(toSequence(coordinates));
+        } else if (type.equals("Polygon")) {
+            return createPolygon(coordinates);
+        } else if (type.equals("MultiPoint")) {
+            final CoordinateSequence sequence = toSequence(coordinates);
+            final Point[] points = new Point[sequence.size()];
+            for (int i = 0; i < points.length; ++i) {
+                points[i] = geometryFactory.createPoint(sequence.getCoordinate(i));
+            }
+            return geometryFactory.createMultiPoint(points);
+        } else if (type.equals("MultiLineString")) {
+            final List<?> lines = toList(coordinates);
+            final LineString[] result = new LineString[lines.size()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = geometryFactory.createLineString(toSequence(lines.get(i)));
+            }
+            return geometryFactory.createMultiLineString(result);
+        } else if (type.equals("MultiPolygon")) {
+            final List<?> polygons = toList(coordinates);
+            final Polygon[] result = new Polygon[polygons.size()];
+            for (int i = 0; i < result.length; ++i) {
+                result[i] = createPolygon(polygons.get(i));
+            }
+            return geometryFactory.createMultiPolygon(result);
+        } else {
+            throw error("Unsupported geoJson type: " + type);
+        }
+    }
+
+    private Polygon createPolygon(Object coordinates) throws JSONException {
+        final List<?> rings = toList(coordinates);
+        if (rings.isEmpty()) {
+            return geometryFactory.createPolygon(null, null);
+        }
+        final LinearRing shell = geometryFactory.createLinearRing(toSequence(rings.get(0)));
+        final LinearRing[] holes = new LinearRing[rings.size() - 1];
+        for (int i = 0; i < holes.length; ++i) {
+            holes[i] = geometryFactory.createLinearRing(toSequence(rings.get(i + 1)));
+        }
+        return geometryFactory.createPolygon(shell, holes);
+    }
+
+    private List<?> toList(Object coordinates) throws JSONException {
+        if (coordinates instanceof List) {
+            return (List<?>) coordinates;
+        }
+        if (coordinates instanceof PackedPositions && ((PackedPositions) coordinates).size == 0) {
+            return new ArrayList<Object>();
+        }
+        throw error("Wrong nesting of the coordinates");
+    }
+
+    private CoordinateSequence toSequence(Object coordinates) throws JSONException {
+        if (coordinates instanceof PackedPositions) {
+            return ((PackedPositions) coordinates).toSequence();
+        } else if (coordinates instanceof double[]) {
+            return new PackedCoordinateSequence.Double((double[]) coordinates, 2);
+        } else if (coordinates instanceof List && ((List<?>) coordinates).isEmpty()) {
+            return new PackedCoordinateSequence.Double(new double[0], 2);
+        }
+        throw error("Wrong nesting of the coordinates");
+    }
+
+    /**
+     * @return A position (double[2]), positions ({@link PackedPositions}) or a list of those
+     */
+    private Object parseCoordinates() throws IOException, JSONException {
+        expectAfterWhitespace('[');
+        return parseCoordinatesContent();
+    }
+
+    /**
+     * Same as {@link #parseCoordinates()} when the opening '[' is already read.
+     */
+    private Object parseCoordinatesContent() throws IOException, JSONException {
+        int c = skipWhitespace();
+        if (c == ']') {
+            next();
+            return new ArrayList<Object>();
+        }
+        if (c != '[') {
+            final PackedPositions position = new PackedPositions(1);
+            parsePositionContent(position);
+            return new double[]{position.coords[0], position.coords[1]};
+        }
+
+        // look at the first element to know if it's an array of positions
+        expect('[');
+        c = skipWhitespace();
+        if (c != '[' && c != ']') {
+            final PackedPositions result = new PackedPositions(16);
+            parsePositionContent(result);
+            while (nextSeparator(']')) {
+                expectAfterWhitespace('[');
+                parsePositionContent(result);
+            }
+            return result;
+        }
+
+        final List<Object> result = new ArrayList<Object>();
+        result.add(parseCoordinatesContent());
+        while (nextSeparator(']')) {
+            result.add(parseCoordinates());
+        }
+        return result;
+    }
+
+    /**
+     * Reads "x, y[, z...]]" (the '[' is already read) and adds x and y.
+     */
+    private void parsePositionContent(PackedPositions target) throws IOException, JSONException {
+        final double x = parseNumber();
+        expectAfterWhitespace(',');
+        final double y = parseNumber();
+        while (nextSeparator(']')) {
+            parseNumber();  // altitude, ignored
+        }
+        target.add(x, y);
+    }
+
+    private int skipWhitespace() throws IOException {
+        while (true) {
+            final int c = peek();
+            if (c == -1 || !Character.isWhitespace(c)) {
+                return c;
+            }
+            pos++;
+        }
+    }
+
+    private void expect(char expected) throws IOException, JSONException {
+        if (next() != expected) {
+            pos--;
+            throw error("Expected '" + expected + "'");
+        }
+    }
+
+    private void expectAfterWhitespace(char expected) throws IOException, JSONException {
+        skipWhitespace();
+        expect(expected);
+    }
+
+    private int peek() throws IOException {
+        if (pos >= end && !fill()) {
+            return -1;
+        }
+        return buffer[pos];
+    }
+
+    private int next() throws IOException {
+        if (pos >= end && !fill()) {
+            pos++;  // so that the pos-- in expect() stays consistent
+            return -1;
+        }
+        return buffer[pos++];
+    }
+
+    private boolean fill() throws IOException {
+        if (pos > end) {
+            // already at the end
+            return false;
+        }
+        offset += end;
+        pos = 0;
+        final int nb = reader.read(buffer, 0, buffer.length);
+        end = Math.max(nb, 0);
+        return nb > 0;
+    }
+
+    private JSONException error(String message) {
+        return new JSONException(message + " at character " + (offset + pos) + " of the spec");
+    }
+
+    /**
+     * Growable array of x,y pairs.
+     */
+    private static class PackedPositions {
+        private double[] coords;
+        private int size = 0;
+
+        private PackedPositions(int capacity) {
+            coords = new double[capacity * 2];
+        }
+
+        private void add(double x, double y) {
+            if (size * 2 + 2 > coords.length) {
+                final double[] bigger = new double[coords.length * 2];
+                System.arraycopy(coords, 0, bigger, 0, size * 2);
+                coords = bigger;
+            }
+            coords[size * 2] = x;
+            coords[size * 2 + 1] = y;
+            size++;
+        }
+
+        private CoordinateSequence toSequence() {
+            final double[] exact = new double[size * 2];
+            System.arraycopy(coords, 0, exact, 0, exact.length);
+            return new PackedCoordinateSequence.Double(exact, 2);
+        }
+    }
+}
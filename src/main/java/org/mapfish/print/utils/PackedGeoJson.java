@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.utils;
+
+import com.vividsolutions.jts.geom.Geometry;
+import org.json.JSONObject;
+import org.mapfish.geo.MfFeature;
+import org.mapfish.geo.MfGeo;
+import org.mapfish.geo.MfGeoFactory;
+import org.mapfish.geo.MfGeometry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A geoJson object of the spec, already decoded into JTS geometries by
+ * {@link JsonSpecReader}. The coordinates are stored in packed arrays of
+ * doubles instead of JSON arrays of numbers.
+ * <p/>
+ * Stored in the spec in place of the JSONObject it replaces.
+ */
+public class PackedGeoJson {
+    /**
+     * A {@link Geometry}, a {@link Feature} or a list of features.
+     */
+    private final Object root;
+
+    PackedGeoJson(Object root) {
+        this.root = root;
+    }
+
+    /**
+     * Creates the MfGeo objects, like {@link org.mapfish.geo.MfGeoJSONReader} would.
+     */
+    public MfGeo toMfGeo(MfGeoFactory factory) {
+        return toMfGeo(factory, root);
+    }
+
+    @SuppressWarnings({"unchecked"})
+    private static MfGeo toMfGeo(MfGeoFactory factory, Object node) {
+        if (node instanceof Geometry) {
+            return factory.createGeometry((Geometry) node);
+        } else if (node instanceof Feature) {
+            final Feature feature = (Feature) node;
+            final MfGeometry geometry = feature.geometry != null ? factory.createGeometry(feature.geometry) : null;
+            return factory.createFeature(feature.id, geometry, feature.properties);
+        } else {
+            final List<Feature> features = (List<Feature>) node;
+            final List<MfFeature> result = new ArrayList<MfFeature>(features.size());
+            for (Feature feature : features) {
+                result.add((MfFeature) toMfGeo(factory, feature));
+            }
+            return factory.createFeatureCollection(result);
+        }
+    }
+
+    @SuppressWarnings({"unchecked"})
+    public String toString() {
+        if (root instanceof List) {
+            return "PackedGeoJson{" + ((List<Feature>) root).size() + " features}";
+        } else {
+            return "PackedGeoJson{" + root + "}";
+        }
+    }
+
+    static class Feature {
+        private final String id;
+        private final Geometry geometry;
+        private final JSONObject properties;
+
+        Feature(String id, Geometry geometry, JSONObject properties) {
+            this.id = id;
+            this.geometry = geometry;
+            this.properties = properties;
+        }
+
+        public String toString() {
+            return "Feature{id=" + id + "}";
+        }
+    }
+}
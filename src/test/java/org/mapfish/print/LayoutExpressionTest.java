@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print;
+
+import com.lowagie.text.BadElementException;
+import com.lowagie.text.Chunk;
+import com.lowagie.text.Font;
+import com.lowagie.text.Phrase;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mapfish.print.utils.PJsonObject;
+
+public class LayoutExpressionTest extends PdfTestCase {
+    private PJsonObject page;
+
+    public LayoutExpressionTest(String name) {
+        super(name);
+    }
+
+    @Override
+    protected void setUp() throws Exception {
+        super.setUp();
+        page = context.getGlobalParams().getJSONArray("pages").getJSONObject(0);
+    }
+
+    public void testConstant() {
+        LayoutExpression expression = LayoutExpression.compile("no variable");
+        assertTrue(expression.isConstant());
+        assertEquals("no variable", expression.eval(context, page));
+        assertSame(expression, LayoutExpression.compile("no variable"));
+
+        assertTrue(LayoutExpression.compile("").isConstant());
+        assertEquals("", LayoutExpression.compile("").eval(context, page));
+        assertNull(LayoutExpression.compile(null));
+    }
+
+    public void testMixed() {
+        LayoutExpression expression = LayoutExpression.compile("${mapTitle} - ${title}!");
+        assertFalse(expression.isConstant());
+        assertEquals("First map - A simple example!", expression.eval(context, page));
+        assertEquals("${mapTitle} - ${title}!", expression.getSource());
+
+        assertEquals("First map", LayoutExpression.compile("${mapTitle}").eval(context, page));
+        assertEquals("[First map]", LayoutExpression.compile("[${mapTitle}]").eval(context, page));
+    }
+
+    public void testFormat() {
+        assertEquals("1:" + String.format("%,d", 4000000L), LayoutExpression.compile("1:${format %,d scale}").eval(context, page));
+        assertEquals("Rotation: 000", LayoutExpression.compile("Rotation: ${format %03d rotation}").eval(context, page));
+    }
+
+    public void testPageTotal() throws BadElementException {
+        doc.newPage();
+        LayoutExpression expression = LayoutExpression.compile("Page ${pageNum}/${pageTot}");
+        Phrase phrase = expression.render(context, page, new Font(Font.HELVETICA, 10));
+        assertEquals("Page " + context.getWriter().getPageNumber() + "/", getText(phrase));
+        assertEquals(1, countPlaceHolders(phrase));
+
+        Phrase other = LayoutExpression.compile("${pageTot}").render(context, page, new Font(Font.HELVETICA, 10));
+        assertEquals("", getText(other));
+        assertEquals(1, countPlaceHolders(other));
+    }
+
+    public void testScale() throws JSONException {
+        LayoutExpression expression = LayoutExpression.compile("${scale}");
+        assertEquals("4000000", expression.eval(context, page));
+
+        // computed once per page
+        page.getInternalObj().put("scale", 25000);
+        assertEquals("4000000", expression.eval(context, page));
+
+        PJsonObject otherPage = new PJsonObject(new JSONObject(page.getInternalObj().toString()), "otherPage");
+        assertEquals("25000", expression.eval(context, otherPage));
+        assertEquals("4000000", expression.eval(context, page));
+    }
+
+    public void testMissing() {
+        try {
+            LayoutExpression.compile("Hello ${missing}").eval(context, page);
+            fail("Supposed to have thrown a JsonMissingException");
+        } catch (JsonMissingException ex) {
+            //expected
+        }
+    }
+
+    public void testNoContext() throws JSONException {
+        assertEquals("First map", LayoutExpression.compile("${mapTitle}").eval(null, page));
+
+        // the global parameters and the special names are not available
+        try {
+            LayoutExpression.compile("${title}").eval(null, page);
+            fail("Supposed to have thrown a JsonMissingException");
+        } catch (JsonMissingException ex) {
+            //expected
+        }
+        try {
+            LayoutExpression.compile("${pageNum}").eval(null, page);
+            fail("Supposed to have thrown a JsonMissingException");
+        } catch (JsonMissingException ex) {
+            //expected
+        }
+
+        // and are taken from the parameters instead
+        page.getInternalObj().put("pageNum", "12");
+        assertEquals("Page 12", LayoutExpression.compile("Page ${pageNum}").eval(null, page));
+        assertEquals("4000000", LayoutExpression.compile("${scale}").eval(null, page));
+    }
+
+    private static String getText(Phrase phrase) {
+        StringBuilder result = new StringBuilder();
+        for (Object element : phrase) {
+            Chunk chunk = (Chunk) element;
+            if (!chunk.hasAttributes()) {
+                result.append(chunk.getContent());
+            }
+        }
+        return result.toString();
+    }
+
+    /**
+     * The total number of pages is an image filled in when the document is closed.
+     */
+    private static int countPlaceHolders(Phrase phrase) {
+        int result = 0;
+        for (Object element : phrase) {
+            if (((Chunk) element).getImage() != null) {
+                ++result;
+            }
+        }
+        return result;
+    }
+}
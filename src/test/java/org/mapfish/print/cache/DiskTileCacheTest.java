@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import org.mapfish.print.PrintTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URI;
+
+public class DiskTileCacheTest extends PrintTestCase {
+    private static final long TTL = 60 * 1000;
+
+    private File dir;
+
+    public DiskTileCacheTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        dir = File.createTempFile("tileCache", "");
+        dir.delete();
+    }
+
+    protected void tearDown() throws Exception {
+        delete(dir);
+        super.tearDown();
+    }
+
+    public void testPutGet() {
+        DiskTileCache cache = new DiskTileCache(dir, 1000, TTL);
+        final URI uri = URI.create("http://example.com/tile?x=1");
+        assertNull(cache.get(uri));
+
+        cache.put(uri, "image/png", "\"abc\"", null, cache.getExpiry(null, null), new byte[]{1, 2, 3});
+        DiskTileCache.CachedTile tile = cache.get(uri);
+        assertNotNull(tile);
+        assertTrue(tile.isFresh());
+        assertEquals("image/png", tile.getContentType());
+        assertEquals("\"abc\"", tile.getEtag());
+        assertNull(tile.getLastModified());
+        assertEquals(3, tile.getData().length);
+        assertEquals(3, tile.getData()[2]);
+
+        // survives a restart
+        cache = new DiskTileCache(dir, 1000, TTL);
+        assertEquals(1, cache.getNbEntries());
+        assertNotNull(cache.get(uri));
+    }
+
+    public void testEviction() {
+        DiskTileCache cache = new DiskTileCache(dir, 1000, TTL);
+        final URI uri1 = URI.create("http://example.com/tile?x=1");
+        final URI uri2 = URI.create("http://example.com/tile?x=2");
+        final URI uri3 = URI.create("http://example.com/tile?x=3");
+        final long expiry = cache.getExpiry(null, null);
+        cache.put(uri1, "image/png", null, null, expiry, new byte[400]);
+        cache.put(uri2, "image/png", null, null, expiry, new byte[400]);
+        assertNotNull(cache.get(uri1));  // uri2 becomes the least recently used
+        cache.put(uri3, "image/png", null, null, expiry, new byte[400]);
+
+        assertEquals(2, cache.getNbEntries());
+        assertTrue(cache.getTotalBytes() <= 1000);
+        assertNotNull(cache.get(uri1));
+        assertNull(cache.get(uri2));
+        assertNotNull(cache.get(uri3));
+    }
+
+    public void testExpiry() {
+        DiskTileCache cache = new DiskTileCache(dir, 1000, TTL);
+        final long now = System.currentTimeMillis();
+        assertEquals(DiskTileCache.NO_STORE, cache.getExpiry("no-store", null));
+        assertEquals(DiskTileCache.NO_STORE, cache.getExpiry("public, private", null));
+        assertTrue(cache.getExpiry("no-cache", null) <= System.currentTimeMillis());
+
+        final long maxAge = cache.getExpiry("public, max-age=10", null);
+        assertTrue(maxAge >= now + 10000 && maxAge <= System.currentTimeMillis() + 10000);
+
+        // capped by the TTL
+        assertTrue(cache.getExpiry("max-age=3600", null) <= System.currentTimeMillis() + TTL);
+        assertTrue(cache.getExpiry(null, "Thu, 01 Jan 2099 00:00:00 GMT") <= System.currentTimeMillis() + TTL);
+        assertTrue(cache.getExpiry(null, "Thu, 01 Jan 1970 00:00:00 GMT") <= System.currentTimeMillis());
+    }
+
+    public void testRefresh() {
+        DiskTileCache cache = new DiskTileCache(dir, 1000, TTL);
+        final URI uri = URI.create("http://example.com/tile?x=1");
+        cache.put(uri, "image/png", "\"abc\"", null, cache.getExpiry("no-cache", null), new byte[]{1});
+        DiskTileCache.CachedTile tile = cache.get(uri);
+        assertFalse(tile.isFresh());
+
+        cache.refresh(tile, cache.getExpiry(null, null));
+        assertTrue(cache.get(uri).isFresh());
+        assertEquals(1, cache.getNbEntries());
+    }
+
+    public void testSharedInstance() throws InterruptedException {
+        final URI uri = URI.create("http://example.com/tile?x=1");
+        new DiskTileCache(dir, 1000, TTL).put(uri, "image/png", null, null, System.currentTimeMillis() + TTL, new byte[]{1});
+
+        DiskTileCache cache = DiskTileCache.getInstance(dir, 1000, TTL);
+        assertSame(cache, DiskTileCache.getInstance(new File(dir, "."), 2000, TTL));
+        // usable while the index is loaded in the background
+        assertNotNull(cache.get(uri));
+        for (int i = 0; i < 50 && cache.getNbEntries() == 0; ++i) {
+            Thread.sleep(100);
+        }
+        assertEquals(1, cache.getNbEntries());
+    }
+
+    public void testTempFiles() throws IOException {
+        final File subDir = new File(dir, "ab");
+        assertTrue(subDir.mkdirs());
+        final File recent = new File(subDir, "tile1.tmp");
+        final File old = new File(subDir, "tile2.tmp");
+        new FileOutputStream(recent).close();
+        new FileOutputStream(old).close();
+        assertTrue(old.setLastModified(System.currentTimeMillis() - 2 * 60 * 60 * 1000L));
+
+        new DiskTileCache(dir, 1000, TTL);
+        // may still be written by another instance
+        assertTrue(recent.exists());
+        assertFalse(old.exists());
+    }
+
+    private static void delete(File file) {
+        File[] children = file.listFiles();
+        for (int i = 0; children != null && i < children.length; ++i) {
+            delete(children[i]);
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Image;
+import org.mapfish.print.PrintTestCase;
+
+import java.io.IOException;
+import java.net.URI;
+
+public class ImageCacheTest extends PrintTestCase {
+    private static final URI URI1 = URI.create("http://example.com/logo.png");
+
+    public ImageCacheTest(String name) {
+        super(name);
+    }
+
+    public void testHit() throws IOException, DocumentException {
+        ImageCache cache = new ImageCache(1000, 0);
+        final CountingLoader loader = new CountingLoader();
+        final Image image1 = cache.get(URI1, null, loader);
+        final Image image2 = cache.get(URI1, null, loader);
+        assertNotSame(image1, image2);
+        assertEquals(1, loader.nbLoads);
+        assertEquals(1, cache.getNbHits());
+
+        // the servers may answer differently depending on the referer
+        cache.get(URI1, "http://example.com/app", loader);
+        assertEquals(2, loader.nbLoads);
+    }
+
+    public void testTtl() throws IOException, DocumentException, InterruptedException {
+        ImageCache cache = new ImageCache(1000, 50);
+        final CountingLoader loader = new CountingLoader();
+        cache.get(URI1, null, loader);
+        cache.get(URI1, null, loader);
+        assertEquals(1, loader.nbLoads);
+
+        Thread.sleep(100);
+        cache.get(URI1, null, loader);
+        assertEquals(2, loader.nbLoads);
+        assertEquals(3, cache.getTotalBytes());
+    }
+
+    private static class CountingLoader implements ImageCache.Loader {
+        private int nbLoads = 0;
+
+        public Image load() throws DocumentException {
+            nbLoads++;
+            return Image.getInstance(1, 1, 3, 8, new byte[3]);
+        }
+    }
+}
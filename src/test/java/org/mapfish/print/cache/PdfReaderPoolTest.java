@@ -0,0 +1,109 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import com.lowagie.text.Document;
+import com.lowagie.text.DocumentException;
+import com.lowagie.text.Paragraph;
+import com.lowagie.text.pdf.PdfReader;
+import com.lowagie.text.pdf.PdfWriter;
+import org.mapfish.print.PrintTestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+public class PdfReaderPoolTest extends PrintTestCase {
+    private File file;
+
+    public PdfReaderPoolTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        file = File.createTempFile("pdfReaderPool", ".pdf");
+        writePdf(file, 1);
+    }
+
+    protected void tearDown() throws Exception {
+        file.delete();
+        super.tearDown();
+    }
+
+    public void testReuse() throws IOException {
+        PdfReaderPool pool = new PdfReaderPool();
+        PdfReader reader1 = pool.acquire(file);
+        assertEquals(1, reader1.getNumberOfPages());
+        pool.release(reader1);
+
+        PdfReader reader2 = pool.acquire(file);
+        assertSame(reader1, reader2);
+        assertEquals(1, pool.getNbHits());
+        assertEquals(1, pool.getNbLoads());
+
+        // the readers are not shared by two jobs
+        PdfReader reader3 = pool.acquire(file);
+        assertNotSame(reader2, reader3);
+        assertEquals(1, pool.getNbHits());
+        assertEquals(2, pool.getNbLoads());
+
+        pool.release(reader2);
+        pool.release(reader3);
+        pool.acquire(file);
+        pool.acquire(file);
+        assertEquals(3, pool.getNbHits());
+        assertEquals(2, pool.getNbLoads());
+    }
+
+    public void testModified() throws IOException {
+        PdfReaderPool pool = new PdfReaderPool();
+        final long lastModified = file.lastModified();
+        pool.release(pool.acquire(file));
+
+        writePdf(file, 2);
+        assertTrue(file.setLastModified(lastModified + 10000));
+
+        PdfReader reader = pool.acquire(file);
+        assertEquals(2, reader.getNumberOfPages());
+        assertEquals(0, pool.getNbHits());
+        assertEquals(2, pool.getNbLoads());
+    }
+
+    private static void writePdf(File target, int nbPages) throws IOException {
+        Document doc = new Document();
+        FileOutputStream out = new FileOutputStream(target);
+        try {
+            PdfWriter.getInstance(doc, out);
+            doc.open();
+            for (int i = 0; i < nbPages; ++i) {
+                if (i > 0) {
+                    doc.newPage();
+                }
+                doc.add(new Paragraph("Page " + (i + 1)));
+            }
+            doc.close();
+        } catch (DocumentException e) {
+            throw new RuntimeException(e);
+        } finally {
+            out.close();
+        }
+    }
+}
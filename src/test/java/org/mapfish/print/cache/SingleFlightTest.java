@@ -0,0 +1,97 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.cache;
+
+import org.mapfish.print.PrintTestCase;
+
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class SingleFlightTest extends PrintTestCase {
+    public SingleFlightTest(String name) {
+        super(name);
+    }
+
+    public void testConcurrentLoads() throws Exception {
+        final SingleFlight<String, String> flight = new SingleFlight<String, String>();
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final AtomicInteger nbCalls = new AtomicInteger();
+        final Callable<String> loader = new Callable<String>() {
+            public String call() throws Exception {
+                nbCalls.incrementAndGet();
+                started.countDown();
+                release.await();
+                return "value";
+            }
+        };
+
+        final String[] results = new String[4];
+        Thread[] threads = new Thread[results.length];
+        for (int i = 0; i < threads.length; ++i) {
+            final int pos = i;
+            threads[i] = new Thread() {
+                public void run() {
+                    try {
+                        results[pos] = flight.get("key", loader);
+                    } catch (Exception e) {
+                        results[pos] = e.toString();
+                    }
+                }
+            };
+        }
+        threads[0].start();
+        started.await();
+        for (int i = 1; i < threads.length; ++i) {
+            threads[i].start();
+        }
+        while (flight.getNbAttached() < threads.length - 1) {
+            Thread.sleep(10);
+        }
+        release.countDown();
+        for (int i = 0; i < threads.length; ++i) {
+            threads[i].join();
+            assertEquals("value", results[i]);
+        }
+
+        assertEquals(1, nbCalls.get());
+        assertEquals(1, flight.getNbLoads());
+
+        // nothing is kept once finished
+        assertEquals("value", flight.get("key", loader));
+        assertEquals(2, nbCalls.get());
+    }
+
+    public void testException() throws Exception {
+        final SingleFlight<String, String> flight = new SingleFlight<String, String>();
+        try {
+            flight.get("key", new Callable<String>() {
+                public String call() throws Exception {
+                    throw new IOException("failed");
+                }
+            });
+            fail("Exception expected");
+        } catch (IOException e) {
+            assertEquals("failed", e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.config;
+
+import org.mapfish.print.PrintTestCase;
+
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.List;
+
+public class HostAuthorizerTest extends PrintTestCase {
+    public HostAuthorizerTest(String name) {
+        super(name);
+    }
+
+    public void testTrie() throws Exception {
+        List<HostMatcher> hosts = new ArrayList<HostMatcher>();
+        AddressHostMatcher network = new AddressHostMatcher();
+        network.setIp("10.1.0.0");
+        network.setMask("255.255.0.0");
+        hosts.add(network);
+        AddressHostMatcher single = new AddressHostMatcher();
+        single.setIp("192.168.5.3");
+        single.setPort(8080);
+        hosts.add(single);
+        HostAuthorizer authorizer = new HostAuthorizer(hosts);
+        DnsCache dnsCache = new DnsCache(60000, 1000);
+
+        assertTrue(authorizer.validate(new URI("http://10.1.0.1/wms"), dnsCache));
+        assertTrue(authorizer.validate(new URI("http://10.1.255.3/wms"), dnsCache));
+        assertFalse(authorizer.validate(new URI("http://10.2.0.1/wms"), dnsCache));
+        assertTrue(authorizer.validate(new URI("http://192.168.5.3:8080/wms"), dnsCache));
+        assertFalse(authorizer.validate(new URI("http://192.168.5.3/wms"), dnsCache));
+        assertFalse(authorizer.validate(new URI("http://192.168.5.4:8080/wms"), dnsCache));
+    }
+
+    public void testNonContiguousMask() throws Exception {
+        List<HostMatcher> hosts = new ArrayList<HostMatcher>();
+        AddressHostMatcher matcher = new AddressHostMatcher();
+        matcher.setIp("127.2.3.56");
+        matcher.setMask("255.255.255.127");
+        hosts.add(matcher);
+        HostAuthorizer authorizer = new HostAuthorizer(hosts);
+        DnsCache dnsCache = new DnsCache(60000, 1000);
+
+        assertTrue(authorizer.validate(new URI("http://127.2.3.184/cgi-bin/mapserv"), dnsCache));
+        assertFalse(authorizer.validate(new URI("http://127.2.3.156/cgi-bin/mapserv"), dnsCache));
+    }
+
+    public void testUnresolvable() throws Exception {
+        List<HostMatcher> hosts = new ArrayList<HostMatcher>();
+        AddressHostMatcher unknown = new AddressHostMatcher();
+        unknown.setIp("unknown.invalid");
+        hosts.add(unknown);
+        AddressHostMatcher single = new AddressHostMatcher();
+        single.setIp("192.168.5.3");
+        hosts.add(single);
+        HostAuthorizer authorizer = new HostAuthorizer(hosts);
+        DnsCache dnsCache = new DnsCache(60000, 1000);
+
+        assertTrue(authorizer.validate(new URI("http://192.168.5.3/wms"), dnsCache));
+        assertFalse(authorizer.validate(new URI("http://192.168.5.4/wms"), dnsCache));
+    }
+
+    public void testResolvedLater() throws Exception {
+        DnsCache dnsCache = new DnsCache(60000, 1000);
+        List<HostMatcher> hosts = new ArrayList<HostMatcher>();
+        hosts.add(new FlakyHostMatcher("192.168.5.3"));
+        HostAuthorizer authorizer = new HostAuthorizer(hosts, 0);
+        assertTrue(authorizer.validate(new URI("http://192.168.5.3/wms"), dnsCache));
+        assertFalse(authorizer.validate(new URI("http://192.168.5.4/wms"), dnsCache));
+
+        // not retried before the delay
+        hosts.set(0, new FlakyHostMatcher("192.168.5.3"));
+        authorizer = new HostAuthorizer(hosts, 60000);
+        assertFalse(authorizer.validate(new URI("http://192.168.5.3/wms"), dnsCache));
+    }
+
+    public void testPrefixLength() {
+        assertEquals(0, AddressTrie.getPrefixLength(new byte[]{0, 0, 0, 0}));
+        assertEquals(20, AddressTrie.getPrefixLength(new byte[]{(byte) 255, (byte) 255, (byte) 240, 0}));
+        assertEquals(32, AddressTrie.getPrefixLength(new byte[]{(byte) 255, (byte) 255, (byte) 255, (byte) 255}));
+        assertEquals(-1, AddressTrie.getPrefixLength(new byte[]{(byte) 255, 0, (byte) 255, 0}));
+    }
+
+    /**
+     * Fails to resolve its address the first time.
+     */
+    private static class FlakyHostMatcher extends InetHostMatcher {
+        private final String ip;
+        private int nbFailures = 1;
+
+        private FlakyHostMatcher(String ip) {
+            this.ip = ip;
+        }
+
+        protected byte[][] getAuthorizedIPs(InetAddress mask) throws UnknownHostException {
+            if (nbFailures > 0) {
+                nbFailures--;
+                throw new UnknownHostException(ip);
+            }
+            if (authorizedIPs == null) {
+                buildMaskedAuthorizedIPs(InetAddress.getAllByName(ip));
+            }
+            return authorizedIPs;
+        }
+
+        protected InetAddress getMaskAddress() {
+            return null;
+        }
+
+        public String toString() {
+            return "FlakyHostMatcher{ip='" + ip + "'}";
+        }
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map;
+
+import org.mapfish.print.PrintTestCase;
+
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class TileSchedulerTest extends PrintTestCase {
+    private TileScheduler scheduler;
+
+    public TileSchedulerTest(String name) {
+        super(name);
+    }
+
+    protected void setUp() throws Exception {
+        super.setUp();
+        scheduler = new TileScheduler(4, 1);
+        scheduler.start();
+    }
+
+    protected void tearDown() throws Exception {
+        scheduler.stop();
+        super.tearDown();
+    }
+
+    /**
+     * A slow host must not prevent the tasks of another host to run.
+     */
+    public void testPerHostLimit() throws Exception {
+        final CountDownLatch slowRelease = new CountDownLatch(1);
+        final AtomicInteger slowRunning = new AtomicInteger();
+        final AtomicInteger maxSlowRunning = new AtomicInteger();
+        final CountDownLatch slowDone = new CountDownLatch(3);
+        final Object job = new Object();
+
+        for (int i = 0; i < 3; ++i) {
+            scheduler.schedule(job, "slow", new Runnable() {
+                public void run() {
+                    final int running = slowRunning.incrementAndGet();
+                    synchronized (maxSlowRunning) {
+                        maxSlowRunning.set(Math.max(maxSlowRunning.get(), running));
+                    }
+                    try {
+                        slowRelease.await();
+                    } catch (InterruptedException e) {
+                        // stopping
+                    }
+                    slowRunning.decrementAndGet();
+                    slowDone.countDown();
+                }
+            });
+        }
+
+        final CountDownLatch fastDone = new CountDownLatch(1);
+        scheduler.schedule(new Object(), "fast", new Runnable() {
+            public void run() {
+                fastDone.countDown();
+            }
+        });
+
+        assertTrue("the fast host was blocked", fastDone.await(5, TimeUnit.SECONDS));
+        assertEquals(2, getStats("slow").getQueued());
+        slowRelease.countDown();
+        assertTrue(slowDone.await(5, TimeUnit.SECONDS));
+        assertEquals(1, maxSlowRunning.get());
+
+        final TileScheduler.HostStats stats = getStats("slow");
+        assertEquals(3, stats.getNbTasks());
+        assertEquals(0, stats.getQueued());
+    }
+
+    /**
+     * The tasks without host are not limited.
+     */
+    public void testNoHost() throws Exception {
+        final CountDownLatch started = new CountDownLatch(3);
+        final CountDownLatch release = new CountDownLatch(1);
+        for (int i = 0; i < 3; ++i) {
+            scheduler.schedule(this, null, new Runnable() {
+                public void run() {
+                    started.countDown();
+                    try {
+                        release.await();
+                    } catch (InterruptedException e) {
+                        // stopping
+                    }
+                }
+            });
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        release.countDown();
+    }
+
+    /**
+     * Once stopped, the tasks are run by the caller, nothing else would run them.
+     */
+    public void testStopped() {
+        scheduler.stop();
+        final Thread caller = Thread.currentThread();
+        final Thread[] runner = new Thread[1];
+        scheduler.schedule(this, "host", new Runnable() {
+            public void run() {
+                runner[0] = Thread.currentThread();
+            }
+        });
+        assertSame(caller, runner[0]);
+    }
+
+    /**
+     * Only the idle hosts are forgotten when there are too many of them.
+     */
+    public void testMaxHosts() throws Exception {
+        scheduler.stop();
+        scheduler = new TileScheduler(4, 1, 2);
+        scheduler.start();
+
+        final CountDownLatch release = new CountDownLatch(1);
+        scheduler.schedule(this, "busy", new Runnable() {
+            public void run() {
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    // stopping
+                }
+            }
+        });
+        for (String host : new String[]{"a", "b", "c"}) {
+            final CountDownLatch done = new CountDownLatch(1);
+            scheduler.schedule(this, host, new Runnable() {
+                public void run() {
+                    done.countDown();
+                }
+            });
+            assertTrue(done.await(5, TimeUnit.SECONDS));
+            while (getStats(host).getRunning() > 0) {
+                Thread.sleep(10);
+            }
+        }
+
+        final List<TileScheduler.HostStats> stats = scheduler.getStats();
+        assertEquals(2, stats.size());
+        final TileScheduler.HostStats busy = getStats("busy");
+        assertEquals(1, busy.getQueued() + busy.getRunning());
+        assertEquals(1, getStats("c").getNbTasks());
+        release.countDown();
+    }
+
+    private TileScheduler.HostStats getStats(String host) {
+        List<TileScheduler.HostStats> stats = scheduler.getStats();
+        for (TileScheduler.HostStats stat : stats) {
+            if (host.equals(stat.getHost())) {
+                return stat;
+            }
+        }
+        fail("No stats for " + host);
+        return null;
+    }
+}
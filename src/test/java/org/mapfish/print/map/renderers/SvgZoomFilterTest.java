@@ -0,0 +1,63 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.map.renderers;
+
+import org.mapfish.print.PrintTestCase;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.xml.sax.InputSource;
+
+import javax.xml.parsers.SAXParserFactory;
+import javax.xml.transform.TransformerFactory;
+import javax.xml.transform.dom.DOMResult;
+import javax.xml.transform.sax.SAXSource;
+import java.io.StringReader;
+
+public class SvgZoomFilterTest extends PrintTestCase {
+    public SvgZoomFilterTest(String name) {
+        super(name);
+    }
+
+    public void testFactorValue() {
+        assertEquals("3", SvgZoomFilter.factorValue("1.5", 2.0f));
+        assertEquals("5px", SvgZoomFilter.factorValue("2.5px", 2.0f));
+        assertEquals("none", SvgZoomFilter.factorValue("none", 2.0f));
+        assertEquals("2,4,6", SvgZoomFilter.factorArray("1, 2,3", 2.0f));
+    }
+
+    public void testFilter() throws Exception {
+        final String svg = "<?xml version=\"1.0\"?>\n" +
+                "<!DOCTYPE svg PUBLIC \"-//W3C//DTD SVG 1.1//EN\" \"http://www.w3.org/Graphics/SVG/1.1/DTD/svg11.dtd\">\n" +
+                "<svg width=\"10\"><g stroke-width=\"2\" rx=\"1\"><text font-size=\"8pt\">a</text></g></svg>";
+        final SAXParserFactory parsers = SAXParserFactory.newInstance();
+        parsers.setNamespaceAware(true);
+        final SvgZoomFilter filter = new SvgZoomFilter(parsers.newSAXParser().getXMLReader(), 1.5f);
+        final DOMResult result = new DOMResult();
+        TransformerFactory.newInstance().newTransformer().transform(new SAXSource(filter, new InputSource(new StringReader(svg))), result);
+
+        final Element root = ((Document) result.getNode()).getDocumentElement();
+        assertEquals(SvgZoomFilter.SVG_NS, root.getNamespaceURI());
+        assertEquals("10", root.getAttribute("width"));
+        final Element g = (Element) root.getFirstChild();
+        assertEquals("3", g.getAttribute("stroke-width"));
+        assertEquals("1.5", g.getAttribute("rx"));
+        assertEquals("12pt", ((Element) g.getFirstChild()).getAttribute("font-size"));
+    }
+}
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.output;
+
+import org.mapfish.print.PrintTestCase;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+
+public class PngEncoderTest extends PrintTestCase {
+    public PngEncoderTest(String name) {
+        super(name);
+    }
+
+    public void testAlpha() throws IOException {
+        final BufferedImage source = createSource();
+        final BufferedImage result = encode(source, true);
+
+        assertEquals(60, result.getWidth());
+        assertEquals(40, result.getHeight());
+        for (int y = 0; y < source.getHeight(); ++y) {
+            for (int x = 0; x < source.getWidth(); ++x) {
+                assertEquals(source.getRGB(x, y), result.getRGB(x, y));
+            }
+        }
+        assertEquals(0, result.getRGB(55, 10));
+        assertEquals(0, result.getRGB(10, 35));
+    }
+
+    public void testNoAlpha() throws IOException {
+        final BufferedImage source = createSource();
+        final BufferedImage result = encode(source, false);
+
+        for (int y = 0; y < source.getHeight(); ++y) {
+            for (int x = 0; x < source.getWidth(); ++x) {
+                assertEquals(source.getRGB(x, y) | 0xFF000000, result.getRGB(x, y));
+            }
+        }
+        assertEquals(0xFF000000, result.getRGB(10, 35));
+    }
+
+    public void testWrongNumberOfRows() throws IOException {
+        final PngEncoder encoder = new PngEncoder(new ByteArrayOutputStream(), 10, 2, true, -1);
+        encoder.writeEmptyRows(1);
+        try {
+            encoder.finish();
+            fail("Missing rows not detected");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private static BufferedImage createSource() {
+        final BufferedImage source = new BufferedImage(50, 30, BufferedImage.TYPE_INT_ARGB);
+        for (int y = 0; y < source.getHeight(); ++y) {
+            for (int x = 0; x < source.getWidth(); ++x) {
+                source.setRGB(x, y, (x * 5 << 24) | (y * 8 << 16) | (x * 3 << 8) | 77);
+            }
+        }
+        return source;
+    }
+
+    private static BufferedImage encode(BufferedImage source, boolean alpha) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final PngEncoder encoder = new PngEncoder(out, 60, 40, alpha, 6);
+        encoder.writeRows(source, 0, source.getHeight());
+        encoder.writeEmptyRows(10);
+        encoder.finish();
+        return ImageIO.read(new ByteArrayInputStream(out.toByteArray()));
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2009  Camptocamp
+ *
+ * This file is part of MapFish Print
+ *
+ * MapFish Print is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * MapFish Print is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with MapFish Print.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package org.mapfish.print.utils;
+
+import com.vividsolutions.jts.geom.Geometry;
+import com.vividsolutions.jts.geom.Polygon;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.mapfish.geo.MfFeature;
+import org.mapfish.geo.MfFeatureCollection;
+import org.mapfish.geo.MfGeoJSONReader;
+import org.mapfish.print.PrintTestCase;
+import org.mapfish.print.map.renderers.vector.StyledMfFeature;
+import org.mapfish.print.map.renderers.vector.StyledMfGeoFactory;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+public class JsonSpecReaderTest extends PrintTestCase {
+    private static final String GEO_JSON = "{\"type\": \"FeatureCollection\", \"features\": [" +
+            "{\"type\": \"Feature\", \"id\": 1, \"properties\": {\"_style\": \"red\"}, \"geometry\": " +
+            "{\"coordinates\": [[[0, 0], [10, 0], [10, 10], [0, 0]], [[1, 1, 5], [2, 1], [2, 2], [1, 1]]], \"type\": \"Polygon\"}}," +
+            "{\"type\": \"Feature\", \"properties\": {}, \"geometry\": {\"type\": \"MultiLineString\", \"coordinates\": [[[1, 2], [3, 4]], [[5, 6], [7, 8], [9, 10]]]}}," +
+            "{\"type\": \"Feature\", \"properties\": {}, \"geometry\": {\"type\": \"Point\", \"coordinates\": [1.5, -2.5]}}" +
+            "]}";
+
+    public JsonSpecReaderTest(String name) {
+        super(name);
+    }
+
+    public void testPlainJson() throws IOException, JSONException {
+        final JSONObject result = read("{\"a\": [1, 2.5, -3e2, true, null, \"t\\\"\\u00e9\"], \"b\": {}, \"c\": 12345678901}");
+        assertEquals(1, result.getJSONArray("a").getInt(0));
+        assertEquals(2.5, result.getJSONArray("a").getDouble(1));
+        assertEquals(-300.0, result.getJSONArray("a").getDouble(2));
+        assertEquals(true, result.getJSONArray("a").getBoolean(3));
+        assertTrue(result.getJSONArray("a").isNull(4));
+        assertEquals("t\"\u00e9", result.getJSONArray("a").getString(5));
+        assertEquals(0, result.getJSONObject("b").length());
+        assertEquals(12345678901L, result.getLong("c"));
+    }
+
+    public void testRelaxedSyntax() throws IOException, JSONException {
+        final JSONObject result = read("{a: 'it\\'s', b = A4 portrait; 'c' => [1,, 2,], d: TRUE, e: 1.5e2,}");
+        assertEquals("it's", result.getString("a"));
+        assertEquals("A4 portrait", result.getString("b"));
+        assertEquals(3, result.getJSONArray("c").length());
+        assertTrue(result.getJSONArray("c").isNull(1));
+        assertEquals(2, result.getJSONArray("c").getInt(2));
+        assertEquals(true, result.getBoolean("d"));
+        assertEquals(150.0, result.getDouble("e"));
+    }
+
+    /**
+     * The samples use the relaxed syntax accepted by org.json.
+     */
+    public void testSamples() throws IOException, JSONException {
+        final File[] samples = new File("samples").listFiles(new FilenameFilter() {
+            public boolean accept(File dir, String name) {
+                return name.endsWith(".json");
+            }
+        });
+        assertTrue(samples.length > 0);
+        for (int i = 0; i < samples.length; ++i) {
+            final Reader reader = new InputStreamReader(new FileInputStream(samples[i]), "UTF-8");
+            try {
+                final JSONObject spec = new JsonSpecReader(reader).readObject();
+                assertTrue(samples[i].getName(), spec.length() > 0);
+            } catch (JSONException e) {
+                fail(samples[i].getName() + ": " + e.getMessage());
+            } finally {
+                reader.close();
+            }
+        }
+    }
+
+    public void testGeoJson() throws IOException, JSONException {
+        final JSONObject spec = read("{\"layers\": [{\"type\": \"Vector\", \"geoJson\": " + GEO_JSON + "}]}");
+        final Object packed = spec.getJSONArray("layers").getJSONObject(0).get("geoJson");
+        assertTrue(packed instanceof PackedGeoJson);
+
+        final PJsonObject styles = new PJsonObject(new JSONObject("{\"red\": {\"strokeColor\": \"red\"}}"), "styles");
+        final StyledMfGeoFactory factory = new StyledMfGeoFactory(styles, "_style");
+        final List<MfFeature> features = new ArrayList<MfFeature>(((MfFeatureCollection) ((PackedGeoJson) packed).toMfGeo(factory)).getCollection());
+
+        //noinspection deprecation
+        final MfFeatureCollection expected = (MfFeatureCollection) new MfGeoJSONReader(factory).decode(new JSONObject(GEO_JSON));
+        final List<MfFeature> expectedFeatures = new ArrayList<MfFeature>(expected.getCollection());
+
+        assertEquals(expectedFeatures.size(), features.size());
+        for (int i = 0; i < features.size(); ++i) {
+            final Geometry geometry = ((StyledMfFeature) features.get(i)).getMfGeometry().getInternalGeometry();
+            final Geometry expectedGeometry = ((StyledMfFeature) expectedFeatures.get(i)).getMfGeometry().getInternalGeometry();
+            assertTrue(expectedGeometry + " != " + geometry, expectedGeometry.equalsExact(geometry));
+        }
+        assertEquals(1, ((Polygon) ((StyledMfFeature) features.get(0)).getMfGeometry().getInternalGeometry()).getNumInteriorRing());
+        assertEquals("red", ((StyledMfFeature) features.get(0)).getStyle().getString("strokeColor"));
+    }
+
+    public void testErrors() throws IOException {
+        assertInvalid("{\"a\": [1, 2}");
+        assertInvalid("{\"a\": 1} x");
+        assertInvalid("{\"a\": }");
+        assertInvalid("{\"a\" 1}");
+        assertInvalid("{\"geoJson\": {\"type\": \"Polygon\", \"coordinates\": [1, 2]}}");
+        assertInvalid("{\"geoJson\": {\"type\": \"LineString\", \"coordinates\": [[1, 2], [3, 4]}}");
+    }
+
+    private void assertInvalid(String json) throws IOException {
+        try {
+            read(json);
+            fail("Expected an error for " + json);
+        } catch (JSONException e) {
+            // expected
+        }
+    }
+
+    private static JSONObject read(String json) throws IOException, JSONException {
+        return new JsonSpecReader(new StringReader(json)).readObject();
+    }
+}